@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package provided.entity;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark compares ingredient amount math with {@link BigDecimal} and with {@link Quantity}:
+ * scaling every amount of a large shopping list by a serving ratio and summing the results. Run
+ * the benchmarks with -prof gc to compare allocation as well as time. Run it from the parent
+ * directory with:
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar mysql-java-recipes/target/benchmarks.jar QuantityBenchmark -prof gc
+ * </pre>
+ *
+ * @author Promineo
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuantityBenchmark {
+  private static final int AMOUNTS = 10_000;
+
+  private BigDecimal[] decimals;
+  private Quantity[] quantities;
+
+  @Setup(Level.Trial)
+  public void createAmounts() {
+    decimals = new BigDecimal[AMOUNTS];
+    quantities = new Quantity[AMOUNTS];
+
+    for(int index = 0; index < AMOUNTS; index++) {
+      /* Amounts from 0.25 to 12.00 in quarters, as a DECIMAL(7, 2) column holds them. */
+      long hundredths = 25L * (1 + index % 48);
+
+      decimals[index] = BigDecimal.valueOf(hundredths, 2);
+      quantities[index] = Quantity.ofHundredths(hundredths);
+    }
+  }
+
+  @Benchmark
+  public BigDecimal bigDecimal() {
+    BigDecimal total = BigDecimal.ZERO.setScale(2);
+    BigDecimal servings = BigDecimal.valueOf(6);
+    BigDecimal baseServings = BigDecimal.valueOf(4);
+
+    for(BigDecimal amount : decimals) {
+      total = total.add(amount.multiply(servings).divide(baseServings, 2, RoundingMode.HALF_EVEN));
+    }
+
+    return total;
+  }
+
+  @Benchmark
+  public Quantity quantity() {
+    Quantity total = Quantity.ZERO;
+
+    for(Quantity amount : quantities) {
+      total = total.add(amount.multiply(6, 4));
+    }
+
+    return total;
+  }
+
+  /**
+   * Totals soon pass the cached range, so each add above allocates. Summing the hundredths and
+   * creating one Quantity at the end doesn't.
+   */
+  @Benchmark
+  public Quantity quantityHundredths() {
+    long total = 0;
+
+    for(Quantity amount : quantities) {
+      total += amount.multiply(6, 4).getHundredths();
+    }
+
+    return Quantity.ofHundredths(total);
+  }
+}
@@ -0,0 +1,313 @@
+/**
+ *
+ */
+package provided.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import provided.entity.Quantity;
+import recipes.entity.Category;
+import recipes.entity.Ingredient;
+import recipes.entity.Recipe;
+import recipes.entity.Step;
+import recipes.entity.Unit;
+
+/**
+ * This benchmark compares three ways of mapping result set rows to each recipe entity:
+ * <ul>
+ * <li>reflective: the original {@link DaoBase#extract(ResultSet, Class)} code, which looks up the
+ * constructor and fields and calls getObject by name for every row.</li>
+ * <li>generated: the current extract path, a cached {@link RowMapper} plan with setters bound by
+ * LambdaMetafactory.</li>
+ * <li>handWritten: a mapper written out by hand with typed getters and setters. This is the best
+ * the generated mapper can hope for.</li>
+ * </ul>
+ *
+ * The rows come from an in-memory {@link CachedRowSet} so that no database is needed. Its getters
+ * cost the same for all three mappers. Run it from the parent directory with:
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar mysql-java-recipes/target/benchmarks.jar RowMapperBenchmark
+ * </pre>
+ *
+ * @author Promineo
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMapperBenchmark {
+  private static final int ROWS = 1000;
+
+  @Param({"recipe", "ingredient", "step", "unit", "category"})
+  private String entity;
+
+  private Class<?> classType;
+  private CachedRowSet rows;
+
+  /**
+   * Fill the row set for the chosen entity. Values are in the column types MySQL returns.
+   *
+   * @throws SQLException Thrown if the row set can't be built.
+   */
+  @Setup(Level.Trial)
+  public void createRows() throws SQLException {
+    switch(entity) {
+      case "recipe":
+        classType = Recipe.class;
+        rows = createRows(
+            new String[] {"recipe_id", "recipe_name", "notes", "num_servings", "prep_time",
+                "cook_time", "created_at"},
+            new int[] {Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.TIME,
+                Types.TIME, Types.TIMESTAMP},
+            row -> new Object[] {row, "Recipe " + row, row % 3 == 0 ? null : "Notes " + row,
+                row % 8, Time.valueOf("00:15:00"), Time.valueOf("01:30:00"),
+                Timestamp.valueOf("2022-03-01 12:00:00")});
+        break;
+
+      case "ingredient":
+        classType = Ingredient.class;
+        rows = createRows(
+            new String[] {"ingredient_id", "recipe_id", "unit_id", "ingredient_name",
+                "instruction", "ingredient_order", "amount"},
+            new int[] {Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.VARCHAR, Types.VARCHAR,
+                Types.INTEGER, Types.DECIMAL},
+            row -> new Object[] {row, row / 10, row % 12, "Ingredient " + row,
+                row % 2 == 0 ? null : "chopped", row % 10, new BigDecimal("1.25")});
+        break;
+
+      case "step":
+        classType = Step.class;
+        rows = createRows(new String[] {"step_id", "recipe_id", "step_order", "step_text"},
+            new int[] {Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.VARCHAR},
+            row -> new Object[] {row, row / 10, row % 10, "Stir the pot for step " + row});
+        break;
+
+      case "unit":
+        classType = Unit.class;
+        rows = createRows(new String[] {"unit_id", "unit_name_singular", "unit_name_plural"},
+            new int[] {Types.INTEGER, Types.VARCHAR, Types.VARCHAR},
+            row -> new Object[] {row, "cup", "cups"});
+        break;
+
+      case "category":
+        classType = Category.class;
+        rows = createRows(new String[] {"category_id", "category_name"},
+            new int[] {Types.INTEGER, Types.VARCHAR},
+            row -> new Object[] {row, "Category " + row});
+        break;
+
+      default:
+        throw new IllegalArgumentException("Unknown entity " + entity);
+    }
+  }
+
+  @Benchmark
+  public void reflective(Blackhole blackhole) throws Exception {
+    rows.beforeFirst();
+
+    while(rows.next()) {
+      blackhole.consume(reflectiveExtract(rows, classType));
+    }
+  }
+
+  @Benchmark
+  public void generated(Blackhole blackhole) throws Exception {
+    rows.beforeFirst();
+
+    while(rows.next()) {
+      blackhole.consume(RowMapper.forRow(rows, classType).map(rows));
+    }
+  }
+
+  @Benchmark
+  public void handWritten(Blackhole blackhole) throws Exception {
+    rows.beforeFirst();
+
+    while(rows.next()) {
+      blackhole.consume(handWrittenExtract(rows));
+    }
+  }
+
+  /**
+   * This is the extract method as it was before mapping plans were added.
+   */
+  private static <T> T reflectiveExtract(ResultSet rs, Class<T> classType) throws Exception {
+    Constructor<T> con = classType.getConstructor();
+    T obj = con.newInstance();
+
+    for(Field field : classType.getDeclaredFields()) {
+      String colName = DaoBase.camelCaseToSnakeCase(field.getName());
+      Class<?> fieldType = field.getType();
+
+      field.setAccessible(true);
+      Object fieldValue = null;
+
+      try {
+        fieldValue = rs.getObject(colName);
+      }
+      catch(SQLException e) {
+        /* The field isn't in the result set. */
+      }
+
+      if(Objects.nonNull(fieldValue)) {
+        if(fieldValue instanceof Time && fieldType.equals(LocalTime.class)) {
+          fieldValue = ((Time)fieldValue).toLocalTime();
+        }
+        else if(fieldValue instanceof Timestamp && fieldType.equals(LocalDateTime.class)) {
+          fieldValue = ((Timestamp)fieldValue).toLocalDateTime();
+        }
+
+        field.set(obj, fieldValue);
+      }
+    }
+
+    return obj;
+  }
+
+  private Object handWrittenExtract(ResultSet rs) throws SQLException {
+    switch(entity) {
+      case "recipe":
+        return handWrittenRecipe(rs);
+
+      case "ingredient":
+        return handWrittenIngredient(rs);
+
+      case "step":
+        return handWrittenStep(rs);
+
+      case "unit":
+        return handWrittenUnit(rs);
+
+      default:
+        return handWrittenCategory(rs);
+    }
+  }
+
+  private static Recipe handWrittenRecipe(ResultSet rs) throws SQLException {
+    Recipe recipe = new Recipe();
+    recipe.setRecipeId(getInteger(rs, 1));
+    recipe.setRecipeName(rs.getString(2));
+    recipe.setNotes(rs.getString(3));
+    recipe.setNumServings(getInteger(rs, 4));
+
+    Time prepTime = rs.getTime(5);
+    recipe.setPrepTime(Objects.isNull(prepTime) ? null : prepTime.toLocalTime());
+
+    Time cookTime = rs.getTime(6);
+    recipe.setCookTime(Objects.isNull(cookTime) ? null : cookTime.toLocalTime());
+
+    Timestamp createdAt = rs.getTimestamp(7);
+    recipe.setCreatedAt(Objects.isNull(createdAt) ? null : createdAt.toLocalDateTime());
+    return recipe;
+  }
+
+  private static Ingredient handWrittenIngredient(ResultSet rs) throws SQLException {
+    Ingredient ingredient = new Ingredient();
+    ingredient.setIngredientId(getInteger(rs, 1));
+    ingredient.setRecipeId(getInteger(rs, 2));
+    ingredient.setIngredientName(rs.getString(4));
+    ingredient.setInstruction(rs.getString(5));
+    ingredient.setIngredientOrder(getInteger(rs, 6));
+    ingredient.setAmount(Quantity.of(rs.getBigDecimal(7)));
+    return ingredient;
+  }
+
+  private static Step handWrittenStep(ResultSet rs) throws SQLException {
+    Step step = new Step();
+    step.setStepId(getInteger(rs, 1));
+    step.setRecipeId(getInteger(rs, 2));
+    step.setStepOrder(getInteger(rs, 3));
+    step.setStepText(rs.getString(4));
+    return step;
+  }
+
+  private static Unit handWrittenUnit(ResultSet rs) throws SQLException {
+    Unit unit = new Unit();
+    unit.setUnitId(getInteger(rs, 1));
+    unit.setUnitNameSingular(rs.getString(2));
+    unit.setUnitNamePlural(rs.getString(3));
+    return unit;
+  }
+
+  private static Category handWrittenCategory(ResultSet rs) throws SQLException {
+    Category category = new Category();
+    category.setCategoryId(getInteger(rs, 1));
+    category.setCategoryName(rs.getString(2));
+    return category;
+  }
+
+  private static Integer getInteger(ResultSet rs, int column) throws SQLException {
+    int value = rs.getInt(column);
+    return rs.wasNull() ? null : value;
+  }
+
+  /**
+   * This produces the column values for one row.
+   */
+  @FunctionalInterface
+  private interface RowValues {
+    Object[] forRow(int row);
+  }
+
+  private static CachedRowSet createRows(String[] labels, int[] types, RowValues values)
+      throws SQLException {
+    RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+    meta.setColumnCount(labels.length);
+
+    for(int index = 0; index < labels.length; index++) {
+      meta.setColumnLabel(index + 1, labels[index]);
+      meta.setColumnName(index + 1, labels[index]);
+      meta.setColumnType(index + 1, types[index]);
+    }
+
+    CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+    rowSet.setMetaData(meta);
+
+    for(int row = 1; row <= ROWS; row++) {
+      Object[] rowValues = values.forRow(row);
+
+      rowSet.moveToInsertRow();
+
+      for(int index = 0; index < rowValues.length; index++) {
+        rowSet.updateObject(index + 1, rowValues[index]);
+      }
+
+      rowSet.insertRow();
+      rowSet.moveToCurrentRow();
+    }
+
+    rowSet.beforeFirst();
+    return rowSet;
+  }
+}
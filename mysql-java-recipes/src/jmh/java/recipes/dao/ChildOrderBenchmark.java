@@ -0,0 +1,189 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import recipes.entity.Ingredient;
+import recipes.entity.IngredientMapping;
+import recipes.entity.Recipe;
+import recipes.exception.DbException;
+
+/**
+ * This benchmark adds ingredients from eight threads at once and compares two
+ * ways of choosing each ingredient's order:
+ * <ul>
+ * <li>counter: {@link RecipeDao#addIngredientToRecipe(Ingredient)}, which
+ * takes the order from the recipe's last_ingredient_order counter.</li>
+ * <li>count: the old way, SELECT COUNT(*) + 1 followed by the insert in the
+ * same transaction, written out here with plain JDBC.</li>
+ * </ul>
+ * With recipes=1 every thread adds to the same recipe, which is the worst
+ * case for both. The duplicates counter is the number of adds that the
+ * unique key on (recipe_id, ingredient_order) rejected because another
+ * thread had taken the same order. It should be zero for the counter.
+ *
+ * Unlike the other benchmarks, this one needs the database configured in
+ * recipes-db.properties, with the tables created (menu option 1). It adds
+ * its own recipes and deletes them when it is done. Run it from the parent
+ * directory with:
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar mysql-java-recipes/target/benchmarks.jar ChildOrderBenchmark
+ * </pre>
+ *
+ * @author Promineo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ChildOrderBenchmark {
+  private static final String COUNT_SQL =
+      "SELECT COUNT(*) FROM ingredient WHERE recipe_id = ?";
+
+  @Param({"counter", "count"})
+  private String allocator;
+
+  @Param({"1", "8"})
+  private int recipes;
+
+  private final RecipeDao recipeDao = new RecipeDao();
+  private final List<Integer> recipeIds = new ArrayList<>();
+
+  /**
+   * The adds made by one thread, reported by JMH next to the throughput.
+   * Each thread adds to the recipe picked by its slot.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Outcomes {
+    private static final AtomicInteger NEXT_SLOT = new AtomicInteger();
+
+    public long added;
+    public long duplicates;
+
+    private final int slot = NEXT_SLOT.getAndIncrement();
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      added = 0;
+      duplicates = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void createRecipes() {
+    for (int index = 0; index < recipes; index++) {
+      Recipe recipe = new Recipe();
+
+      recipe.setRecipeName("ChildOrderBenchmark " + index);
+      recipeIds.add(recipeDao.insertRecipe(recipe).getRecipeId());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteRecipes() {
+    recipeIds.forEach(recipeDao::deleteRecipe);
+    recipeIds.clear();
+  }
+
+  @Benchmark
+  public void addIngredient(Outcomes outcomes) {
+    Ingredient ingredient = new Ingredient();
+
+    ingredient.setRecipeId(recipeIds.get(outcomes.slot % recipeIds.size()));
+    ingredient.setIngredientName("salt");
+
+    try {
+      if (allocator.equals("counter")) {
+        recipeDao.addIngredientToRecipe(ingredient);
+      } else {
+        addByCounting(ingredient);
+      }
+
+      outcomes.added++;
+    } catch (DbException e) {
+      if (!isDuplicateKey(e)) {
+        throw e;
+      }
+
+      outcomes.duplicates++;
+    }
+  }
+
+  /**
+   * Add an ingredient the way the DAO did before the counters: count the
+   * recipe's ingredients and insert with the count plus one.
+   */
+  private void addByCounting(Ingredient ingredient) {
+    int shard = DbConnection.getShardMap().shardFor(ingredient.getRecipeId());
+
+    try (Connection conn = DbConnection.getConnection(shard)) {
+      conn.setAutoCommit(false);
+
+      try {
+        try (PreparedStatement stmt = conn.prepareStatement(COUNT_SQL)) {
+          stmt.setInt(1, ingredient.getRecipeId());
+
+          try (ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            ingredient.setIngredientOrder(rs.getInt(1) + 1);
+          }
+        }
+
+        try (PreparedStatement stmt =
+            conn.prepareStatement(IngredientMapping.INSERT_SQL)) {
+          IngredientMapping.bindInsert(stmt, 1, ingredient);
+          stmt.executeUpdate();
+        }
+
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        throw e;
+      }
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  private static boolean isDuplicateKey(Throwable e) {
+    for (Throwable cause = e; Objects.nonNull(cause);
+        cause = cause.getCause()) {
+      if (cause instanceof SQLIntegrityConstraintViolationException) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
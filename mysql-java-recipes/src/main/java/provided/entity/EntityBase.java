@@ -3,7 +3,6 @@
  */
 package provided.entity;
 
-import java.math.BigDecimal;
 import java.util.Objects;
 
 /**
@@ -20,16 +19,18 @@ public abstract class EntityBase {
    * it adds a space on the end so: "1 1/2" -> "1 1/2 ". It handles anything
    * evenly divisible by 2 or 3, so: 1/4, 1/2, 1/3, etc.
    * 
+   * The amount is worked on in whole hundredths, so no floating-point values
+   * are created.
+   * 
    * @param value The amount to convert. It may be {@code null}.
    * @return The converted amount.
    */
-  protected String toFraction(BigDecimal value) {
+  protected String toFraction(Quantity value) {
     String result = "";
-    Double amount = Objects.isNull(value) ? null : value.doubleValue();
 
-    if (Objects.nonNull(amount) && amount > 0.0) {
-      int wholePart = Double.valueOf(Math.floor(amount)).intValue();
-      double fractionalPart = amount - wholePart;
+    if (Objects.nonNull(value) && value.signum() > 0) {
+      long wholePart = value.getWholePart();
+      int fractionalPart = value.getFractionalHundredths();
       Factor twoFactor = findFactor(fractionalPart, 16, 2);
       Factor threeFactor = findFactor(fractionalPart, 15, 5);
 
@@ -46,7 +47,7 @@ public abstract class EntityBase {
        * generate values like "0 1/2" instead of "1/2".
        */
       if (wholePart > 0) {
-        result += Integer.valueOf(wholePart).toString();
+        result += Long.toString(wholePart);
       }
 
       /* If there is a fractional part, finish the result. */
@@ -72,20 +73,21 @@ public abstract class EntityBase {
   /**
    * Find the closest match given the factor and divisor.
    * 
-   * @param fractionalPart This is the fractional part to match (i.e., .25).
+   * @param fractionalPart This is the fractional part to match in hundredths
+   *        (i.e., 25 for .25).
    * @param factor This is the smallest fraction to use when creating the
    *        result. So, a factor of 16 might return 1/16 or 1/8, 1/4, etc.
    * @param divisor This is the value to use when dividing the factor to get the
    *        result.
    * @return The lowest factor (i.e., 1/2 instead of 8/16).
    */
-  private Factor findFactor(double fractionalPart, int factor, int divisor) {
+  private Factor findFactor(int fractionalPart, int factor, int divisor) {
     /*
-     * Multiply the fractional part by the factor, round the result and convert
-     * to an integer. For example, .33333333 * 15 = 4.999999999, which, rounded
-     * is 5. This, applied with the factor, becomes 5/15.
+     * Multiply the fractional part by the factor and round the result to a
+     * whole number, rounding halves up. For example, .33 * 15 = 4.95, which,
+     * rounded, is 5. This, applied with the factor, becomes 5/15.
      */
-    int num = Double.valueOf(Math.round(fractionalPart * factor)).intValue();
+    int num = (fractionalPart * factor + 50) / 100;
 
     /*
      * Reduce the factor. If each part (num and factor) is divisible evenly by
@@ -0,0 +1,219 @@
+/**
+ *
+ */
+package provided.entity;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Objects;
+
+/**
+ * This is an exact amount with two decimal places, like an ingredient amount
+ * in a DECIMAL(7, 2) column. It holds the number of hundredths in a long, so
+ * adding, scaling, and comparing amounts is integer arithmetic rather than
+ * BigDecimal arithmetic. Quantities are immutable.
+ *
+ * Amounts from 0 to {@value #CACHE_HUNDREDTHS} hundredths, which covers
+ * nearly every amount in a recipe, are cached, so creating one of those
+ * doesn't allocate anything.
+ *
+ * Arithmetic that overflows a long throws an {@link ArithmeticException}.
+ * Results that don't fit in two decimal places are rounded half-even, as
+ * {@link BigDecimal} does by default.
+ *
+ * @author Promineo
+ *
+ */
+public final class Quantity implements Comparable<Quantity> {
+  /* Quantities up to this many hundredths are cached. */
+  private static final int CACHE_HUNDREDTHS = 10_000;
+
+  private static final Quantity[] CACHE = new Quantity[CACHE_HUNDREDTHS + 1];
+
+  static {
+    for (int hundredths = 0; hundredths < CACHE.length; hundredths++) {
+      CACHE[hundredths] = new Quantity(hundredths);
+    }
+  }
+
+  /** Zero. */
+  public static final Quantity ZERO = CACHE[0];
+
+  /** One. */
+  public static final Quantity ONE = CACHE[100];
+
+  private final long hundredths;
+
+  private Quantity(long hundredths) {
+    this.hundredths = hundredths;
+  }
+
+  /**
+   * Returns the quantity with the given number of hundredths: 250 is 2.50.
+   *
+   * @param hundredths The number of hundredths.
+   * @return The quantity.
+   */
+  public static Quantity ofHundredths(long hundredths) {
+    if (hundredths >= 0 && hundredths <= CACHE_HUNDREDTHS) {
+      return CACHE[(int) hundredths];
+    }
+
+    return new Quantity(hundredths);
+  }
+
+  /**
+   * Returns a quantity equal to a BigDecimal, rounded half-even to two
+   * decimal places. A DECIMAL(7, 2) column value converts exactly.
+   *
+   * @param value The value. It may be {@code null}.
+   * @return The quantity, or {@code null} if the value is {@code null}.
+   * @throws ArithmeticException Thrown if the value is too large.
+   */
+  public static Quantity of(BigDecimal value) {
+    if (Objects.isNull(value)) {
+      return null;
+    }
+
+    return ofHundredths(value.setScale(2, RoundingMode.HALF_EVEN)
+        .unscaledValue().longValueExact());
+  }
+
+  /**
+   * Returns the quantity nearest to a double, like an amount typed in by the
+   * user. A number like .1, which a double can't hold exactly, becomes 0.10.
+   *
+   * @param value The value.
+   * @return The quantity.
+   * @throws ArithmeticException Thrown if the value is not finite or is too
+   *         large.
+   */
+  public static Quantity of(double value) {
+    if (!Double.isFinite(value)) {
+      throw new ArithmeticException("Not a quantity: " + value);
+    }
+
+    return of(BigDecimal.valueOf(value));
+  }
+
+  /**
+   * Returns the number of hundredths: 250 for 2.50.
+   */
+  public long getHundredths() {
+    return hundredths;
+  }
+
+  /**
+   * Returns the sum of this quantity and another.
+   *
+   * @param other The quantity to add.
+   * @return The sum.
+   */
+  public Quantity add(Quantity other) {
+    return ofHundredths(Math.addExact(hundredths, other.hundredths));
+  }
+
+  /**
+   * Returns this quantity less another.
+   *
+   * @param other The quantity to subtract.
+   * @return The difference.
+   */
+  public Quantity subtract(Quantity other) {
+    return ofHundredths(Math.subtractExact(hundredths, other.hundredths));
+  }
+
+  /**
+   * Returns this quantity multiplied by a whole number.
+   *
+   * @param factor The multiplier.
+   * @return The product.
+   */
+  public Quantity multiply(long factor) {
+    return ofHundredths(Math.multiplyExact(hundredths, factor));
+  }
+
+  /**
+   * Returns this quantity multiplied by a ratio, rounded half-even to
+   * hundredths. This is how a recipe is scaled: an amount for 4 servings
+   * multiplied by 6/4 is the amount for 6 servings.
+   *
+   * @param numerator The numerator of the ratio.
+   * @param denominator The denominator of the ratio.
+   * @return The product.
+   * @throws ArithmeticException Thrown if the denominator is zero.
+   */
+  public Quantity multiply(long numerator, long denominator) {
+    long product = Math.multiplyExact(hundredths, numerator);
+    long quotient = product / denominator;
+    long remainder = product % denominator;
+
+    /*
+     * Round half-even: compare twice the remainder with the denominator,
+     * ignoring signs. If they are equal, round to the even quotient.
+     */
+    long twice = Math.abs(remainder) * 2;
+    long divisor = Math.abs(denominator);
+
+    if (twice > divisor || (twice == divisor && (quotient & 1) != 0)) {
+      quotient += Long.signum(product) * Long.signum(denominator);
+    }
+
+    return ofHundredths(quotient);
+  }
+
+  /**
+   * Returns the whole part of the quantity: 2 for 2.75.
+   */
+  public long getWholePart() {
+    return hundredths / 100;
+  }
+
+  /**
+   * Returns the hundredths after the whole part: 75 for 2.75.
+   */
+  public int getFractionalHundredths() {
+    return (int) (hundredths % 100);
+  }
+
+  /**
+   * Returns -1, 0, or 1 as this quantity is negative, zero, or positive.
+   */
+  public int signum() {
+    return Long.signum(hundredths);
+  }
+
+  /**
+   * Returns this quantity as a BigDecimal with two decimal places, for JDBC.
+   */
+  public BigDecimal toBigDecimal() {
+    return BigDecimal.valueOf(hundredths, 2);
+  }
+
+  @Override
+  public int compareTo(Quantity other) {
+    return Long.compare(hundredths, other.hundredths);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof Quantity && ((Quantity) obj).hundredths == hundredths;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(hundredths);
+  }
+
+  /**
+   * Returns the quantity with two decimal places, like "2.50" or "-0.25".
+   */
+  @Override
+  public String toString() {
+    long whole = Math.abs(getWholePart());
+    int fraction = Math.abs(getFractionalHundredths());
+
+    return (hundredths < 0 ? "-" : "") + whole + (fraction < 10 ? ".0" : ".")
+        + fraction;
+  }
+}
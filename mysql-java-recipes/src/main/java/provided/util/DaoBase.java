@@ -3,20 +3,13 @@
  */
 package provided.util;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Time;
-import java.sql.Timestamp;
-import java.sql.Types;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class contains utility methods for the DAO class.
@@ -68,72 +61,13 @@ public abstract class DaoBase {
    * @param value The parameter value. This may be null.
    * @param classType This is the Java class type of the parameter. It is used to select the correct
    *        method on the driver so that the parameter is added correctly. It is also used to set
-   *        the type in case the parameter is null.
+   *        the type in case the parameter is null. The supported types are those of
+   *        {@link StatementBinder}, whose setter for each class is looked up once and cached.
    * @throws SQLException Thrown if an error occurs.
    */
   protected void setParameter(PreparedStatement stmt, int parameterIndex, Object value,
       Class<?> classType) throws SQLException {
-    int sqlType = convertJavaClassToSqlType(classType);
-
-    if(Objects.isNull(value)) {
-      stmt.setNull(parameterIndex, sqlType);
-    }
-    else {
-      switch(sqlType) {
-        case Types.DECIMAL:
-          stmt.setBigDecimal(parameterIndex, (BigDecimal)value);
-          break;
-
-        case Types.DOUBLE:
-          stmt.setDouble(parameterIndex, (Double)value);
-          break;
-
-        case Types.INTEGER:
-          stmt.setInt(parameterIndex, (Integer)value);
-          break;
-
-        case Types.OTHER:
-          stmt.setObject(parameterIndex, value);
-          break;
-
-        case Types.VARCHAR:
-          stmt.setString(parameterIndex, (String)value);
-          break;
-
-        default:
-          throw new DaoException("Unknown parameter type: " + classType);
-      }
-    }
-  }
-
-  /**
-   * Converts from a Java class to a java.sql.Types value.
-   * 
-   * @param classType The class type
-   * @return A java.sql.Types value
-   */
-  private int convertJavaClassToSqlType(Class<?> classType) {
-    if(Integer.class.equals(classType)) {
-      return Types.INTEGER;
-    }
-
-    if(String.class.equals(classType)) {
-      return Types.VARCHAR;
-    }
-
-    if(Double.class.equals(classType)) {
-      return Types.DOUBLE;
-    }
-
-    if(BigDecimal.class.equals(classType)) {
-      return Types.DECIMAL;
-    }
-
-    if(LocalTime.class.equals(classType)) {
-      return Types.OTHER;
-    }
-
-    throw new DaoException("Unsupported class type: " + classType.getName());
+    StatementBinder.setter(classType).set(stmt, parameterIndex, value);
   }
 
   /**
@@ -166,20 +100,22 @@ public abstract class DaoBase {
   }
 
   /**
-   * This returns the integer primary key value of the last row inserted into the given table. It
+   * This returns the integer primary key value of the last row inserted on the connection. It
    * allows the ID to be inserted into the entity object after inserting it into the table.
    * 
-   * The other way of doing this is to call {@link Statement#getGeneratedKeys()}, but this returns a
-   * result set that needs to be parsed for the ID. It's not really any easier than this approach
-   * but should be closer to database-agnostic.
+   * This costs a round trip to the server after the insert. An insert prepared with
+   * {@link Statement#RETURN_GENERATED_KEYS} gets its keys back with the insert itself, so
+   * {@link #getGeneratedKey(Statement)} is preferred where the statement can be prepared that way.
    * 
    * @param conn The connection
-   * @param table The name of the table on which to get the last inserted primary key value
+   * @param table The name of the table into which the row was inserted. LAST_INSERT_ID() belongs
+   *        to the connection, not the table, so this is no longer used in the query. (Selecting it
+   *        FROM the table returned it once for every row in the table.)
    * @return The primary key value
    * @throws SQLException Thrown if an error occurs
    */
   protected Integer getLastInsertId(Connection conn, String table) throws SQLException {
-    String sql = String.format("SELECT LAST_INSERT_ID() FROM %s", table);
+    String sql = "SELECT LAST_INSERT_ID()";
 
     try(Statement stmt = conn.createStatement()) {
       try(ResultSet rs = stmt.executeQuery(sql)) {
@@ -192,18 +128,60 @@ public abstract class DaoBase {
     }
   }
 
+  /**
+   * This returns the primary key value generated by the insert just executed on the given
+   * statement. The statement must have been prepared with {@link Statement#RETURN_GENERATED_KEYS}.
+   * 
+   * @param stmt The statement that executed the insert
+   * @return The primary key value
+   * @throws SQLException Thrown if an error occurs or no key was generated
+   */
+  protected Integer getGeneratedKey(Statement stmt) throws SQLException {
+    try(ResultSet rs = stmt.getGeneratedKeys()) {
+      if(rs.next()) {
+        return rs.getInt(1);
+      }
+
+      throw new SQLException("Unable to retrieve the primary key value. No generated key!");
+    }
+  }
+
+  /**
+   * This returns every primary key value generated by the last execution of the given statement, in
+   * the order the rows were inserted. After a batch, that is one key for each row of each insert in
+   * the batch. With rewriteBatchedStatements=true the MySQL driver sends the batch as multi-row
+   * inserts and still returns every key.
+   * 
+   * @param stmt The statement that executed the insert or batch. It must have been prepared with
+   *        {@link Statement#RETURN_GENERATED_KEYS}.
+   * @return The primary key values
+   * @throws SQLException Thrown if an error occurs
+   */
+  protected List<Integer> getGeneratedKeys(Statement stmt) throws SQLException {
+    List<Integer> keys = new ArrayList<>();
+
+    try(ResultSet rs = stmt.getGeneratedKeys()) {
+      while(rs.next()) {
+        keys.add(rs.getInt(1));
+      }
+    }
+
+    return keys;
+  }
+
   /**
    * This extracts an object of the given type from a result set. The object must have a
-   * zero-argument constructor. It builds an object from a result set using reflection as follows:
-   * <ol>
-   * <li>The zero-argument constructor is obtained.</li>
-   * <li>An object of the given class type is created.</li>
-   * <li>A list of fields is obtained using reflection.</li>
-   * <li>The field name is converted from Java naming to SQL naming conventions (camel case to snake
-   * case). Obviously, for this to work, the Java name must match the column name. So, if the Java
-   * name is numServings, the column name must be num_servings.</li>
-   * <li>The value is assigned to the field in the object.</li>
-   * </ol>
+   * zero-argument constructor, or be immutable: a record, or a class whose public constructor takes
+   * every field in declaration order. Immutable objects are created through that constructor, as
+   * described in {@link RowMapper}. Each field name is converted from Java naming to SQL naming
+   * conventions (camel case to snake case) and the field is populated from the column with that
+   * name. Obviously, for this to work, the Java name must match the column name. So, if the Java
+   * name is numServings, the column name must be num_servings.
+   * 
+   * The reflection work is not repeated for every row. A {@link RowMapper} plan is built once for
+   * each class and result set layout. It finds the column index of each field up front, leaves out
+   * fields that have no column, and reads each value with the typed getter for the field type. The
+   * plan is cached and shared by all threads.
    * 
    * Example: if a query returns values for a recipe, a Recipe object is returned. So:
    * 
@@ -231,59 +209,16 @@ public abstract class DaoBase {
    * @return A populated class.
    */
   protected <T> T extract(ResultSet rs, Class<T> classType) {
-    try {
-      /* Obtain the constructor and create an object of the correct type. */
-      Constructor<T> con = classType.getConstructor();
-      T obj = con.newInstance();
-
-      /* Get the list of fields and loop through them. */
-      for(Field field : classType.getDeclaredFields()) {
-        String colName = camelCaseToSnakeCase(field.getName());
-        Class<?> fieldType = field.getType();
-
-        /*
-         * Set the field accessible flag which means that we can populate even private fields
-         * without using the setter.
-         */
-        field.setAccessible(true);
-        Object fieldValue = null;
-
-        try {
-          fieldValue = rs.getObject(colName);
-        }
-        catch(SQLException e) {
-          /*
-           * An exception caught here means that the field name isn't in the result set. Don't take
-           * any action.
-           */
-        }
-
-        /*
-         * Only set the value in the object if there is a value with the same name in the result
-         * set. This will preserve instance variables (like lists) that are assigned values when the
-         * object is created.
-         */
-        if(Objects.nonNull(fieldValue)) {
-          /*
-           * Convert the following types: Time -> LocalTime, and Timestamp -> LocalDateTime.
-           */
-          if(fieldValue instanceof Time && fieldType.equals(LocalTime.class)) {
-            fieldValue = ((Time)fieldValue).toLocalTime();
-          }
-          else if(fieldValue instanceof Timestamp && fieldType.equals(LocalDateTime.class)) {
-            fieldValue = ((Timestamp)fieldValue).toLocalDateTime();
-          }
-
-          field.set(obj, fieldValue);
-        }
-      }
-
-      return obj;
+    RowMapper<T> mapper;
 
+    try {
+      mapper = RowMapper.forRow(rs, classType);
     }
-    catch(Exception e) {
+    catch(SQLException e) {
       throw new DaoException("Unable to create object of type " + classType.getName(), e);
     }
+
+    return mapper.map(rs);
   }
 
   /**
@@ -292,7 +227,7 @@ public abstract class DaoBase {
    * @param identifier The name in camel case to convert.
    * @return The name converted to snake case.
    */
-  private String camelCaseToSnakeCase(String identifier) {
+  static String camelCaseToSnakeCase(String identifier) {
     StringBuilder nameBuilder = new StringBuilder();
 
     for(char ch : identifier.toCharArray()) {
@@ -0,0 +1,685 @@
+/**
+ *
+ */
+package provided.util;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import provided.entity.Quantity;
+
+/**
+ * This class maps result set rows to objects of one class. It is the mapping plan used by
+ * {@link DaoBase#extract(ResultSet, Class)}. The plan is worked out once for each combination of
+ * class and result set columns, and is then reused for every row:
+ * <ol>
+ * <li>The zero-argument constructor is looked up.</li>
+ * <li>Each instance field name is converted to snake case and matched against the column labels.
+ * Fields with no matching column are left out of the plan, so they cost nothing per row.</li>
+ * <li>For each matched field a reader is chosen that uses the typed getter for the field type
+ * (getInt, getString, getBigDecimal, etc.), so values don't have to be converted from the result
+ * of getObject.</li>
+ * <li>The constructor and the field's setter are bound with {@link LambdaMetafactory}. This spins
+ * up a small hidden class for each one that calls the constructor or setter directly, so the JIT
+ * can inline it like hand-written code. There is no reflective access check or argument array per
+ * call, as there is with {@link Field#set(Object, Object)}.</li>
+ * </ol>
+ *
+ * If a field has no public setter named in the usual way (setNumServings for numServings), or the
+ * class can't be accessed through a {@link MethodHandles.Lookup}, the plan falls back to reflection
+ * for that field or class.
+ *
+ * As with the original reflection code, a column value of SQL NULL leaves the field unchanged, so
+ * that field initializers (like lists of child objects) are preserved.
+ *
+ * Immutable classes are mapped through their canonical constructor instead. That is a record's
+ * canonical constructor, or, for a class with no public zero-argument constructor, the public
+ * constructor whose parameter types are the types of the instance fields in declaration order.
+ * Parameter i is then taken to set field i, since parameter names aren't kept at run time. Each
+ * parameter is read from the column named after its record component or field. A parameter with
+ * no column, or whose column is SQL NULL, gets an empty immutable list or set if it is a
+ * collection, zero or false if it is a primitive, and {@code null} otherwise. The constructor is
+ * bound to a {@link MethodHandle} that takes the arguments as an array.
+ *
+ * @author Promineo
+ *
+ * @param <T> The class that rows are mapped to.
+ */
+class RowMapper<T> {
+  /* Plans are shared by all DAOs and threads. The key is the class and the column labels. */
+  private static final Map<Key, RowMapper<?>> PLANS = new ConcurrentHashMap<>();
+
+  /*
+   * extract() is called once per row, so each thread remembers the plans for the result set it is
+   * reading. Only the first row of a result set pays for reading the metadata.
+   */
+  private static final ThreadLocal<Recent> RECENT = ThreadLocal.withInitial(Recent::new);
+
+  private final Class<T> classType;
+
+  /* These are set for a class that is populated through its setters. */
+  private final Supplier<Object> factory;
+  private final Binding[] bindings;
+
+  /* These are set for a class that is created through its canonical constructor. */
+  private final MethodHandle creator;
+  private final Argument[] arguments;
+
+  /**
+   * This reads one column from the current row of a result set.
+   */
+  @FunctionalInterface
+  interface ColumnReader {
+    /**
+     * Read the column value.
+     *
+     * @param rs The result set, positioned on a row.
+     * @param column The one-based column index.
+     * @return The value, or {@code null} if the column is SQL NULL.
+     * @throws SQLException Thrown if the value can't be read.
+     */
+    Object read(ResultSet rs, int column) throws SQLException;
+  }
+
+  /**
+   * This connects one field to the column it is read from.
+   */
+  private static class Binding {
+    private final int column;
+    private final ColumnReader reader;
+    private final BiConsumer<Object, Object> writer;
+
+    Binding(int column, ColumnReader reader, BiConsumer<Object, Object> writer) {
+      this.column = column;
+      this.reader = reader;
+      this.writer = writer;
+    }
+  }
+
+  /**
+   * This connects one canonical constructor parameter to the column it is read from.
+   */
+  private static class Argument {
+    /* This is zero if there is no column for the parameter. */
+    private final int column;
+    private final ColumnReader reader;
+    private final Object missing;
+
+    Argument(int column, ColumnReader reader, Object missing) {
+      this.column = column;
+      this.reader = reader;
+      this.missing = missing;
+    }
+  }
+
+  /**
+   * This is the cache key for a plan. The column labels are lower-cased because MySQL matches
+   * column names without regard to case.
+   */
+  private static class Key {
+    private final Class<?> classType;
+    private final List<String> labels;
+    private final int hash;
+
+    Key(Class<?> classType, List<String> labels) {
+      this.classType = classType;
+      this.labels = labels;
+      this.hash = 31 * classType.hashCode() + labels.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(!(obj instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key)obj;
+      return classType.equals(other.classType) && labels.equals(other.labels);
+    }
+  }
+
+  /**
+   * This holds the plans used for the result set a thread read most recently. The result set is
+   * weakly referenced so that a closed result set isn't kept alive by an idle thread.
+   */
+  private static class Recent {
+    private WeakReference<ResultSet> resultSet = new WeakReference<>(null);
+    private final Map<Class<?>, RowMapper<?>> mappers = new HashMap<>();
+  }
+
+  /**
+   * Returns the mapping plan for the given class and result set. This is the same as
+   * {@link #forResultSet(ResultSet, Class)}, but it skips the metadata lookup when the calling
+   * thread has already mapped a row of the same result set to the same class.
+   *
+   * @param <T> The class that rows are mapped to.
+   * @param rs The result set.
+   * @param classType The class that rows are mapped to.
+   * @return The mapping plan.
+   * @throws SQLException Thrown if the result set metadata can't be read.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> RowMapper<T> forRow(ResultSet rs, Class<T> classType) throws SQLException {
+    Recent recent = RECENT.get();
+
+    if(recent.resultSet.get() != rs) {
+      recent.resultSet = new WeakReference<>(rs);
+      recent.mappers.clear();
+    }
+
+    RowMapper<T> mapper = (RowMapper<T>)recent.mappers.get(classType);
+
+    if(Objects.isNull(mapper)) {
+      mapper = forResultSet(rs, classType);
+      recent.mappers.put(classType, mapper);
+    }
+
+    return mapper;
+  }
+
+  /**
+   * Returns the mapping plan for the given class and the columns of the given result set, building
+   * and caching it the first time this combination is seen.
+   *
+   * @param <T> The class that rows are mapped to.
+   * @param rs The result set. Only its metadata is used.
+   * @param classType The class that rows are mapped to.
+   * @return The mapping plan.
+   * @throws SQLException Thrown if the result set metadata can't be read.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> RowMapper<T> forResultSet(ResultSet rs, Class<T> classType) throws SQLException {
+    ResultSetMetaData meta = rs.getMetaData();
+    int count = meta.getColumnCount();
+    List<String> labels = new ArrayList<>(count);
+
+    for(int column = 1; column <= count; column++) {
+      labels.add(meta.getColumnLabel(column).toLowerCase(Locale.ROOT));
+    }
+
+    return (RowMapper<T>)PLANS.computeIfAbsent(new Key(classType, List.copyOf(labels)),
+        key -> new RowMapper<>(classType, key.labels));
+  }
+
+  /**
+   * Returns the number of plans that have been built. This is mainly useful to confirm that plans
+   * are being reused.
+   *
+   * @return The number of cached plans.
+   */
+  static int getPlanCount() {
+    return PLANS.size();
+  }
+
+  /**
+   * Build a plan.
+   *
+   * @param classType The class that rows are mapped to.
+   * @param labels The lower-case column labels, in column order.
+   */
+  private RowMapper(Class<T> classType, List<String> labels) {
+    this.classType = classType;
+
+    MethodHandles.Lookup lookup = lookupFor(classType);
+
+    /* If a label appears more than once, the first column wins, just like ResultSet.findColumn. */
+    Map<String, Integer> columns = new HashMap<>();
+
+    for(int index = 0; index < labels.size(); index++) {
+      columns.putIfAbsent(labels.get(index), index + 1);
+    }
+
+    List<Field> fields = instanceFields(classType);
+
+    Constructor<?> canonical = canonicalConstructor(classType, fields);
+
+    if(Objects.nonNull(canonical)) {
+      this.factory = null;
+      this.bindings = null;
+      this.creator = creatorFor(lookup, canonical);
+      this.arguments = new Argument[fields.size()];
+
+      for(int index = 0; index < fields.size(); index++) {
+        Field field = fields.get(index);
+        Integer column = columns.get(DaoBase.camelCaseToSnakeCase(field.getName()));
+
+        arguments[index] = new Argument(Objects.isNull(column) ? 0 : column,
+            readerFor(field.getType()), missingValue(field.getType()));
+      }
+
+      return;
+    }
+
+    this.factory = factoryFor(lookup, classType);
+    this.creator = null;
+    this.arguments = null;
+
+    List<Binding> found = new ArrayList<>();
+
+    for(Field field : fields) {
+      Integer column = columns.get(DaoBase.camelCaseToSnakeCase(field.getName()));
+
+      if(Objects.nonNull(column)) {
+        found.add(new Binding(column, readerFor(field.getType()), writerFor(lookup, field)));
+      }
+    }
+
+    this.bindings = found.toArray(new Binding[0]);
+  }
+
+  /**
+   * Create an object from the current row of the result set.
+   *
+   * @param rs The result set, positioned on the row to map by the caller.
+   * @return The populated object.
+   * @throws DaoBase.DaoException Thrown if the object can't be created or populated.
+   */
+  T map(ResultSet rs) {
+    if(Objects.nonNull(creator)) {
+      return create(rs);
+    }
+
+    try {
+      T obj = classType.cast(factory.get());
+
+      for(Binding binding : bindings) {
+        Object value = binding.reader.read(rs, binding.column);
+
+        if(Objects.nonNull(value)) {
+          binding.writer.accept(obj, value);
+        }
+      }
+
+      return obj;
+    }
+    catch(Exception e) {
+      throw new DaoBase.DaoException("Unable to create object of type " + classType.getName(), e);
+    }
+  }
+
+  /**
+   * Returns the instance fields of a class in declaration order. For a record, that is the order
+   * of its components, which is the order of the canonical constructor parameters.
+   */
+  private static List<Field> instanceFields(Class<?> classType) {
+    List<Field> fields = new ArrayList<>();
+
+    try {
+      if(classType.isRecord()) {
+        for(RecordComponent component : classType.getRecordComponents()) {
+          fields.add(classType.getDeclaredField(component.getName()));
+        }
+
+        return fields;
+      }
+    }
+    catch(NoSuchFieldException e) {
+      throw new DaoBase.DaoException("Unable to map record " + classType.getName(), e);
+    }
+
+    for(Field field : classType.getDeclaredFields()) {
+      if(!Modifier.isStatic(field.getModifiers())) {
+        fields.add(field);
+      }
+    }
+
+    return fields;
+  }
+
+  /**
+   * Create an immutable object from the current row of the result set by passing every column
+   * value to the canonical constructor.
+   */
+  private T create(ResultSet rs) {
+    Object[] values = new Object[arguments.length];
+
+    try {
+      for(int index = 0; index < arguments.length; index++) {
+        Argument argument = arguments[index];
+        Object value =
+            argument.column > 0 ? argument.reader.read(rs, argument.column) : null;
+
+        values[index] = Objects.isNull(value) ? argument.missing : value;
+      }
+
+      return classType.cast(creator.invokeExact(values));
+    }
+    catch(Throwable e) {
+      throw new DaoBase.DaoException("Unable to create object of type " + classType.getName(), e);
+    }
+  }
+
+  /**
+   * Find the constructor that an immutable class is created through: a record's canonical
+   * constructor, or the public constructor that takes every instance field in declaration order if
+   * the class has no public zero-argument constructor.
+   *
+   * @param classType The entity class.
+   * @param fields The instance fields, in declaration order.
+   * @return The constructor, or {@code null} if the class is populated through setters.
+   */
+  private static Constructor<?> canonicalConstructor(Class<?> classType, List<Field> fields) {
+    Class<?>[] types = fields.stream().map(Field::getType).toArray(Class<?>[]::new);
+
+    try {
+      if(classType.isRecord()) {
+        return classType.getDeclaredConstructor(types);
+      }
+
+      classType.getConstructor();
+      return null;
+    }
+    catch(NoSuchMethodException e) {
+      /* There is no zero-argument constructor, so look for the canonical one. */
+    }
+
+    try {
+      return classType.getConstructor(types);
+    }
+    catch(NoSuchMethodException e) {
+      throw new DaoBase.DaoException("Class " + classType.getName()
+          + " needs a public zero-argument constructor, or a constructor that takes every field",
+          e);
+    }
+  }
+
+  /**
+   * Bind a canonical constructor to a method handle that takes the arguments as an Object array
+   * and returns the new object.
+   *
+   * @param lookup The lookup for the class, or {@code null} to use reflection.
+   * @param constructor The canonical constructor.
+   * @return The method handle.
+   */
+  private static MethodHandle creatorFor(MethodHandles.Lookup lookup,
+      Constructor<?> constructor) {
+    MethodType generic = MethodType.methodType(Object.class, Object[].class);
+
+    try {
+      MethodHandle target;
+
+      if(Objects.nonNull(lookup)) {
+        target = lookup.unreflectConstructor(constructor);
+      }
+      else {
+        constructor.setAccessible(true);
+        target = MethodHandles.lookup().unreflectConstructor(constructor);
+      }
+
+      return target.asSpreader(Object[].class, constructor.getParameterCount()).asType(generic);
+    }
+    catch(IllegalAccessException | RuntimeException e) {
+      throw new DaoBase.DaoException(
+          "Unable to use the constructor of " + constructor.getDeclaringClass().getName(), e);
+    }
+  }
+
+  /**
+   * Returns the value passed for a constructor parameter that has no column or is SQL NULL: an
+   * empty immutable collection, so that child lists are never null, the default for a primitive,
+   * or {@code null}.
+   */
+  private static Object missingValue(Class<?> type) {
+    if(type == List.class || type == Collection.class) {
+      return List.of();
+    }
+
+    if(type == Set.class) {
+      return Set.of();
+    }
+
+    return type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+  }
+
+  /**
+   * Returns a lookup with private access to the entity class, which is needed to define the bound
+   * lambdas alongside it.
+   *
+   * @param classType The entity class.
+   * @return The lookup, or {@code null} if access isn't allowed. Reflection is used in that case.
+   */
+  private static MethodHandles.Lookup lookupFor(Class<?> classType) {
+    try {
+      return MethodHandles.privateLookupIn(classType, MethodHandles.lookup());
+    }
+    catch(IllegalAccessException | SecurityException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Bind the zero-argument constructor to a {@link Supplier}.
+   *
+   * @param lookup The lookup for the class, or {@code null} to use reflection.
+   * @param classType The entity class.
+   * @return A supplier of new, empty objects.
+   */
+  private static Supplier<Object> factoryFor(MethodHandles.Lookup lookup, Class<?> classType) {
+    Constructor<?> constructor;
+
+    try {
+      constructor = classType.getConstructor();
+    }
+    catch(NoSuchMethodException e) {
+      throw new DaoBase.DaoException(
+          "Class " + classType.getName() + " needs a public zero-argument constructor", e);
+    }
+
+    if(Objects.nonNull(lookup)) {
+      try {
+        MethodHandle target = lookup.unreflectConstructor(constructor);
+        CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+            MethodType.methodType(Supplier.class), MethodType.methodType(Object.class), target,
+            target.type());
+
+        @SuppressWarnings("unchecked")
+        Supplier<Object> factory = (Supplier<Object>)site.getTarget().invokeExact();
+        return factory;
+      }
+      catch(Throwable e) {
+        /* Fall through and use reflection. */
+      }
+    }
+
+    return () -> {
+      try {
+        return constructor.newInstance();
+      }
+      catch(ReflectiveOperationException e) {
+        throw new DaoBase.DaoException("Unable to create object of type " + classType.getName(), e);
+      }
+    };
+  }
+
+  /**
+   * Bind the setter for a field to a {@link BiConsumer} that takes the object and the value. The
+   * setter must be public, return void, and take exactly the field type.
+   *
+   * @param lookup The lookup for the class, or {@code null} to use reflection.
+   * @param field The field to populate.
+   * @return The writer.
+   */
+  private static BiConsumer<Object, Object> writerFor(MethodHandles.Lookup lookup, Field field) {
+    if(Objects.nonNull(lookup)) {
+      String name = field.getName();
+      String setterName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+
+      try {
+        MethodHandle target = lookup.findVirtual(field.getDeclaringClass(), setterName,
+            MethodType.methodType(void.class, field.getType()));
+        CallSite site = LambdaMetafactory.metafactory(lookup, "accept",
+            MethodType.methodType(BiConsumer.class),
+            MethodType.methodType(void.class, Object.class, Object.class), target, target.type());
+
+        @SuppressWarnings("unchecked")
+        BiConsumer<Object, Object> writer =
+            (BiConsumer<Object, Object>)site.getTarget().invokeExact();
+        return writer;
+      }
+      catch(Throwable e) {
+        /* There is no usable setter. Fall through and set the field directly. */
+      }
+    }
+
+    field.setAccessible(true);
+
+    return (obj, value) -> {
+      try {
+        field.set(obj, value);
+      }
+      catch(IllegalAccessException e) {
+        throw new DaoBase.DaoException("Unable to set field " + field.getName(), e);
+      }
+    };
+  }
+
+  /**
+   * Choose the reader for a field type. Primitive wrappers need a {@link ResultSet#wasNull()} check
+   * because the typed getters return zero for SQL NULL. Dates and times, UUIDs, and enums are read
+   * the way {@link StatementBinder} binds them. Other types fall back to getObject.
+   *
+   * @param type The field type.
+   * @return The column reader.
+   */
+  private static ColumnReader readerFor(Class<?> type) {
+    if(type == String.class) {
+      return ResultSet::getString;
+    }
+
+    if(type == Integer.class) {
+      return (rs, column) -> {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+      };
+    }
+
+    if(type == Long.class) {
+      return (rs, column) -> {
+        long value = rs.getLong(column);
+        return rs.wasNull() ? null : value;
+      };
+    }
+
+    if(type == Double.class) {
+      return (rs, column) -> {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+      };
+    }
+
+    if(type == Boolean.class) {
+      return (rs, column) -> {
+        boolean value = rs.getBoolean(column);
+        return rs.wasNull() ? null : value;
+      };
+    }
+
+    if(type == BigDecimal.class) {
+      return ResultSet::getBigDecimal;
+    }
+
+    if(type == Quantity.class) {
+      return (rs, column) -> Quantity.of(rs.getBigDecimal(column));
+    }
+
+    if(type == LocalTime.class) {
+      return (rs, column) -> {
+        Time value = rs.getTime(column);
+        return Objects.isNull(value) ? null : value.toLocalTime();
+      };
+    }
+
+    if(type == LocalDateTime.class) {
+      return (rs, column) -> {
+        Timestamp value = rs.getTimestamp(column);
+        return Objects.isNull(value) ? null : value.toLocalDateTime();
+      };
+    }
+
+    if(type == LocalDate.class) {
+      return (rs, column) -> {
+        Date value = rs.getDate(column);
+        return Objects.isNull(value) ? null : value.toLocalDate();
+      };
+    }
+
+    if(type == UUID.class) {
+      return (rs, column) -> {
+        byte[] value = rs.getBytes(column);
+        return Objects.isNull(value) ? null : StatementBinder.toUuid(value);
+      };
+    }
+
+    if(type.isEnum()) {
+      return enumReader(type);
+    }
+
+    return ResultSet::getObject;
+  }
+
+  /**
+   * Returns a reader for an enum column, which holds the name of the constant as bound by
+   * {@link StatementBinder}. The constants are looked up by name in a map built here, once.
+   *
+   * @param type The enum type.
+   * @return The column reader.
+   */
+  private static ColumnReader enumReader(Class<?> type) {
+    Map<String, Object> constants = new HashMap<>();
+
+    for(Object constant : type.getEnumConstants()) {
+      constants.put(((Enum<?>)constant).name(), constant);
+    }
+
+    return (rs, column) -> {
+      String name = rs.getString(column);
+
+      if(Objects.isNull(name)) {
+        return null;
+      }
+
+      Object value = constants.get(name);
+
+      if(Objects.isNull(value)) {
+        throw new SQLException("No constant " + name + " in " + type.getName());
+      }
+
+      return value;
+    };
+  }
+}
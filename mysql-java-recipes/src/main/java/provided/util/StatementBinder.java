@@ -0,0 +1,297 @@
+/**
+ *
+ */
+package provided.util;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import provided.entity.Quantity;
+
+/**
+ * This class binds the parameters of one SQL statement. It is compiled once for each statement:
+ * the parameter types are given up front, and a setter that calls the typed JDBC method for its
+ * type (setInt, setString, setTime, etc.) is chosen for each parameter then. Binding a row of
+ * values is then a direct call per parameter, with no lookup of the value's class and no switch
+ * on the SQL type, and nothing goes through setObject, which makes the driver work out the type
+ * again for every value.
+ *
+ * The supported parameter types, and how each is sent, are:
+ * <ul>
+ * <li>Integer, Long, Double, Boolean, String, and BigDecimal: their own setters.</li>
+ * <li>{@link Quantity}: setBigDecimal, for a DECIMAL column.</li>
+ * <li>LocalDate, LocalTime, and LocalDateTime: setDate, setTime, and setTimestamp, for DATE, TIME,
+ * and DATETIME or TIMESTAMP columns.</li>
+ * <li>Enums: setString with the constant's name, for a VARCHAR or ENUM column.</li>
+ * <li>UUID: setBytes with the 16 bytes of the UUID, most significant first, for a BINARY(16)
+ * column.</li>
+ * </ul>
+ *
+ * A {@code null} value is sent with setNull and the SQL type of its parameter. Binders are
+ * immutable, so one binder can be shared by every thread that runs its statement. They are cached
+ * by SQL text; see {@link #forSql(String, Class...)}.
+ *
+ * @author Promineo
+ *
+ */
+public final class StatementBinder {
+  /* Binders are shared by all DAOs and threads. The key is the SQL text. */
+  private static final Map<String, StatementBinder> BINDERS = new ConcurrentHashMap<>();
+
+  /* The setter for each parameter type, chosen the first time the type is seen. */
+  private static final ClassValue<ParameterSetter> SETTERS = new ClassValue<>() {
+    @Override
+    protected ParameterSetter computeValue(Class<?> type) {
+      return setterFor(type);
+    }
+  };
+
+  private final String sql;
+  private final Class<?>[] types;
+  private final ParameterSetter[] setters;
+
+  /**
+   * This sets one parameter of a prepared statement to a value of a known type.
+   */
+  @FunctionalInterface
+  interface ParameterSetter {
+    /**
+     * Set the parameter.
+     *
+     * @param stmt The prepared statement.
+     * @param index The one-based parameter index.
+     * @param value The value. This may be null.
+     * @throws SQLException Thrown if the parameter can't be set.
+     */
+    void set(PreparedStatement stmt, int index, Object value) throws SQLException;
+  }
+
+  /**
+   * Returns the binder for a statement, compiling and caching it the first time the statement is
+   * seen.
+   *
+   * @param sql The SQL, with a question mark for each parameter.
+   * @param types The Java type of each parameter, in order.
+   * @return The binder.
+   * @throws DaoBase.DaoException Thrown if a type isn't supported, if the number of types doesn't
+   *         match the number of parameters, or if the statement already has a binder with different
+   *         types.
+   */
+  public static StatementBinder forSql(String sql, Class<?>... types) {
+    StatementBinder binder = BINDERS.computeIfAbsent(sql, key -> new StatementBinder(key, types));
+
+    if(!Arrays.equals(binder.types, types)) {
+      throw new DaoBase.DaoException("Statement is already bound with parameter types "
+          + Arrays.toString(binder.types) + ": " + sql);
+    }
+
+    return binder;
+  }
+
+  /**
+   * Compile a binder.
+   *
+   * @param sql The SQL.
+   * @param types The parameter types.
+   */
+  private StatementBinder(String sql, Class<?>[] types) {
+    int count = countParameters(sql);
+
+    if(count != types.length) {
+      throw new DaoBase.DaoException("Statement has " + count + " parameters but "
+          + types.length + " types were given: " + sql);
+    }
+
+    this.sql = sql;
+    this.types = types.clone();
+    this.setters = new ParameterSetter[types.length];
+
+    for(int index = 0; index < types.length; index++) {
+      setters[index] = setter(types[index]);
+    }
+  }
+
+  /**
+   * Set every parameter of the statement.
+   *
+   * @param stmt The statement prepared from this binder's SQL.
+   * @param values A value for each parameter, in order. Any of them may be null.
+   * @throws SQLException Thrown if a parameter can't be set.
+   * @throws DaoBase.DaoException Thrown if the number of values is wrong.
+   */
+  public void bind(PreparedStatement stmt, Object... values) throws SQLException {
+    if(values.length != setters.length) {
+      throw new DaoBase.DaoException("Expected " + setters.length + " parameter values but got "
+          + values.length + ": " + sql);
+    }
+
+    for(int index = 0; index < setters.length; index++) {
+      setters[index].set(stmt, index + 1, values[index]);
+    }
+  }
+
+  /**
+   * Returns the setter for one parameter type. Setters are cached per class, so this is cheap to
+   * call repeatedly. It is what {@link DaoBase} uses to set a single parameter.
+   *
+   * @param type The parameter type.
+   * @return The setter.
+   * @throws DaoBase.DaoException Thrown if the type isn't supported.
+   */
+  static ParameterSetter setter(Class<?> type) {
+    ParameterSetter setter = SETTERS.get(type);
+
+    if(Objects.isNull(setter)) {
+      throw new DaoBase.DaoException("Unsupported class type: " + type.getName());
+    }
+
+    return setter;
+  }
+
+  /**
+   * Returns the number of parameters in a statement: the question marks that aren't inside a
+   * quoted string or identifier.
+   *
+   * @param sql The SQL.
+   * @return The number of parameters.
+   */
+  public static int countParameters(String sql) {
+    int count = 0;
+    char quote = 0;
+
+    for(int index = 0; index < sql.length(); index++) {
+      char ch = sql.charAt(index);
+
+      if(quote != 0) {
+        if(ch == quote) {
+          quote = 0;
+        }
+      }
+      else if(ch == '\'' || ch == '"' || ch == '`') {
+        quote = ch;
+      }
+      else if(ch == '?') {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Choose the setter for a parameter type, or return {@code null} if the type isn't supported.
+   */
+  private static ParameterSetter setterFor(Class<?> type) {
+    if(type == Integer.class) {
+      return nullable(Types.INTEGER, (stmt, index, value) -> stmt.setInt(index, (Integer)value));
+    }
+
+    if(type == Long.class) {
+      return nullable(Types.BIGINT, (stmt, index, value) -> stmt.setLong(index, (Long)value));
+    }
+
+    if(type == Double.class) {
+      return nullable(Types.DOUBLE, (stmt, index, value) -> stmt.setDouble(index, (Double)value));
+    }
+
+    if(type == Boolean.class) {
+      return nullable(Types.BOOLEAN,
+          (stmt, index, value) -> stmt.setBoolean(index, (Boolean)value));
+    }
+
+    if(type == String.class) {
+      return nullable(Types.VARCHAR, (stmt, index, value) -> stmt.setString(index, (String)value));
+    }
+
+    if(type == BigDecimal.class) {
+      return nullable(Types.DECIMAL,
+          (stmt, index, value) -> stmt.setBigDecimal(index, (BigDecimal)value));
+    }
+
+    if(type == Quantity.class) {
+      return nullable(Types.DECIMAL,
+          (stmt, index, value) -> stmt.setBigDecimal(index, ((Quantity)value).toBigDecimal()));
+    }
+
+    if(type == LocalDate.class) {
+      return nullable(Types.DATE,
+          (stmt, index, value) -> stmt.setDate(index, Date.valueOf((LocalDate)value)));
+    }
+
+    if(type == LocalTime.class) {
+      return nullable(Types.TIME,
+          (stmt, index, value) -> stmt.setTime(index, Time.valueOf((LocalTime)value)));
+    }
+
+    if(type == LocalDateTime.class) {
+      return nullable(Types.TIMESTAMP, (stmt, index, value) -> stmt.setTimestamp(index,
+          Timestamp.valueOf((LocalDateTime)value)));
+    }
+
+    if(type == UUID.class) {
+      return nullable(Types.BINARY,
+          (stmt, index, value) -> stmt.setBytes(index, toBytes((UUID)value)));
+    }
+
+    if(type.isEnum()) {
+      return nullable(Types.VARCHAR,
+          (stmt, index, value) -> stmt.setString(index, ((Enum<?>)value).name()));
+    }
+
+    return null;
+  }
+
+  /**
+   * Wrap a setter so that a null value is sent as SQL NULL of the given type.
+   */
+  private static ParameterSetter nullable(int sqlType, ParameterSetter setter) {
+    return (stmt, index, value) -> {
+      if(Objects.isNull(value)) {
+        stmt.setNull(index, sqlType);
+      }
+      else {
+        setter.set(stmt, index, value);
+      }
+    };
+  }
+
+  /**
+   * Returns the 16 bytes of a UUID, most significant first, as stored in a BINARY(16) column.
+   */
+  static byte[] toBytes(UUID uuid) {
+    return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits())
+        .putLong(uuid.getLeastSignificantBits()).array();
+  }
+
+  /**
+   * Returns the UUID held in the 16 bytes of a BINARY(16) column.
+   *
+   * @throws DaoBase.DaoException Thrown if there aren't 16 bytes.
+   */
+  static UUID toUuid(byte[] bytes) {
+    if(bytes.length != 16) {
+      throw new DaoBase.DaoException("A UUID needs 16 bytes, not " + bytes.length);
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    return new UUID(buffer.getLong(), buffer.getLong());
+  }
+
+  @Override
+  public String toString() {
+    return "StatementBinder [types=" + Arrays.toString(types) + ", sql=" + sql + "]";
+  }
+}
@@ -2,14 +2,15 @@
 
 package recipes;
 
-import java.math.BigDecimal;
 import java.time.LocalTime;
 import java.util.List;
 import java.util.Objects;
 import java.util.Scanner;
+import provided.entity.Quantity;
 import recipes.entity.Category;
 import recipes.entity.Ingredient;
 import recipes.entity.Recipe;
+import recipes.entity.RecipeSummary;
 import recipes.entity.Step;
 import recipes.entity.Unit;
 import recipes.exception.DbException;
@@ -38,7 +39,10 @@ public class Recipes {
       "6) Add step to current recipe",
       "7) Add category to current recipe",
       "8) Modify step in current recipe",
-      "9) Delete recipe"
+      "9) Delete recipe",
+      "10) Show query statistics",
+      "11) Move step in current recipe",
+      "12) Show shared object statistics"
   );
   // @formatter:on
 
@@ -48,7 +52,47 @@ public class Recipes {
    * @param args Command line arguments. Ignored.
    */
   public static void main(String[] args) {
-    new Recipes().displayMenu();
+    Recipes recipes = new Recipes();
+
+    recipes.validateQueries();
+    recipes.warmUp();
+    recipes.displayMenu();
+  }
+
+  /**
+   * If warm-up is turned on (recipes.db.warm-up=true), open the database
+   * connections, prepare the statements and load the reference data before the
+   * menu is shown, and print how long that took. If warm-up fails, the menu is
+   * shown anyway and the connections are opened on first use.
+   */
+  private void warmUp() {
+    try {
+      if (recipeService.isWarmUpEnabled()) {
+        System.out.println(recipeService.warmUp());
+        System.out.println("Ready.");
+      }
+    } catch (Exception e) {
+      System.out.println("\nWarm-up failed: " + e);
+    }
+  }
+
+  /**
+   * If query validation is turned on (recipes.db.validate-queries=true), check
+   * every query against the database and print a warning for each one that
+   * the database rejects. Until the tables have been created (option 1),
+   * every query is expected to fail. The menu is shown either way.
+   */
+  private void validateQueries() {
+    try {
+      if (recipeService.isQueryValidationEnabled()) {
+        List<String> problems = recipeService.validateQueries();
+
+        problems.forEach(
+            problem -> System.out.println("Warning: invalid query " + problem));
+      }
+    } catch (Exception e) {
+      System.out.println("\nQuery validation failed: " + e);
+    }
   }
 
   /**
@@ -103,6 +147,18 @@ public class Recipes {
             deleteRecipe();
             break;
 
+          case 10:
+            showQueryStatistics();
+            break;
+
+          case 11:
+            moveStepInCurrentRecipe();
+            break;
+
+          case 12:
+            showSharedObjects();
+            break;
+
           default:
             System.out.println("\n" + operation + " is not valid. Try again.");
             break;
@@ -165,25 +221,63 @@ public class Recipes {
       if (Objects.nonNull(stepText)) {
         Step step = new Step();
 
+        Integer recipeId = curRecipe.getRecipeId();
+
         step.setStepId(stepId);
+        step.setRecipeId(recipeId);
         step.setStepText(stepText);
 
         /*
          * Call the recipe service to modify the step text. We don't want to
          * change the step ID or the step order, so the only column that is
-         * modified is the step text.
+         * modified is the step text. The recipe ID is only used to find the
+         * step's shard and make sure the step belongs to the current recipe.
+         * Then call fetchRecipeById() to re-fetch the recipe, which will show
+         * the newly modified step. Both calls run in one transaction on one
+         * connection.
          */
-        recipeService.modifyStep(step);
 
-        /*
-         * Call fetchRecipeById() to re-fetch the recipe, which will show the
-         * newly modified step.
-         */
-        curRecipe = recipeService.fetchRecipeById(curRecipe.getRecipeId());
+        curRecipe = recipeService.inTransaction(tx -> {
+          tx.modifyStep(step);
+          return tx.fetchRecipeById(recipeId);
+        });
       }
     }
   }
 
+  /**
+   * This method prints the steps for the current recipe and lets the user move
+   * one of them after another step, or to the top.
+   */
+  private void moveStepInCurrentRecipe() {
+    if (Objects.isNull(curRecipe)) {
+      System.out.println("\nPlease select a recipe first.");
+      return;
+    }
+
+    Integer recipeId = curRecipe.getRecipeId();
+    List<Step> steps = recipeService.fetchSteps(recipeId);
+
+    System.out.println("\nSteps for current recipe");
+    steps.forEach(step -> System.out.println("   " + step));
+
+    Integer stepId = getIntInput("Enter step ID of step to move");
+
+    if (Objects.nonNull(stepId)) {
+      Integer afterStepId = getIntInput(
+          "Enter step ID of the step it goes after (press Enter for first)");
+
+      /*
+       * Only the moved step's row changes. The DAO gives it an order halfway
+       * between its new neighbors.
+       */
+      curRecipe = recipeService.inTransaction(tx -> {
+        tx.moveStep(recipeId, stepId, afterStepId);
+        return tx.fetchRecipeById(recipeId);
+      });
+    }
+  }
+
   /**
    * This method prints all the category names, then collects a category name
    * from the user. The category name will be used in a subquery to get the
@@ -213,21 +307,24 @@ public class Recipes {
      * If the user did not enter a new category name just go back into the menu.
      */
     if (Objects.nonNull(category)) {
-      recipeService.addCategoryToRecipe(curRecipe.getRecipeId(), category);
+      Integer recipeId = curRecipe.getRecipeId();
 
       /*
-       * Retrieve the current recipe again so that the newly added category is
-       * displayed.
+       * Add the category, then retrieve the current recipe again so that the
+       * newly added category is displayed.
        */
-      curRecipe = recipeService.fetchRecipeById(curRecipe.getRecipeId());
+      curRecipe = recipeService.inTransaction(tx -> {
+        tx.addCategoryToRecipe(recipeId, category);
+        return tx.fetchRecipeById(recipeId);
+      });
     }
   }
 
   /**
    * This method adds a step to the current recipe. Steps are added in order
-   * with the step order maintained by the DAO. There is no ability to change
-   * step order or delete a step so the application isn't as robust as it could
-   * be.
+   * with the step order maintained by the DAO. A step can be moved afterward
+   * (menu option 11), but there is no ability to delete a step so the
+   * application isn't as robust as it could be.
    */
   private void addStepToCurrentRecipe() {
     if (Objects.isNull(curRecipe)) {
@@ -237,8 +334,8 @@ public class Recipes {
 
     /*
      * The only input needed from the user is the step text. MySQL manages the
-     * step ID (primary key) and the step order is calculated to be one more
-     * than the current number of steps. The recipe ID is supplied by the
+     * step ID (primary key) and the step order is taken from the recipe's step
+     * counter, after the current last step. The recipe ID is supplied by the
      * current step object.
      */
     String stepText = getStringInput("Enter the step text");
@@ -249,14 +346,14 @@ public class Recipes {
       step.setRecipeId(curRecipe.getRecipeId());
       step.setStepText(stepText);
 
-      /* Call the recipe service to add the step. */
-      recipeService.addStep(step);
-
       /*
-       * Retrieve the current recipe again so that the newly added step is
-       * reflected in the display.
+       * Call the recipe service to add the step, then retrieve the current
+       * recipe again so that the newly added step is reflected in the display.
        */
-      curRecipe = recipeService.fetchRecipeById(step.getRecipeId());
+      curRecipe = recipeService.inTransaction(tx -> {
+        tx.addStep(step);
+        return tx.fetchRecipeById(step.getRecipeId());
+      });
     }
   }
 
@@ -279,13 +376,13 @@ public class Recipes {
     List<Unit> units = recipeService.fetchUnits();
 
     /*
-     * Create a BigDecimal object from the Double value collected from the user.
-     * BigDecimal is an immutable object. Once a value is assigned it can never
-     * be changed. The setScale method sets the number of decimal places in the
-     * BigDecimal object.
+     * Create a Quantity object from the Double value collected from the user.
+     * Quantity is an immutable object. Once a value is assigned it can never
+     * be changed. It holds the amount in hundredths, so the value is rounded
+     * to two decimal places, just like the amount column.
      */
-    BigDecimal amount = Objects.isNull(inputAmount) ? null
-        : new BigDecimal(inputAmount).setScale(2);
+    Quantity amount =
+        Objects.isNull(inputAmount) ? null : Quantity.of(inputAmount);
 
     /*
      * Print all the units, then get the unit ID to add to the ingredient from
@@ -313,15 +410,13 @@ public class Recipes {
 
     /*
      * Add the ingredient to the ingredient table. The recipe_id associates it
-     * with the current recipe.
+     * with the current recipe. Then re-read the current recipe so that the
+     * newly added ingredient is displayed.
      */
-    recipeService.addIngredient(ingredient);
-
-    /*
-     * Re-read the current recipe so that the newly added ingredient is
-     * displayed.
-     */
-    curRecipe = recipeService.fetchRecipeById(ingredient.getRecipeId());
+    curRecipe = recipeService.inTransaction(tx -> {
+      tx.addIngredient(ingredient);
+      return tx.fetchRecipeById(ingredient.getRecipeId());
+    });
   }
 
   /**
@@ -332,7 +427,7 @@ public class Recipes {
    */
   private void setCurrentRecipe() {
     /* Print the list of recipes and return that list. */
-    List<Recipe> recipes = listRecipes();
+    List<RecipeSummary> recipes = listRecipes();
 
     /* Input the selected recipe ID. */
     Integer recipeId = getIntInput("Select a recipe ID");
@@ -344,8 +439,8 @@ public class Recipes {
      * Loop through the list of recipes trying to find the ID that matches what
      * the user entered.
      */
-    for (Recipe recipe : recipes) {
-      if (recipe.getRecipeId().equals(recipeId)) {
+    for (RecipeSummary recipe : recipes) {
+      if (recipe.recipeId().equals(recipeId)) {
         curRecipe = recipeService.fetchRecipeById(recipeId);
         break;
       }
@@ -363,23 +458,23 @@ public class Recipes {
 
   /**
    * Fetch the list of recipes, print the recipe IDs and names on the console,
-   * and return the list.
+   * and return the list. Only the IDs and names are fetched.
    * 
    * @return The list of recipes
    */
-  private List<Recipe> listRecipes() {
-    List<Recipe> recipes = recipeService.fetchRecipes();
+  private List<RecipeSummary> listRecipes() {
+    List<RecipeSummary> recipes = recipeService.fetchRecipeSummaries();
 
     System.out.println("\nRecipes:");
 
     /* Print the list of recipes using a Lambda expression. */
     recipes.forEach(recipe -> System.out
-        .println("   " + recipe.getRecipeId() + ": " + recipe.getRecipeName()));
+        .println("   " + recipe.recipeId() + ": " + recipe.recipeName()));
 
     /* This will print the list of recipes using an enhanced for loop. */
     // for (Recipe recipe : recipes) {
     // System.out.println(
-    // " " + recipe.getRecipeId() + ": " + recipe.getRecipeName());
+    // " " + recipe.recipeId() + ": " + recipe.recipeName());
     // }
 
     return recipes;
@@ -414,11 +509,15 @@ public class Recipes {
      * exception handler in displayMenu(). This keeps the code very clean and
      * readable.
      */
-    Recipe dbRecipe = recipeService.addRecipe(recipe);
+    Recipe dbRecipe = recipeService.inTransaction(tx -> {
+      Recipe added = tx.addRecipe(recipe);
+      return tx.fetchRecipeById(added.getRecipeId());
+    });
+
     System.out.println("You added this recipe:\n" + dbRecipe);
 
     /* Set the current recipe to the newly entered recipe. */
-    curRecipe = recipeService.fetchRecipeById(dbRecipe.getRecipeId());
+    curRecipe = dbRecipe;
   }
 
   /**
@@ -436,6 +535,24 @@ public class Recipes {
     return LocalTime.of(hours, minutes);
   }
 
+  /**
+   * Print the latency and row counts of each query that has run, so that the
+   * slowest and busiest statements can be found, followed by how often each
+   * statement was found in the prepared statement caches.
+   */
+  private void showQueryStatistics() {
+    System.out.println("\n" + recipeService.describeQueries());
+    System.out.println("\n" + recipeService.describeStatementCache());
+  }
+
+  /**
+   * Print how much memory was saved by sharing the fetched units, categories,
+   * and strings between recipes.
+   */
+  private void showSharedObjects() {
+    System.out.println("\n" + recipeService.describeSharedObjects());
+  }
+
   /**
    * This is called to programmatically drop all the tables, recreate them and
    * populate them with data. It resets the table data to a known, initial
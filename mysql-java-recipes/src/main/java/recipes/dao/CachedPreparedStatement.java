@@ -0,0 +1,173 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+
+/**
+ * This is the prepared statement handed to callers by
+ * {@link PooledConnection#prepareStatement(String)}. It passes all calls
+ * through to a physical statement from the connection's
+ * {@link StatementCache} except {@link #close()}, which clears the
+ * parameters and puts the physical statement back in the cache instead of
+ * closing it. A new CachedPreparedStatement is created for each prepare, so
+ * once a caller has closed it any further use fails instead of interfering
+ * with the next caller.
+ *
+ * A statement whose settings have been changed (fetch size, timeout, maximum
+ * rows, and so on) is closed for real rather than cached, so that the next
+ * caller gets a statement with the driver defaults.
+ *
+ * @author Promineo
+ *
+ */
+class CachedPreparedStatement extends DelegatingPreparedStatement {
+  private final PooledConnection conn;
+  private final String sql;
+  private final PreparedStatement stmt;
+
+  private boolean closed;
+  private boolean altered;
+
+  /**
+   * Wrap a physical statement for one use.
+   *
+   * @param conn The connection handle the statement was prepared on.
+   * @param sql The cache key: the SQL text, followed by
+   *        {@link PooledConnection#GENERATED_KEYS} if the statement returns
+   *        generated keys.
+   * @param stmt The physical statement.
+   */
+  CachedPreparedStatement(PooledConnection conn, String sql,
+      PreparedStatement stmt) {
+    super(stmt);
+    this.conn = conn;
+    this.sql = sql;
+    this.stmt = stmt;
+  }
+
+  @Override
+  protected PreparedStatement getDelegate() throws SQLException {
+    if (closed) {
+      throw new SQLException("The statement has been closed.");
+    }
+
+    return super.getDelegate();
+  }
+
+  /**
+   * Returns the connection handle, not the physical connection, so that the
+   * caller can't get around the pool.
+   */
+  @Override
+  public Connection getConnection() throws SQLException {
+    getDelegate();
+    return conn;
+  }
+
+  /**
+   * Close any open result set, clear the parameters and batch, and put the
+   * physical statement back in the cache. Calling this more than once has no
+   * effect.
+   */
+  @Override
+  public void close() throws SQLException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    if (altered) {
+      stmt.close();
+      return;
+    }
+
+    try {
+      ResultSet rs = stmt.getResultSet();
+
+      if (Objects.nonNull(rs)) {
+        rs.close();
+      }
+
+      stmt.clearParameters();
+      stmt.clearBatch();
+      stmt.clearWarnings();
+    } catch (SQLException e) {
+      StatementCache.closeQuietly(stmt);
+      throw e;
+    }
+
+    conn.getEntry().getStatements().offer(sql, stmt,
+        conn.getStatementCacheSize());
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return closed || stmt.isClosed();
+  }
+
+  @Override
+  public void setMaxFieldSize(int max) throws SQLException {
+    altered = true;
+    super.setMaxFieldSize(max);
+  }
+
+  @Override
+  public void setMaxRows(int max) throws SQLException {
+    altered = true;
+    super.setMaxRows(max);
+  }
+
+  @Override
+  public void setLargeMaxRows(long max) throws SQLException {
+    altered = true;
+    super.setLargeMaxRows(max);
+  }
+
+  @Override
+  public void setEscapeProcessing(boolean enable) throws SQLException {
+    altered = true;
+    super.setEscapeProcessing(enable);
+  }
+
+  @Override
+  public void setQueryTimeout(int seconds) throws SQLException {
+    altered = true;
+    super.setQueryTimeout(seconds);
+  }
+
+  @Override
+  public void setCursorName(String name) throws SQLException {
+    altered = true;
+    super.setCursorName(name);
+  }
+
+  @Override
+  public void setFetchDirection(int direction) throws SQLException {
+    altered = true;
+    super.setFetchDirection(direction);
+  }
+
+  @Override
+  public void setFetchSize(int rows) throws SQLException {
+    altered = true;
+    super.setFetchSize(rows);
+  }
+
+  @Override
+  public void setPoolable(boolean poolable) throws SQLException {
+    altered = true;
+    super.setPoolable(poolable);
+  }
+
+  @Override
+  public void closeOnCompletion() throws SQLException {
+    altered = true;
+    super.closeOnCompletion();
+  }
+}
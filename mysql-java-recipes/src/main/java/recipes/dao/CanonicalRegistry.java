@@ -0,0 +1,249 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import recipes.entity.Category;
+import recipes.entity.Unit;
+
+/**
+ * This class keeps one shared copy of the values that repeat across fetched
+ * recipes, so that recipes held in memory don't each carry their own
+ * duplicates. RecipeDao passes the rows it maps through it:
+ * <ul>
+ * <li>Units and categories are reference data. Each ID resolves to a single
+ * canonical instance. A fetched object replaces the canonical one only if its
+ * names differ, that is, if the row has changed since it was first seen.</li>
+ * <li>Short strings from high-repetition columns (ingredient names,
+ * instructions, unit and category names) go through a string pool. The pool
+ * holds its strings weakly, so a string no recipe refers to any more can be
+ * collected, and it is bounded: once full, new strings are passed through
+ * unpooled until entries are collected.</li>
+ * </ul>
+ *
+ * Because the canonical units and categories are shared, callers must treat
+ * them as read-only. Every duplicate that is dropped is counted, with an
+ * estimate of the heap it would have taken (assuming a 64-bit JVM with
+ * compressed references); see {@link #toString()}.
+ *
+ * @author Promineo
+ *
+ */
+public class CanonicalRegistry {
+  /* Strings longer than this are rarely repeated and aren't pooled. */
+  static final int MAX_POOLED_LENGTH = 64;
+
+  /* Estimated size of a Unit or Category: header and references. */
+  private static final int ENTITY_BYTES = 24;
+
+  /* Estimated size of a String object, without its byte array. */
+  private static final int STRING_BYTES = 24;
+
+  /* Estimated size of an array header. */
+  private static final int ARRAY_BYTES = 16;
+
+  private final int maxStrings;
+  private final Map<Integer, Unit> units = new ConcurrentHashMap<>();
+  private final Map<Integer, Category> categories = new ConcurrentHashMap<>();
+
+  /* This is guarded by synchronizing on the map. */
+  private final Map<String, WeakReference<String>> strings =
+      new WeakHashMap<>();
+
+  private final LongAdder entityHits = new LongAdder();
+  private final LongAdder stringHits = new LongAdder();
+  private final LongAdder stringsNotPooled = new LongAdder();
+  private final LongAdder bytesSaved = new LongAdder();
+
+  /**
+   * Create a registry.
+   *
+   * @param maxStrings The most strings the pool will hold at once.
+   */
+  public CanonicalRegistry(int maxStrings) {
+    this.maxStrings = maxStrings;
+  }
+
+  /**
+   * Returns the canonical unit with the same ID as the given one. A unit
+   * without an ID (an ingredient with no unit) is returned unchanged.
+   *
+   * @param unit The fetched unit. It may be {@code null}.
+   * @return The shared unit.
+   */
+  public Unit unit(Unit unit) {
+    if (Objects.isNull(unit) || Objects.isNull(unit.getUnitId())) {
+      return unit;
+    }
+
+    Unit canonical = units.get(unit.getUnitId());
+
+    if (canonical == unit) {
+      return canonical;
+    }
+
+    if (Objects.nonNull(canonical)
+        && Objects.equals(canonical.getUnitNameSingular(),
+            unit.getUnitNameSingular())
+        && Objects.equals(canonical.getUnitNamePlural(),
+            unit.getUnitNamePlural())) {
+      entityHits.increment();
+      bytesSaved.add(ENTITY_BYTES
+          + duplicateBytes(canonical.getUnitNameSingular(),
+              unit.getUnitNameSingular())
+          + duplicateBytes(canonical.getUnitNamePlural(),
+              unit.getUnitNamePlural()));
+      return canonical;
+    }
+
+    unit.setUnitNameSingular(string(unit.getUnitNameSingular()));
+    unit.setUnitNamePlural(string(unit.getUnitNamePlural()));
+    units.put(unit.getUnitId(), unit);
+
+    return unit;
+  }
+
+  /**
+   * Returns the canonical category with the same ID as the given one.
+   *
+   * @param category The fetched category. It may be {@code null}.
+   * @return The shared category.
+   */
+  public Category category(Category category) {
+    if (Objects.isNull(category) || Objects.isNull(category.getCategoryId())) {
+      return category;
+    }
+
+    Category canonical = categories.get(category.getCategoryId());
+
+    if (canonical == category) {
+      return canonical;
+    }
+
+    if (Objects.nonNull(canonical) && Objects
+        .equals(canonical.getCategoryName(), category.getCategoryName())) {
+      entityHits.increment();
+      bytesSaved.add(ENTITY_BYTES + duplicateBytes(canonical.getCategoryName(),
+          category.getCategoryName()));
+      return canonical;
+    }
+
+    category.setCategoryName(string(category.getCategoryName()));
+    categories.put(category.getCategoryId(), category);
+
+    return category;
+  }
+
+  /**
+   * Returns the pooled copy of a string that is equal to the given one,
+   * adding it to the pool if there is room.
+   *
+   * @param value The string. It may be {@code null}.
+   * @return The pooled string, or the given one if it isn't pooled.
+   */
+  public String string(String value) {
+    if (Objects.isNull(value) || value.length() > MAX_POOLED_LENGTH) {
+      return value;
+    }
+
+    synchronized (strings) {
+      WeakReference<String> ref = strings.get(value);
+      String pooled = Objects.isNull(ref) ? null : ref.get();
+
+      if (Objects.nonNull(pooled)) {
+        if (pooled != value) {
+          stringHits.increment();
+          bytesSaved.add(stringBytes(value));
+        }
+
+        return pooled;
+      }
+
+      /* size() drops the entries whose strings have been collected. */
+      if (strings.size() >= maxStrings) {
+        stringsNotPooled.increment();
+        return value;
+      }
+
+      strings.put(value, new WeakReference<>(value));
+      return value;
+    }
+  }
+
+  /**
+   * Forget every canonical object and pooled string. This is called when the
+   * tables are reloaded, since IDs may then refer to different rows.
+   */
+  public void clear() {
+    units.clear();
+    categories.clear();
+
+    synchronized (strings) {
+      strings.clear();
+    }
+  }
+
+  /**
+   * Returns the estimated number of bytes saved by sharing objects, since the
+   * registry was created.
+   */
+  public long getBytesSaved() {
+    return bytesSaved.sum();
+  }
+
+  /**
+   * Returns how many fetched units and categories were replaced by a shared
+   * instance.
+   */
+  public long getEntityHits() {
+    return entityHits.sum();
+  }
+
+  /**
+   * Returns how many fetched strings were replaced by a pooled copy.
+   */
+  public long getStringHits() {
+    return stringHits.sum();
+  }
+
+  /**
+   * The bytes saved when a fetched string is dropped in favor of the
+   * canonical one, which is zero if they are already the same object.
+   */
+  private static long duplicateBytes(String canonical, String duplicate) {
+    return Objects.isNull(duplicate) || canonical == duplicate ? 0
+        : stringBytes(duplicate);
+  }
+
+  /**
+   * Estimate the size of a string: the String object plus its byte array,
+   * which uses one byte per character if every character is Latin-1, and two
+   * otherwise. Sizes are rounded up to a multiple of 8.
+   */
+  static long stringBytes(String value) {
+    boolean latin1 = value.chars().allMatch(ch -> ch < 256);
+    long array = ARRAY_BYTES + (long) value.length() * (latin1 ? 1 : 2);
+
+    return STRING_BYTES + ((array + 7) & ~7L);
+  }
+
+  @Override
+  public String toString() {
+    int pooled;
+
+    synchronized (strings) {
+      pooled = strings.size();
+    }
+
+    return "Shared objects [units=" + units.size() + ", categories="
+        + categories.size() + ", pooledStrings=" + pooled + "/" + maxStrings
+        + ", entityHits=" + entityHits.sum() + ", stringHits="
+        + stringHits.sum() + ", stringsNotPooled=" + stringsNotPooled.sum()
+        + ", estimatedBytesSaved=" + bytesSaved.sum() + "]";
+  }
+}
@@ -0,0 +1,347 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import recipes.entity.RecipeMapping;
+import recipes.exception.DbException;
+
+/**
+ * This class keeps the order of one kind of recipe child, ingredients or
+ * steps. The order column holds sparse integers, {@link #GAP} apart, rather
+ * than 1, 2, 3. That leaves room between any two children:
+ * <ul>
+ * <li>Appending takes the next orders from the recipe's counter (like
+ * last_step_order), as before, but GAP apart.</li>
+ * <li>Inserting a child between two others, or moving one there, gives it the
+ * order halfway between theirs. Only the child's own row is written. Dense
+ * orders would need every following row renumbered.</li>
+ * <li>When the halving leaves no room between two neighbors,
+ * {@link #compact(Connection, Integer)} renumbers the recipe's children GAP
+ * apart again. The DAO runs it in the background as soon as a gap is used
+ * up, and in line if an insert finds no room before that has happened.</li>
+ * </ul>
+ *
+ * Every operation first locks the recipe row, the same row the counter lives
+ * in, so two transactions can't pick the same order for one recipe. The
+ * unique key on (recipe_id, order) rejects a duplicate from anything that
+ * doesn't go through this class.
+ *
+ * @author Promineo
+ *
+ */
+final class ChildOrdering {
+  /** The distance between the orders of neighboring children. */
+  static final int GAP = 1024;
+
+  /**
+   * Where a child goes. If crowded is {@code true}, the child was put in the
+   * last free order between its neighbors, and the recipe should be
+   * compacted.
+   */
+  record Slot(int order, boolean crowded) {
+  }
+
+  private final String name;
+  private final NamedQuery takeOrders;
+  private final NamedQuery lockRecipe;
+  private final NamedQuery orderOf;
+  private final NamedQuery nextOrder;
+  private final NamedQuery setOrder;
+  private final NamedQuery idsByOrder;
+  private final NamedQuery negateOrders;
+  private final NamedQuery setCounter;
+
+  /* Recipes waiting for a background compaction. */
+  private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Define the queries for one child table in the catalog. Their names start
+   * with the table name, like step.takeOrders.
+   *
+   * @param queries The catalog.
+   * @param table The child table, like step.
+   * @param idColumn The child's primary key column, like step_id.
+   * @param orderColumn The order column, like step_order.
+   * @param counterColumn The recipe column with the last order handed out,
+   *        like last_step_order.
+   */
+  ChildOrdering(QueryCatalog queries, String table, String idColumn,
+      String orderColumn, String counterColumn) {
+    String recipe = RecipeMapping.TABLE;
+
+    this.name = table;
+
+    /*
+     * LAST_INSERT_ID(expr) makes the new counter the session's last insert
+     * ID, which the server sends back with the row count, so the orders are
+     * taken in one round trip.
+     */
+    takeOrders = queries.defineWithKeys(table + ".takeOrders",
+        "UPDATE " + recipe + " SET " + counterColumn + " = LAST_INSERT_ID("
+            + counterColumn + " + ?) WHERE recipe_id = ?",
+        Integer.class, Integer.class);
+
+    lockRecipe = queries.define(table + ".lockRecipe", "SELECT recipe_id FROM "
+        + recipe + " WHERE recipe_id = ? FOR UPDATE", Integer.class);
+
+    orderOf = queries.define(table + ".orderOf", "SELECT " + orderColumn
+        + " FROM " + table + " WHERE " + idColumn + " = ? AND recipe_id = ?",
+        Integer.class, Integer.class);
+
+    nextOrder = queries.define(table + ".nextOrder",
+        "SELECT MIN(" + orderColumn + ") FROM " + table
+            + " WHERE recipe_id = ? AND " + orderColumn + " > ? AND "
+            + idColumn + " <> ?",
+        Integer.class, Integer.class, Integer.class);
+
+    setOrder = queries.define(table + ".setOrder",
+        "UPDATE " + table + " SET " + orderColumn + " = ? WHERE " + idColumn
+            + " = ? AND recipe_id = ?",
+        Integer.class, Integer.class, Integer.class);
+
+    idsByOrder = queries.define(table + ".idsByOrder",
+        "SELECT " + idColumn + " FROM " + table + " WHERE recipe_id = ? "
+            + "ORDER BY " + orderColumn,
+        Integer.class);
+
+    negateOrders = queries.define(table + ".negateOrders",
+        "UPDATE " + table + " SET " + orderColumn + " = -" + orderColumn
+            + " WHERE recipe_id = ?",
+        Integer.class);
+
+    setCounter = queries.define(table + ".setCounter", "UPDATE " + recipe
+        + " SET " + counterColumn + " = ? WHERE recipe_id = ?", Integer.class,
+        Integer.class);
+  }
+
+  /**
+   * Take the orders of children appended to a recipe from the recipe's
+   * counter. The counter is moved by primary key, which takes the same time
+   * however many children the recipe has, and the recipe row stays locked
+   * until the caller's transaction ends, so a concurrent append waits for
+   * this one and then gets the following orders.
+   *
+   * @param conn The connection with a transaction underway.
+   * @param recipeId The recipe ID.
+   * @param count The number of orders to take.
+   * @return The first of the orders taken. The rest follow it, GAP apart.
+   * @throws SQLException Thrown if an error occurs.
+   * @throws DbException Thrown if there is no recipe with the given ID.
+   */
+  int take(Connection conn, Integer recipeId, int count) throws SQLException {
+    try (PreparedStatement stmt = takeOrders.prepare(conn)) {
+      takeOrders.bind(stmt, count * GAP, recipeId);
+
+      if (stmt.executeUpdate() != 1) {
+        throw new DbException(
+            "Recipe with ID=" + recipeId + " does not exist.");
+      }
+
+      try (ResultSet rs = stmt.getGeneratedKeys()) {
+        if (!rs.next()) {
+          throw new SQLException("The " + name + " order was not returned.");
+        }
+
+        return rs.getInt(1) - (count - 1) * GAP;
+      }
+    }
+  }
+
+  /**
+   * Find the order for a child placed right after another one. If there is
+   * no child after that one, the order is taken from the counter as for an
+   * append. If there is no room left between the two, the recipe is
+   * compacted first, in the caller's transaction.
+   *
+   * @param conn The connection with a transaction underway.
+   * @param recipeId The recipe ID.
+   * @param afterId The ID of the child to follow, or {@code null} to go
+   *        first.
+   * @param movingId The ID of the child being moved, which is not counted as
+   *        a neighbor, or {@code null} for a new child.
+   * @return The order, and whether the recipe should now be compacted.
+   * @throws SQLException Thrown if an error occurs.
+   * @throws DbException Thrown if the recipe or the child to follow does not
+   *         exist.
+   */
+  Slot slotAfter(Connection conn, Integer recipeId, Integer afterId,
+      Integer movingId) throws SQLException {
+    lock(conn, recipeId);
+
+    int before = Objects.isNull(afterId) ? 0 : orderOf(conn, recipeId, afterId);
+    Integer after = nextOrder(conn, recipeId, before, movingId);
+
+    if (Objects.isNull(after)) {
+      return new Slot(take(conn, recipeId, 1), false);
+    }
+
+    if (after - before < 2) {
+      compact(conn, recipeId);
+      return slotAfter(conn, recipeId, afterId, movingId);
+    }
+
+    int order = before + (after - before) / 2;
+    boolean crowded = order - before < 2 || after - order < 2;
+
+    return new Slot(order, crowded);
+  }
+
+  /**
+   * Set the order of one child.
+   *
+   * @param conn The connection with a transaction underway.
+   * @param recipeId The recipe ID.
+   * @param childId The child ID.
+   * @param order The new order.
+   * @throws SQLException Thrown if an error occurs.
+   * @throws DbException Thrown if the recipe has no such child.
+   */
+  void setOrder(Connection conn, Integer recipeId, Integer childId, int order)
+      throws SQLException {
+    try (PreparedStatement stmt = setOrder.prepare(conn)) {
+      setOrder.bind(stmt, order, childId, recipeId);
+
+      if (stmt.executeUpdate() != 1) {
+        throw new DbException(notFound(recipeId, childId));
+      }
+    }
+  }
+
+  /**
+   * Renumber a recipe's children GAP, 2 * GAP, and so on, in their current
+   * order, and set the recipe's counter to the last one. Every order is made
+   * negative first, so that no new order collides with an old one under the
+   * unique key while the rows are rewritten.
+   *
+   * @param conn The connection with a transaction underway.
+   * @param recipeId The recipe ID.
+   * @throws SQLException Thrown if an error occurs.
+   * @throws DbException Thrown if there is no recipe with the given ID.
+   */
+  void compact(Connection conn, Integer recipeId) throws SQLException {
+    lock(conn, recipeId);
+
+    List<Integer> ids = new ArrayList<>();
+
+    try (PreparedStatement stmt = idsByOrder.prepare(conn)) {
+      idsByOrder.bind(stmt, recipeId);
+
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          ids.add(rs.getInt(1));
+        }
+      }
+    }
+
+    try (PreparedStatement stmt = negateOrders.prepare(conn)) {
+      negateOrders.bind(stmt, recipeId);
+      stmt.executeUpdate();
+    }
+
+    int order = 0;
+
+    try (PreparedStatement stmt = setOrder.prepare(conn)) {
+      for (Integer id : ids) {
+        order += GAP;
+        setOrder.bind(stmt, order, id, recipeId);
+        stmt.addBatch();
+      }
+
+      stmt.executeBatch();
+    }
+
+    try (PreparedStatement stmt = setCounter.prepare(conn)) {
+      setCounter.bind(stmt, order, recipeId);
+      stmt.executeUpdate();
+    }
+  }
+
+  /**
+   * Mark a recipe as waiting for a background compaction.
+   *
+   * @param recipeId The recipe ID.
+   * @return {@code false} if it is already waiting, so there is no need to
+   *         schedule another.
+   */
+  boolean markPending(Integer recipeId) {
+    return pending.add(recipeId);
+  }
+
+  /**
+   * Clear the mark once the background compaction has run.
+   *
+   * @param recipeId The recipe ID.
+   */
+  void clearPending(Integer recipeId) {
+    pending.remove(recipeId);
+  }
+
+  /**
+   * Returns the table name, like step.
+   */
+  String getName() {
+    return name;
+  }
+
+  private void lock(Connection conn, Integer recipeId) throws SQLException {
+    try (PreparedStatement stmt = lockRecipe.prepare(conn)) {
+      lockRecipe.bind(stmt, recipeId);
+
+      try (ResultSet rs = stmt.executeQuery()) {
+        if (!rs.next()) {
+          throw new DbException(
+              "Recipe with ID=" + recipeId + " does not exist.");
+        }
+      }
+    }
+  }
+
+  private int orderOf(Connection conn, Integer recipeId, Integer childId)
+      throws SQLException {
+    try (PreparedStatement stmt = orderOf.prepare(conn)) {
+      orderOf.bind(stmt, childId, recipeId);
+
+      try (ResultSet rs = stmt.executeQuery()) {
+        if (!rs.next()) {
+          throw new DbException(notFound(recipeId, childId));
+        }
+
+        return rs.getInt(1);
+      }
+    }
+  }
+
+  /**
+   * Returns the lowest order above the given one, leaving out the child
+   * being moved, or {@code null} if there is none.
+   */
+  private Integer nextOrder(Connection conn, Integer recipeId, int order,
+      Integer movingId) throws SQLException {
+    try (PreparedStatement stmt = nextOrder.prepare(conn)) {
+      /* IDs start at 1, so 0 leaves out nothing. */
+      nextOrder.bind(stmt, recipeId, order,
+          Objects.isNull(movingId) ? 0 : movingId);
+
+      try (ResultSet rs = stmt.executeQuery()) {
+        rs.next();
+
+        int next = rs.getInt(1);
+        return rs.wasNull() ? null : next;
+      }
+    }
+  }
+
+  private String notFound(Integer recipeId, Integer childId) {
+    return "Recipe with ID=" + recipeId + " has no " + name + " with ID="
+        + childId + ".";
+  }
+}
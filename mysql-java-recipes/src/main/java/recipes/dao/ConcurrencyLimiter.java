@@ -0,0 +1,327 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import recipes.exception.DbException;
+import recipes.exception.DbOverloadException;
+
+/**
+ * This class limits how many database operations run at once, and adapts the
+ * limit to how the database is coping. It sits in front of a connection pool:
+ * {@link #getConnection(Supplier)} takes a permit before borrowing a
+ * connection, and closing the connection gives the permit back.
+ *
+ * The limit follows an additive-increase, multiplicative-decrease (AIMD) rule.
+ * Each time a permit is given back, the time the connection was held is
+ * compared with the latency target:
+ * <ul>
+ * <li>If the operation was slower than the target, or failed to get a
+ * connection at all, the limit is cut by {@link #BACKOFF_RATIO}.</li>
+ * <li>If it was faster and the limit is in use, the limit grows by about one
+ * permit per limit's worth of operations.</li>
+ * </ul>
+ * The limit never drops below one or rises above the configured maximum.
+ *
+ * Callers that arrive when the limit is reached wait in a bounded first-in,
+ * first-out queue. If the queue is full, or a caller waits longer than the
+ * queue timeout, a {@link DbOverloadException} is thrown straight away rather
+ * than adding to the pile-up. This keeps latency bounded when MySQL slows
+ * down, instead of every caller timing out together.
+ *
+ * @author Promineo
+ *
+ */
+public class ConcurrencyLimiter {
+  /** The limit is multiplied by this when an operation is too slow. */
+  static final double BACKOFF_RATIO = 0.9;
+
+  private final String name;
+  private final int maxLimit;
+  private final int queueSize;
+  private final long queueTimeoutMillis;
+  private final long latencyTargetNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Deque<Waiter> queue = new ArrayDeque<>();
+
+  /* These are guarded by lock. */
+  private double limit;
+  private int inFlight;
+
+  private final LongAdder rejections = new LongAdder();
+  private final LongAdder queueTimeouts = new LongAdder();
+  private final LongAdder decreases = new LongAdder();
+
+  /**
+   * This is one caller in the wait queue. All fields are guarded by the
+   * limiter lock.
+   */
+  private static class Waiter {
+    private final Condition ready;
+    private boolean granted;
+
+    Waiter(Condition ready) {
+      this.ready = ready;
+    }
+  }
+
+  /**
+   * Create a limiter. The limit starts at the maximum and adapts from there.
+   *
+   * @param name The limiter name, used in messages.
+   * @param maxLimit The most operations allowed to run at once.
+   * @param queueSize The most callers allowed to wait for a permit.
+   * @param queueTimeoutMillis How long a caller waits for a permit.
+   * @param latencyTargetMillis Operations slower than this lower the limit.
+   */
+  public ConcurrencyLimiter(String name, int maxLimit, int queueSize,
+      long queueTimeoutMillis, long latencyTargetMillis) {
+    if (maxLimit < 1 || queueSize < 0) {
+      throw new DbException("Invalid limits for " + name + ": maxLimit="
+          + maxLimit + ", queueSize=" + queueSize);
+    }
+
+    this.name = name;
+    this.maxLimit = maxLimit;
+    this.queueSize = queueSize;
+    this.queueTimeoutMillis = queueTimeoutMillis;
+    this.latencyTargetNanos =
+        TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+    this.limit = maxLimit;
+  }
+
+  /**
+   * Take a permit and then borrow a connection. The permit is given back when
+   * the connection is closed. The time the permit is held is measured from
+   * when the connection is obtained, so a wait for the pool doesn't count
+   * against the latency target. Only a failure to get a connection at all
+   * lowers the limit.
+   *
+   * @param borrow Borrows the connection, e.g., from a pool.
+   * @return The borrowed connection.
+   * @throws DbOverloadException Thrown if the wait queue is full or the queue
+   *         timeout expires.
+   * @throws DbException Thrown if the connection can't be borrowed.
+   */
+  public Connection getConnection(Supplier<Connection> borrow) {
+    acquire();
+
+    Connection conn;
+
+    try {
+      conn = borrow.get();
+    } catch (RuntimeException e) {
+      release(System.nanoTime(), true);
+      throw e;
+    }
+
+    return new LimitedConnection(conn, System.nanoTime());
+  }
+
+  /**
+   * Take a permit, waiting in the queue if the limit has been reached.
+   */
+  private void acquire() {
+    lock.lock();
+
+    try {
+      if (queue.isEmpty() && inFlight < currentLimit()) {
+        inFlight++;
+        return;
+      }
+
+      if (queue.size() >= queueSize) {
+        rejections.increment();
+        throw new DbOverloadException("Too many " + name
+            + " operations: " + inFlight + " running and " + queue.size()
+            + " waiting.");
+      }
+
+      Waiter waiter = new Waiter(lock.newCondition());
+      long deadline =
+          System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+
+      queue.addLast(waiter);
+
+      try {
+        while (!waiter.granted) {
+          long remaining = deadline - System.nanoTime();
+
+          if (remaining <= 0) {
+            queueTimeouts.increment();
+            throw new DbOverloadException("Timed out after "
+                + queueTimeoutMillis + "ms waiting to run a " + name
+                + " operation.");
+          }
+
+          try {
+            waiter.ready.awaitNanos(remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            if (!waiter.granted) {
+              throw new DbException("Interrupted waiting to run a " + name
+                  + " operation.", e);
+            }
+          }
+        }
+      } finally {
+        if (!waiter.granted) {
+          queue.remove(waiter);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Give a permit back, adjust the limit, and let in as many waiting callers
+   * as the new limit allows.
+   *
+   * @param startNanos When the connection was obtained.
+   * @param dropped {@code true} if the operation couldn't get a connection.
+   */
+  private void release(long startNanos, boolean dropped) {
+    long heldNanos = System.nanoTime() - startNanos;
+
+    lock.lock();
+
+    try {
+      inFlight--;
+
+      if (dropped || heldNanos > latencyTargetNanos) {
+        limit = Math.max(1, limit * BACKOFF_RATIO);
+        decreases.increment();
+      } else if (inFlight + 1 >= currentLimit()) {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+
+      while (!queue.isEmpty() && inFlight < currentLimit()) {
+        Waiter waiter = queue.pollFirst();
+
+        inFlight++;
+        waiter.granted = true;
+        waiter.ready.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** The caller must hold the lock. */
+  private int currentLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * Returns the current limit.
+   */
+  public int getLimit() {
+    lock.lock();
+
+    try {
+      return currentLimit();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of operations holding a permit.
+   */
+  public int getInFlight() {
+    lock.lock();
+
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of callers waiting for a permit.
+   */
+  public int getQueued() {
+    lock.lock();
+
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns how many callers were turned away because the queue was full.
+   */
+  public long getRejections() {
+    return rejections.sum();
+  }
+
+  /**
+   * Returns how many callers gave up waiting in the queue.
+   */
+  public long getQueueTimeouts() {
+    return queueTimeouts.sum();
+  }
+
+  /**
+   * Returns how many times the limit was cut.
+   */
+  public long getDecreases() {
+    return decreases.sum();
+  }
+
+  @Override
+  public String toString() {
+    lock.lock();
+
+    try {
+      return "Limiter " + name + " [limit=" + currentLimit() + "/" + maxLimit
+          + ", inFlight=" + inFlight + ", queued=" + queue.size() + "/"
+          + queueSize + ", rejections=" + rejections.sum()
+          + ", queueTimeouts=" + queueTimeouts.sum() + ", decreases="
+          + decreases.sum() + "]";
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This wraps a connection so that its permit is given back exactly once
+   * when the connection is closed.
+   */
+  private class LimitedConnection extends DelegatingConnection {
+    private final long startNanos;
+    private boolean closed;
+
+    LimitedConnection(Connection delegate, long startNanos) {
+      super(delegate);
+      this.startNanos = startNanos;
+    }
+
+    @Override
+    public void close() throws SQLException {
+      if (!closed) {
+        closed = true;
+
+        try {
+          super.close();
+        } finally {
+          release(startNanos, false);
+        }
+      }
+    }
+  }
+}
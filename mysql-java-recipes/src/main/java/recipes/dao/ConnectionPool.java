@@ -0,0 +1,718 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import recipes.exception.DbException;
+
+/**
+ * This class keeps a bounded set of open MySQL connections so that callers
+ * don't pay for a TCP connect and login handshake on every operation.
+ * Connections are borrowed with {@link #getConnection()} and returned by
+ * calling {@link Connection#close()} on the borrowed connection, so the usual
+ * try-with-resource pattern works unchanged:
+ *
+ * <pre>
+ * try (Connection conn = pool.getConnection()) {
+ *   ...
+ * }
+ * </pre>
+ *
+ * The pool works as follows:
+ * <ol>
+ * <li>Idle connections are kept in a stack, so the most recently used
+ * connection is handed out first. This keeps a few connections busy and lets
+ * the rest age out.</li>
+ * <li>If no connection is idle and fewer than the maximum are open, a new one
+ * is opened. Otherwise the caller joins a first-in, first-out wait queue until
+ * a connection is handed to it or its acquire timeout expires.</li>
+ * <li>A returned connection is handed directly to the caller that has waited
+ * longest, so a newly arriving caller can never jump the queue. Room freed by
+ * a closed connection is handed over the same way.</li>
+ * <li>An idle connection that hasn't been used recently is validated before
+ * it is handed out. A connection that fails validation is closed and the
+ * borrow is retried.</li>
+ * <li>A background task closes connections that have been idle too long,
+ * keeps at least the minimum number of connections open, and reports
+ * connections that have been held longer than the leak detection
+ * threshold.</li>
+ * </ol>
+ *
+ * Network work (opening, validating, and closing connections) is never done
+ * while holding the pool lock. Waiting uses {@link ReentrantLock} and
+ * {@link Condition} rather than {@code synchronized}, so a virtual thread that
+ * waits for a connection is unmounted from its carrier thread instead of
+ * pinning it. Thousands of concurrent callers can therefore share a handful
+ * of physical connections, each waiting its turn.
+ *
+ * @author Promineo
+ *
+ */
+public class ConnectionPool implements AutoCloseable {
+  private static final Logger LOG =
+      Logger.getLogger(ConnectionPool.class.getName());
+
+  private final String name;
+  private final String url;
+  private final Properties properties;
+  private volatile PoolSettings settings;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Deque<PoolEntry> idle = new ArrayDeque<>();
+  private final Deque<Waiter> waitQueue = new ArrayDeque<>();
+  private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+
+  /* These are guarded by lock. */
+  private int total;
+  private boolean closed;
+
+  private final LatencyHistogram acquireTimes = new LatencyHistogram();
+  private final LatencyHistogram waitTimes = new LatencyHistogram();
+  private final LongAccumulator maxWaiters = new LongAccumulator(Math::max, 0);
+  private final LongAdder created = new LongAdder();
+  private final LongAdder destroyed = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder validationFailures = new LongAdder();
+  private final LongAdder leaks = new LongAdder();
+  private final LongAdder roundTripsSaved = new LongAdder();
+  private final StatementCache.Counters statementCounters =
+      new StatementCache.Counters();
+
+  private final ScheduledExecutorService housekeeper;
+  private ScheduledFuture<?> housekeeping;
+
+  /**
+   * This is one caller in the wait queue. The caller waits on its own
+   * condition, so handing a connection to the head of the queue wakes exactly
+   * that caller. All fields are guarded by the pool lock.
+   */
+  private static class Waiter {
+    private final Condition ready;
+    private boolean granted;
+    private PoolEntry entry;
+
+    Waiter(Condition ready) {
+      this.ready = ready;
+    }
+
+    /**
+     * Give this waiter an idle connection, or, if entry is {@code null}, room
+     * to open a new one.
+     */
+    void grant(PoolEntry entry) {
+      this.entry = entry;
+      granted = true;
+      ready.signal();
+    }
+  }
+
+  /**
+   * Create a pool and start its background housekeeping task. Connections are
+   * opened lazily as they are needed and by the housekeeping task, which tops
+   * the pool up to its minimum size.
+   *
+   * @param name The pool name, used in log messages and thread names.
+   * @param url The JDBC URL.
+   * @param properties Connection properties passed to the driver (user,
+   *        password, etc.).
+   * @param settings The pool sizing and timeout settings.
+   */
+  public ConnectionPool(String name, String url, Properties properties,
+      PoolSettings settings) {
+    checkSizes(settings);
+
+    this.name = name;
+    this.url = url;
+    this.properties = properties;
+    this.settings = settings;
+
+    housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "recipes-pool-" + name);
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    housekeeping = housekeeper.scheduleWithFixedDelay(this::housekeep, 0,
+        settings.getHousekeepingIntervalMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  private static void checkSizes(PoolSettings settings) {
+    if (settings.getMaxSize() < 1
+        || settings.getMinSize() > settings.getMaxSize()) {
+      throw new DbException("Invalid pool size: " + settings);
+    }
+  }
+
+  /**
+   * Apply new settings to a running pool. Timeouts take effect on the next
+   * borrow. If the maximum size grows, the new room is handed to waiting
+   * callers so they can open the new connections. If it shrinks, surplus
+   * connections are closed as they are returned rather than taken away from
+   * their borrowers.
+   *
+   * @param newSettings The settings to apply. The pool keeps a reference to
+   *        this object, so the caller must not change it afterward.
+   * @throws DbException Thrown if the sizes are invalid. The current settings
+   *         are left in place.
+   */
+  public void reconfigure(PoolSettings newSettings) {
+    checkSizes(newSettings);
+
+    PoolSettings oldSettings = settings;
+    settings = newSettings;
+
+    if (oldSettings.getHousekeepingIntervalMillis() != newSettings
+        .getHousekeepingIntervalMillis()) {
+      lock.lock();
+
+      try {
+        if (!closed) {
+          housekeeping.cancel(false);
+          housekeeping = housekeeper.scheduleWithFixedDelay(this::housekeep,
+              0, newSettings.getHousekeepingIntervalMillis(),
+              TimeUnit.MILLISECONDS);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    lock.lock();
+
+    try {
+      grantRoom();
+    } finally {
+      lock.unlock();
+    }
+
+    LOG.info("Pool " + name + " reconfigured: " + newSettings);
+  }
+
+  /**
+   * Borrow a connection from the pool. The caller must close the connection
+   * to return it.
+   *
+   * @return A connection.
+   * @throws DbException Thrown if a connection can't be opened, if the
+   *         acquire timeout expires, or if the pool is closed.
+   */
+  public Connection getConnection() {
+    long startNanos = System.nanoTime();
+    long deadline = startNanos
+        + TimeUnit.MILLISECONDS.toNanos(settings.getAcquireTimeoutMillis());
+
+    while (true) {
+      PoolEntry entry = reserve(deadline);
+
+      if (Objects.isNull(entry)) {
+        /* Nothing was idle but there was room, so open a new connection. */
+        entry = open();
+      } else if (!isUsable(entry)) {
+        validationFailures.increment();
+        destroy(entry);
+        continue;
+      }
+
+      acquireTimes.record(System.nanoTime() - startNanos);
+
+      PooledConnection conn = new PooledConnection(this, entry,
+          settings.getLeakDetectionThresholdMillis() > 0);
+
+      borrowed.add(conn);
+      return conn;
+    }
+  }
+
+  /**
+   * Take an idle entry off the stack, or reserve room for a new connection.
+   * If neither is possible, or if other callers are already waiting, join the
+   * end of the wait queue.
+   *
+   * @param deadline The {@link System#nanoTime()} value at which to give up.
+   * @return An idle entry, or {@code null} if room for a new connection was
+   *         reserved.
+   */
+  private PoolEntry reserve(long deadline) {
+    lock.lock();
+
+    try {
+      if (closed) {
+        throw new DbException("Connection pool " + name + " is closed.");
+      }
+
+      if (waitQueue.isEmpty()) {
+        PoolEntry entry = idle.pollFirst();
+
+        if (Objects.nonNull(entry)) {
+          return entry;
+        }
+
+        if (total < settings.getMaxSize()) {
+          total++;
+          return null;
+        }
+      }
+
+      return awaitTurn(deadline);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wait at the end of the queue until a connection or room for one is handed
+   * over, the deadline passes, or the pool is closed. The caller must hold the
+   * lock.
+   *
+   * @param deadline The {@link System#nanoTime()} value at which to give up.
+   * @return The entry handed over, or {@code null} if room for a new
+   *         connection was handed over.
+   */
+  private PoolEntry awaitTurn(long deadline) {
+    long startNanos = System.nanoTime();
+    Waiter waiter = new Waiter(lock.newCondition());
+
+    waitQueue.addLast(waiter);
+    maxWaiters.accumulate(waitQueue.size());
+
+    try {
+      while (!waiter.granted) {
+        if (closed) {
+          throw new DbException("Connection pool " + name + " is closed.");
+        }
+
+        long remaining = deadline - System.nanoTime();
+
+        if (remaining <= 0) {
+          timeouts.increment();
+          throw new DbException("Timed out after "
+              + settings.getAcquireTimeoutMillis()
+              + "ms waiting for a connection from pool " + name
+              + " (wait queue length " + waitQueue.size() + ").");
+        }
+
+        try {
+          waiter.ready.awaitNanos(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+
+          if (!waiter.granted) {
+            throw new DbException("Interrupted waiting for a connection.", e);
+          }
+        }
+      }
+
+      return waiter.entry;
+    } finally {
+      waitTimes.record(System.nanoTime() - startNanos);
+
+      if (!waiter.granted) {
+        waitQueue.remove(waiter);
+      }
+    }
+  }
+
+  /**
+   * Hand a connection directly to the caller that has waited longest. The
+   * caller must hold the lock.
+   *
+   * @param entry The connection to hand over.
+   * @return {@code true} if it was handed over, {@code false} if nobody is
+   *         waiting.
+   */
+  private boolean handOff(PoolEntry entry) {
+    Waiter waiter = waitQueue.pollFirst();
+
+    if (Objects.isNull(waiter)) {
+      return false;
+    }
+
+    waiter.grant(entry);
+    return true;
+  }
+
+  /**
+   * Hand any room below the maximum size to waiting callers, oldest first, so
+   * they can open new connections. The caller must hold the lock.
+   */
+  private void grantRoom() {
+    while (!closed && !waitQueue.isEmpty()
+        && total < settings.getMaxSize()) {
+      total++;
+      waitQueue.pollFirst().grant(null);
+    }
+  }
+
+  /**
+   * Open a new physical connection. The caller must already have reserved
+   * room for it by incrementing total. If the connection can't be opened the
+   * reservation is given back.
+   *
+   * @return The entry holding the new connection.
+   */
+  private PoolEntry open() {
+    try {
+      Connection conn = DriverManager.getConnection(url, properties);
+      created.increment();
+
+      return new PoolEntry(conn, statementCounters);
+    } catch (SQLException e) {
+      lock.lock();
+
+      try {
+        total--;
+        grantRoom();
+      } finally {
+        lock.unlock();
+      }
+
+      throw new DbException("Unable to open a connection for pool " + name, e);
+    }
+  }
+
+  /**
+   * Check that an idle connection still works. Connections that were returned
+   * within the validation interval are assumed to be good, which saves a round
+   * trip when the pool is busy.
+   *
+   * @param entry The entry to check.
+   * @return {@code true} if the connection can be handed out.
+   */
+  private boolean isUsable(PoolEntry entry) {
+    long idleNanos = System.nanoTime() - entry.getLastReturnedNanos();
+
+    if (idleNanos < TimeUnit.MILLISECONDS
+        .toNanos(settings.getValidationIntervalMillis())) {
+      return true;
+    }
+
+    try {
+      return entry.getConnection()
+          .isValid(settings.getValidationTimeoutSeconds());
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  /**
+   * This is called by {@link PooledConnection#close()}. A connection with an
+   * unfinished transaction is rolled back. A connection that is broken, or that
+   * is returned after the pool is closed, is closed for real. Otherwise it is
+   * handed to the caller that has waited longest or, if nobody is waiting, put
+   * back on top of the idle stack.
+   *
+   * @param conn The connection being returned.
+   */
+  void release(PooledConnection conn) {
+    PoolEntry entry = conn.getEntry();
+    borrowed.remove(conn);
+
+    try {
+      if (entry.getConnection().isClosed()) {
+        destroy(entry);
+        return;
+      }
+
+      if (conn.isTransactionDirty()) {
+        entry.getConnection().rollback();
+      }
+    } catch (SQLException e) {
+      LOG.log(Level.FINE, "Discarding a connection that failed on return.", e);
+      destroy(entry);
+      return;
+    }
+
+    entry.setLastReturnedNanos(System.nanoTime());
+    lock.lock();
+
+    try {
+      if (!closed && total <= settings.getMaxSize()) {
+        if (!handOff(entry)) {
+          idle.addFirst(entry);
+        }
+
+        return;
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    destroy(entry);
+  }
+
+  /**
+   * Close the physical connection and give its slot back to the pool.
+   *
+   * @param entry The entry to destroy.
+   */
+  private void destroy(PoolEntry entry) {
+    entry.getStatements().clear();
+    closeQuietly(entry.getConnection());
+    destroyed.increment();
+    lock.lock();
+
+    try {
+      total--;
+      grantRoom();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This is called by {@link PooledConnection} each time it skips a session
+   * state call because the connection was already in the requested state.
+   */
+  void roundTripSaved() {
+    roundTripsSaved.increment();
+  }
+
+  /**
+   * Returns the most prepared statements each connection keeps open. This is
+   * read on every use, so a new setting takes effect as statements are
+   * returned.
+   */
+  int getStatementCacheSize() {
+    return settings.getStatementCacheSize();
+  }
+
+  /**
+   * This runs periodically on the housekeeping thread. Any exception is
+   * logged rather than thrown, because an exception thrown out of a scheduled
+   * task cancels all future runs.
+   */
+  private void housekeep() {
+    try {
+      evictIdleConnections();
+      fillToMinimum();
+      detectLeaks();
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Housekeeping failed for pool " + name, e);
+    }
+  }
+
+  /**
+   * Close connections that have been idle longer than the idle timeout, as
+   * long as doing so doesn't drop the pool below its minimum size. Idle
+   * connections above the maximum size (after the maximum was lowered) are
+   * closed regardless of age. The oldest connections are at the bottom of the
+   * stack, so they are checked first.
+   */
+  private void evictIdleConnections() {
+    PoolSettings current = settings;
+    long idleTimeoutNanos =
+        TimeUnit.MILLISECONDS.toNanos(current.getIdleTimeoutMillis());
+    long now = System.nanoTime();
+    List<PoolEntry> evicted = new LinkedList<>();
+
+    lock.lock();
+
+    try {
+      Iterator<PoolEntry> it = idle.descendingIterator();
+
+      while (it.hasNext() && total - evicted.size() > current.getMinSize()) {
+        PoolEntry entry = it.next();
+        boolean surplus = total - evicted.size() > current.getMaxSize();
+
+        if (surplus || now - entry.getLastReturnedNanos() > idleTimeoutNanos) {
+          it.remove();
+          evicted.add(entry);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    evicted.forEach(this::destroy);
+  }
+
+  /**
+   * Open connections until the pool holds its minimum size. Each connection is
+   * reserved under the lock and opened outside it, so callers are never
+   * blocked by a slow connect.
+   */
+  private void fillToMinimum() {
+    while (true) {
+      lock.lock();
+
+      try {
+        if (closed || total >= settings.getMinSize()) {
+          return;
+        }
+
+        total++;
+      } finally {
+        lock.unlock();
+      }
+
+      PoolEntry entry;
+
+      try {
+        entry = open();
+      } catch (DbException e) {
+        LOG.log(Level.WARNING, "Unable to fill pool " + name, e);
+        return;
+      }
+
+      lock.lock();
+
+      try {
+        if (!closed) {
+          if (!handOff(entry)) {
+            idle.addLast(entry);
+          }
+
+          continue;
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      destroy(entry);
+    }
+  }
+
+  /**
+   * Log a warning, once per borrow, for every connection held longer than the
+   * leak detection threshold. The warning includes the stack of the thread
+   * that borrowed the connection.
+   */
+  private void detectLeaks() {
+    long threshold = settings.getLeakDetectionThresholdMillis();
+
+    if (threshold <= 0) {
+      return;
+    }
+
+    for (PooledConnection conn : borrowed) {
+      if (!conn.isLeakReported() && conn.getHeldMillis() > threshold) {
+        conn.setLeakReported(true);
+        leaks.increment();
+
+        LOG.log(Level.WARNING, "Possible connection leak in pool " + name
+            + ": connection held for " + conn.getHeldMillis() + "ms.",
+            conn.getBorrowTrace());
+      }
+    }
+  }
+
+  /**
+   * Returns a snapshot of the pool's current state and counters.
+   *
+   * @return The pool statistics.
+   */
+  public PoolStats getStats() {
+    long[] statements = statementCounters.totals();
+
+    lock.lock();
+
+    try {
+      return new PoolStats(name, total, borrowed.size(), idle.size(),
+          waitQueue.size(), maxWaiters.get(), created.sum(), destroyed.sum(),
+          timeouts.sum(), validationFailures.sum(), leaks.sum(),
+          roundTripsSaved.sum(), statements[0], statements[1], statements[2],
+          acquireTimes, waitTimes);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns a snapshot of the prepared statement cache counts for each SQL
+   * statement, across all of the pool's connections, busiest first.
+   *
+   * @return The statement statistics.
+   */
+  public List<StatementStats> getStatementStats() {
+    return statementCounters.snapshot();
+  }
+
+  /**
+   * Returns the live acquire-time histogram. Every successful
+   * {@link #getConnection()} records the time from the call until a usable
+   * connection was in hand.
+   *
+   * @return The histogram.
+   */
+  public LatencyHistogram getAcquireTimes() {
+    return acquireTimes;
+  }
+
+  /**
+   * Returns the live wait-time histogram. Only callers that had to join the
+   * wait queue are recorded, from joining until they were handed a connection,
+   * timed out, or were interrupted.
+   *
+   * @return The histogram.
+   */
+  public LatencyHistogram getWaitTimes() {
+    return waitTimes;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Close all idle connections and stop the housekeeping task. Connections
+   * that are currently borrowed are closed when they are returned. Waiting
+   * callers are woken up and receive an exception.
+   */
+  @Override
+  public void close() {
+    List<PoolEntry> toClose;
+
+    lock.lock();
+
+    try {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+      toClose = new LinkedList<>(idle);
+      idle.clear();
+      waitQueue.forEach(waiter -> waiter.ready.signal());
+    } finally {
+      lock.unlock();
+    }
+
+    housekeeper.shutdownNow();
+    toClose.forEach(this::destroy);
+  }
+
+  /**
+   * Close a physical connection, ignoring any error. The connection is being
+   * thrown away, so there is nothing useful to do with an exception.
+   *
+   * @param conn The connection to close.
+   */
+  private void closeQuietly(Connection conn) {
+    try {
+      conn.close();
+    } catch (SQLException e) {
+      LOG.log(Level.FINE, "Error closing a connection.", e);
+    }
+  }
+}
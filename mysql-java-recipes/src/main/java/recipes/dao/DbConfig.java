@@ -0,0 +1,831 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.logging.Logger;
+import recipes.exception.DbException;
+
+/**
+ * This class holds the connection, driver, and pool settings used by
+ * {@link DbConnection}. Settings are loaded in layers. Each layer overrides
+ * the ones before it:
+ * <ol>
+ * <li>Built-in defaults.</li>
+ * <li>The file recipes-db.properties on the classpath.</li>
+ * <li>An external properties file named by the recipes.db.config system
+ * property or the RECIPES_DB_CONFIG environment variable. This is the file
+ * that is watched for changes by the hot reload.</li>
+ * <li>Environment variables. The name of the environment variable is the
+ * property name in upper case with dots and dashes replaced by underscores.
+ * So, recipes.db.pool.max-size is set by RECIPES_DB_POOL_MAX_SIZE.</li>
+ * <li>System properties (-Drecipes.db.host=...).</li>
+ * </ol>
+ *
+ * All values are validated when they are loaded. If any value is invalid, a
+ * {@link DbException} is thrown that lists every problem, not just the first
+ * one.
+ *
+ * Connector/J performance properties have their own keys (like
+ * recipes.db.driver.cache-prep-stmts). Any other driver property can be passed
+ * through with the prefix recipes.db.driver. followed by the exact Connector/J
+ * property name, e.g., recipes.db.driver.tcpKeepAlive=true.
+ *
+ * @author Promineo
+ *
+ */
+public class DbConfig {
+  private static final Logger LOG = Logger.getLogger(DbConfig.class.getName());
+
+  public static final String CONFIG_FILE_PROPERTY = "recipes.db.config";
+  private static final String CONFIG_FILE_ENV = "RECIPES_DB_CONFIG";
+  private static final String CLASSPATH_FILE = "recipes-db.properties";
+
+  private static final String PREFIX = "recipes.db.";
+  private static final String DRIVER_PREFIX = PREFIX + "driver.";
+
+  static final String HOST = PREFIX + "host";
+  static final String PORT = PREFIX + "port";
+  static final String SCHEMA = PREFIX + "schema";
+  static final String USER = PREFIX + "user";
+  static final String PASSWORD = PREFIX + "password";
+  static final String USE_SSL = PREFIX + "use-ssl";
+  static final String RELOAD_INTERVAL = PREFIX + "config.reload-interval-ms";
+  static final String WARM_UP = PREFIX + "warm-up";
+  static final String VALIDATE_QUERIES = PREFIX + "validate-queries";
+  static final String STREAM_FETCH_SIZE = PREFIX + "stream.fetch-size";
+  static final String ID_BLOCK_SIZE = PREFIX + "id-block-size";
+
+  static final String REPLICAS = PREFIX + "replicas";
+  static final String REPLICA_STRATEGY = PREFIX + "replica.strategy";
+  static final String REPLICA_MAX_LAG = PREFIX + "replica.max-lag-s";
+  static final String REPLICA_LAG_CHECK_INTERVAL =
+      PREFIX + "replica.lag-check-interval-ms";
+  static final String READ_YOUR_WRITES_WINDOW =
+      PREFIX + "replica.read-your-writes-ms";
+
+  static final String SHARDS = PREFIX + "shards";
+  static final String SHARD_STRATEGY = PREFIX + "shard.strategy";
+  static final String SHARD_RANGE_STARTS = PREFIX + "shard.range-starts";
+
+  static final String LIMIT_ENABLED = PREFIX + "limit.enabled";
+  static final String LIMIT_READ_MAX = PREFIX + "limit.read.max";
+  static final String LIMIT_WRITE_MAX = PREFIX + "limit.write.max";
+  static final String LIMIT_QUEUE_SIZE = PREFIX + "limit.queue-size";
+  static final String LIMIT_QUEUE_TIMEOUT = PREFIX + "limit.queue-timeout-ms";
+  static final String LIMIT_LATENCY_TARGET =
+      PREFIX + "limit.latency-target-ms";
+
+  static final String POOL_MIN_SIZE = PREFIX + "pool.min-size";
+  static final String POOL_MAX_SIZE = PREFIX + "pool.max-size";
+  static final String POOL_ACQUIRE_TIMEOUT =
+      PREFIX + "pool.acquire-timeout-ms";
+  static final String POOL_IDLE_TIMEOUT = PREFIX + "pool.idle-timeout-ms";
+  static final String POOL_VALIDATION_INTERVAL =
+      PREFIX + "pool.validation-interval-ms";
+  static final String POOL_VALIDATION_TIMEOUT =
+      PREFIX + "pool.validation-timeout-s";
+  static final String POOL_LEAK_DETECTION = PREFIX + "pool.leak-detection-ms";
+  static final String POOL_HOUSEKEEPING_INTERVAL =
+      PREFIX + "pool.housekeeping-interval-ms";
+  static final String POOL_STATEMENT_CACHE_SIZE =
+      PREFIX + "pool.statement-cache-size";
+
+  /*
+   * Maps our key for each supported Connector/J property to the property name
+   * the driver expects.
+   */
+  private static final Map<String, String> DRIVER_PROPERTIES =
+      new LinkedHashMap<>();
+
+  /* Maps each known key to its default value. */
+  private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+  static {
+    DRIVER_PROPERTIES.put(DRIVER_PREFIX + "cache-prep-stmts", "cachePrepStmts");
+    DRIVER_PROPERTIES.put(DRIVER_PREFIX + "prep-stmt-cache-size",
+        "prepStmtCacheSize");
+    DRIVER_PROPERTIES.put(DRIVER_PREFIX + "prep-stmt-cache-sql-limit",
+        "prepStmtCacheSqlLimit");
+    DRIVER_PROPERTIES.put(DRIVER_PREFIX + "use-server-prep-stmts",
+        "useServerPrepStmts");
+    DRIVER_PROPERTIES.put(DRIVER_PREFIX + "rewrite-batched-statements",
+        "rewriteBatchedStatements");
+    DRIVER_PROPERTIES.put(DRIVER_PREFIX + "default-fetch-size",
+        "defaultFetchSize");
+    DRIVER_PROPERTIES.put(DRIVER_PREFIX + "use-compression", "useCompression");
+    DRIVER_PROPERTIES.put(DRIVER_PREFIX + "connect-timeout-ms",
+        "connectTimeout");
+    DRIVER_PROPERTIES.put(DRIVER_PREFIX + "socket-timeout-ms", "socketTimeout");
+
+    PoolSettings pool = new PoolSettings();
+
+    DEFAULTS.put(HOST, "localhost");
+    DEFAULTS.put(PORT, "3306");
+    DEFAULTS.put(SCHEMA, "recipes");
+    DEFAULTS.put(USER, "recipes");
+    DEFAULTS.put(PASSWORD, "recipes");
+    DEFAULTS.put(USE_SSL, "false");
+    DEFAULTS.put(RELOAD_INTERVAL, "10000");
+    DEFAULTS.put(WARM_UP, "false");
+    DEFAULTS.put(VALIDATE_QUERIES, "true");
+    DEFAULTS.put(STREAM_FETCH_SIZE, "1000");
+    DEFAULTS.put(ID_BLOCK_SIZE, "0");
+    DEFAULTS.put(REPLICAS, "");
+    DEFAULTS.put(REPLICA_STRATEGY, "round-robin");
+    DEFAULTS.put(REPLICA_MAX_LAG, "5");
+    DEFAULTS.put(REPLICA_LAG_CHECK_INTERVAL, "5000");
+    DEFAULTS.put(READ_YOUR_WRITES_WINDOW, "5000");
+    DEFAULTS.put(SHARDS, "");
+    DEFAULTS.put(SHARD_STRATEGY, "hash");
+    DEFAULTS.put(SHARD_RANGE_STARTS, "");
+    DEFAULTS.put(LIMIT_ENABLED, "true");
+    DEFAULTS.put(LIMIT_READ_MAX, "10");
+    DEFAULTS.put(LIMIT_WRITE_MAX, "8");
+    DEFAULTS.put(LIMIT_QUEUE_SIZE, "100");
+    DEFAULTS.put(LIMIT_QUEUE_TIMEOUT, "1000");
+    DEFAULTS.put(LIMIT_LATENCY_TARGET, "250");
+    DEFAULTS.put(POOL_MIN_SIZE, String.valueOf(pool.getMinSize()));
+    DEFAULTS.put(POOL_MAX_SIZE, String.valueOf(pool.getMaxSize()));
+    DEFAULTS.put(POOL_ACQUIRE_TIMEOUT,
+        String.valueOf(pool.getAcquireTimeoutMillis()));
+    DEFAULTS.put(POOL_IDLE_TIMEOUT,
+        String.valueOf(pool.getIdleTimeoutMillis()));
+    DEFAULTS.put(POOL_VALIDATION_INTERVAL,
+        String.valueOf(pool.getValidationIntervalMillis()));
+    DEFAULTS.put(POOL_VALIDATION_TIMEOUT,
+        String.valueOf(pool.getValidationTimeoutSeconds()));
+    DEFAULTS.put(POOL_LEAK_DETECTION,
+        String.valueOf(pool.getLeakDetectionThresholdMillis()));
+    DEFAULTS.put(POOL_HOUSEKEEPING_INTERVAL,
+        String.valueOf(pool.getHousekeepingIntervalMillis()));
+    DEFAULTS.put(POOL_STATEMENT_CACHE_SIZE,
+        String.valueOf(pool.getStatementCacheSize()));
+  }
+
+  private final Map<String, String> values;
+  private final Map<String, String> sources;
+  private final Path externalFile;
+  private final List<String> errors = new LinkedList<>();
+
+  private String host;
+  private int port;
+  private String schema;
+  private String user;
+  private String password;
+  private boolean useSsl;
+  private long reloadIntervalMillis;
+  private boolean warmUpEnabled;
+  private boolean validateQueries;
+  private int streamFetchSize;
+  private int idBlockSize;
+  private List<String> replicaUrls;
+  private ReplicaRouter.Strategy replicaStrategy;
+  private long replicaMaxLagSeconds;
+  private long replicaLagCheckIntervalMillis;
+  private long readYourWritesMillis;
+  private List<String> shardUrls;
+  private ShardMap shardMap;
+  private boolean limitEnabled;
+  private int limitReadMax;
+  private int limitWriteMax;
+  private int limitQueueSize;
+  private long limitQueueTimeoutMillis;
+  private long limitLatencyTargetMillis;
+  private PoolSettings poolSettings;
+  private Properties driverProperties;
+
+  /**
+   * Use {@link #load()} to create a configuration.
+   */
+  private DbConfig(Map<String, String> values, Map<String, String> sources,
+      Path externalFile) {
+    this.values = values;
+    this.sources = sources;
+    this.externalFile = externalFile;
+  }
+
+  /**
+   * Load and validate the configuration from all sources.
+   *
+   * @return The configuration.
+   * @throws DbException Thrown if a source can't be read or if any setting is
+   *         invalid.
+   */
+  public static DbConfig load() {
+    Map<String, String> values = new LinkedHashMap<>();
+    Map<String, String> sources = new LinkedHashMap<>();
+
+    DEFAULTS.forEach((key, value) -> {
+      values.put(key, value);
+      sources.put(key, "default");
+    });
+
+    mergeClasspathFile(values, sources);
+
+    Path externalFile = findExternalFile();
+
+    if (Objects.nonNull(externalFile)) {
+      merge(readFile(externalFile), values, sources, externalFile.toString());
+    }
+
+    mergeEnvironment(values, sources);
+    merge(System.getProperties(), values, sources, "system property");
+
+    DbConfig config = new DbConfig(values, sources, externalFile);
+    config.parse();
+
+    return config;
+  }
+
+  /**
+   * Read recipes-db.properties from the classpath, if it exists.
+   */
+  private static void mergeClasspathFile(Map<String, String> values,
+      Map<String, String> sources) {
+    try (InputStream in =
+        DbConfig.class.getClassLoader().getResourceAsStream(CLASSPATH_FILE)) {
+      if (Objects.nonNull(in)) {
+        Properties properties = new Properties();
+        properties.load(in);
+        merge(properties, values, sources, "classpath:" + CLASSPATH_FILE);
+      }
+    } catch (IOException e) {
+      throw new DbException("Unable to read " + CLASSPATH_FILE, e);
+    }
+  }
+
+  /**
+   * Returns the external configuration file named by the system property or
+   * the environment variable, or {@code null} if neither is set.
+   */
+  private static Path findExternalFile() {
+    String name = System.getProperty(CONFIG_FILE_PROPERTY,
+        System.getenv(CONFIG_FILE_ENV));
+
+    return Objects.isNull(name) || name.isBlank() ? null : Paths.get(name);
+  }
+
+  private static Properties readFile(Path path) {
+    try (Reader reader = Files.newBufferedReader(path)) {
+      Properties properties = new Properties();
+      properties.load(reader);
+
+      return properties;
+    } catch (IOException e) {
+      throw new DbException("Unable to read configuration file " + path, e);
+    }
+  }
+
+  /**
+   * Copy every recipes.db.* property into the values, recording where it came
+   * from.
+   */
+  private static void merge(Properties properties, Map<String, String> values,
+      Map<String, String> sources, String source) {
+    for (String key : properties.stringPropertyNames()) {
+      if (key.startsWith(PREFIX) && !key.equals(CONFIG_FILE_PROPERTY)) {
+        values.put(key, properties.getProperty(key).trim());
+        sources.put(key, source);
+      }
+    }
+  }
+
+  /**
+   * Look up the environment variable for every known key. Pass-through driver
+   * properties can't be set this way because environment variable names can't
+   * preserve the case of Connector/J property names.
+   */
+  private static void mergeEnvironment(Map<String, String> values,
+      Map<String, String> sources) {
+    List<String> keys = new LinkedList<>(DEFAULTS.keySet());
+    keys.addAll(DRIVER_PROPERTIES.keySet());
+
+    for (String key : keys) {
+      String envName = key.toUpperCase().replace('.', '_').replace('-', '_');
+      String value = System.getenv(envName);
+
+      if (Objects.nonNull(value)) {
+        values.put(key, value.trim());
+        sources.put(key, "env " + envName);
+      }
+    }
+  }
+
+  /**
+   * Convert the raw values into typed fields. Problems are collected rather
+   * than thrown so that the user sees them all at once.
+   */
+  private void parse() {
+    host = values.get(HOST);
+    port = parseInt(PORT, 1, 65535);
+    schema = values.get(SCHEMA);
+    user = values.get(USER);
+    password = values.get(PASSWORD);
+    useSsl = parseBoolean(USE_SSL);
+    reloadIntervalMillis = parseLong(RELOAD_INTERVAL, 0);
+    warmUpEnabled = parseBoolean(WARM_UP);
+    validateQueries = parseBoolean(VALIDATE_QUERIES);
+    streamFetchSize = parseInt(STREAM_FETCH_SIZE, 0, Integer.MAX_VALUE);
+    idBlockSize = parseInt(ID_BLOCK_SIZE, 0, Integer.MAX_VALUE);
+
+    if (host.isBlank()) {
+      errors.add(HOST + " must not be blank");
+    }
+
+    if (schema.isBlank()) {
+      errors.add(SCHEMA + " must not be blank");
+    }
+
+    parseReplicas();
+    parseShards();
+
+    limitEnabled = parseBoolean(LIMIT_ENABLED);
+    limitReadMax = parseInt(LIMIT_READ_MAX, 1, Integer.MAX_VALUE);
+    limitWriteMax = parseInt(LIMIT_WRITE_MAX, 1, Integer.MAX_VALUE);
+    limitQueueSize = parseInt(LIMIT_QUEUE_SIZE, 0, Integer.MAX_VALUE);
+    limitQueueTimeoutMillis = parseLong(LIMIT_QUEUE_TIMEOUT, 0);
+    limitLatencyTargetMillis = parseLong(LIMIT_LATENCY_TARGET, 1);
+
+    poolSettings = new PoolSettings();
+    poolSettings.setMinSize(parseInt(POOL_MIN_SIZE, 0, Integer.MAX_VALUE));
+    poolSettings.setMaxSize(parseInt(POOL_MAX_SIZE, 1, Integer.MAX_VALUE));
+    poolSettings.setAcquireTimeoutMillis(parseLong(POOL_ACQUIRE_TIMEOUT, 0));
+    poolSettings.setIdleTimeoutMillis(parseLong(POOL_IDLE_TIMEOUT, 0));
+    poolSettings
+        .setValidationIntervalMillis(parseLong(POOL_VALIDATION_INTERVAL, 0));
+    poolSettings.setValidationTimeoutSeconds(
+        parseInt(POOL_VALIDATION_TIMEOUT, 0, Integer.MAX_VALUE));
+    poolSettings
+        .setLeakDetectionThresholdMillis(parseLong(POOL_LEAK_DETECTION, 0));
+    poolSettings
+        .setHousekeepingIntervalMillis(parseLong(POOL_HOUSEKEEPING_INTERVAL, 1));
+    poolSettings.setStatementCacheSize(
+        parseInt(POOL_STATEMENT_CACHE_SIZE, 0, Integer.MAX_VALUE));
+
+    /* Only compare the sizes if both of them parsed. */
+    if (errors.isEmpty()
+        && poolSettings.getMinSize() > poolSettings.getMaxSize()) {
+      errors.add(POOL_MIN_SIZE + " (" + poolSettings.getMinSize()
+          + ") must not be greater than " + POOL_MAX_SIZE + " ("
+          + poolSettings.getMaxSize() + ")");
+    }
+
+    driverProperties = new Properties();
+    driverProperties.setProperty("user", user);
+    driverProperties.setProperty("password", password);
+    driverProperties.setProperty("useSSL", String.valueOf(useSsl));
+
+    /*
+     * Streamed queries fetch through a server-side cursor. Only statements
+     * that set a fetch size open a cursor, but Connector/J turns on
+     * useServerPrepStmts for the whole connection when useCursorFetch is set,
+     * and every pool (primary, replicas, and shards) shares these properties.
+     * So with streaming on, every statement is a server-side prepared
+     * statement, whatever use-server-prep-stmts says.
+     */
+    if (streamFetchSize > 0) {
+      driverProperties.setProperty("useCursorFetch", "true");
+    }
+
+    for (Map.Entry<String, String> entry : values.entrySet()) {
+      String key = entry.getKey();
+
+      if (DRIVER_PROPERTIES.containsKey(key)) {
+        driverProperties.setProperty(DRIVER_PROPERTIES.get(key),
+            entry.getValue());
+      } else if (key.startsWith(DRIVER_PREFIX)) {
+        driverProperties.setProperty(key.substring(DRIVER_PREFIX.length()),
+            entry.getValue());
+      } else if (!DEFAULTS.containsKey(key)) {
+        errors.add("Unknown setting " + key + " (from " + sources.get(key)
+            + ")");
+      }
+    }
+
+    if (!errors.isEmpty()) {
+      throw new DbException(
+          "Invalid database configuration:\n   " + String.join("\n   ", errors));
+    }
+
+    if (streamFetchSize > 0 && "false".equalsIgnoreCase(
+        driverProperties.getProperty("useServerPrepStmts"))) {
+      LOG.warning(DRIVER_PREFIX + "use-server-prep-stmts=false is overridden "
+          + "because " + STREAM_FETCH_SIZE + " is set. Set "
+          + STREAM_FETCH_SIZE + "=0 to use client-side prepared statements.");
+    }
+  }
+
+  /**
+   * Replicas are given as a comma-separated list of host:port pairs. They use
+   * the same schema, credentials, and driver properties as the primary.
+   */
+  private void parseReplicas() {
+    replicaUrls = new LinkedList<>();
+
+    for (String replica : values.get(REPLICAS).split(",")) {
+      if (replica.isBlank()) {
+        continue;
+      }
+
+      String[] hostPort = replica.trim().split(":");
+
+      try {
+        if (hostPort.length != 2 || hostPort[0].isBlank()) {
+          throw new IllegalArgumentException();
+        }
+
+        int replicaPort = Integer.parseInt(hostPort[1]);
+
+        if (replicaPort < 1 || replicaPort > 65535) {
+          throw new IllegalArgumentException();
+        }
+
+        replicaUrls.add(url(hostPort[0], replicaPort));
+      } catch (RuntimeException e) {
+        errors.add(REPLICAS + " entry '" + replica.trim()
+            + "' is not a valid host:port");
+      }
+    }
+
+    try {
+      replicaStrategy =
+          ReplicaRouter.Strategy.fromConfig(values.get(REPLICA_STRATEGY));
+    } catch (IllegalArgumentException e) {
+      errors.add(REPLICA_STRATEGY
+          + " must be round-robin or least-outstanding but is '"
+          + values.get(REPLICA_STRATEGY) + "'");
+    }
+
+    replicaMaxLagSeconds = parseLong(REPLICA_MAX_LAG, 0);
+    replicaLagCheckIntervalMillis = parseLong(REPLICA_LAG_CHECK_INTERVAL, 1);
+    readYourWritesMillis = parseLong(READ_YOUR_WRITES_WINDOW, 0);
+  }
+
+  /**
+   * Parse the shard list, where each entry is host:port/schema (the schema
+   * defaults to recipes.db.schema), and build the shard map.
+   */
+  private void parseShards() {
+    shardUrls = new LinkedList<>();
+
+    for (String shard : values.get(SHARDS).split(",")) {
+      if (shard.isBlank()) {
+        continue;
+      }
+
+      String[] hostPortSchema = shard.trim().split("/", 2);
+      String[] hostPort = hostPortSchema[0].split(":");
+
+      try {
+        if (hostPort.length != 2 || hostPort[0].isBlank()) {
+          throw new IllegalArgumentException();
+        }
+
+        int shardPort = Integer.parseInt(hostPort[1]);
+
+        if (shardPort < 1 || shardPort > 65535) {
+          throw new IllegalArgumentException();
+        }
+
+        String shardSchema =
+            hostPortSchema.length == 2 && !hostPortSchema[1].isBlank()
+                ? hostPortSchema[1]
+                : schema;
+
+        shardUrls.add(url(hostPort[0], shardPort, shardSchema));
+      } catch (RuntimeException e) {
+        errors.add(SHARDS + " entry '" + shard.trim()
+            + "' is not a valid host:port/schema");
+      }
+    }
+
+    ShardMap.Strategy strategy = ShardMap.Strategy.HASH;
+
+    try {
+      strategy = ShardMap.Strategy.fromConfig(values.get(SHARD_STRATEGY));
+    } catch (IllegalArgumentException e) {
+      errors.add(SHARD_STRATEGY + " must be hash or range but is '"
+          + values.get(SHARD_STRATEGY) + "'");
+    }
+
+    List<Long> starts = new LinkedList<>();
+
+    for (String start : values.get(SHARD_RANGE_STARTS).split(",")) {
+      if (!start.isBlank()) {
+        try {
+          starts.add(Long.parseLong(start.trim()));
+        } catch (NumberFormatException e) {
+          errors.add(SHARD_RANGE_STARTS + " entry '" + start.trim()
+              + "' is not a number");
+        }
+      }
+    }
+
+    if (errors.isEmpty()) {
+      try {
+        shardMap = new ShardMap(strategy, shardUrls.size() + 1,
+            starts.stream().mapToLong(Long::longValue).toArray());
+      } catch (DbException e) {
+        errors.add(SHARD_RANGE_STARTS + ": " + e.getMessage());
+      }
+    }
+  }
+
+  private int parseInt(String key, int min, int max) {
+    long value = parseLong(key, min);
+
+    if (value > max) {
+      errors.add(key + " must be at most " + max + " but is " + value);
+    }
+
+    return (int) Math.min(value, max);
+  }
+
+  private long parseLong(String key, long min) {
+    String text = values.get(key);
+
+    try {
+      long value = Long.parseLong(text);
+
+      if (value < min) {
+        errors.add(key + " must be at least " + min + " but is " + value);
+      }
+
+      return value;
+    } catch (NumberFormatException e) {
+      errors.add(key + " is not a valid number: '" + text + "'");
+      return min;
+    }
+  }
+
+  private boolean parseBoolean(String key) {
+    String text = values.get(key);
+
+    if (!"true".equalsIgnoreCase(text) && !"false".equalsIgnoreCase(text)) {
+      errors.add(key + " must be true or false but is '" + text + "'");
+    }
+
+    return Boolean.parseBoolean(text);
+  }
+
+  /**
+   * Log every effective setting and where it came from. The password is
+   * masked.
+   */
+  public void logEffectiveSettings() {
+    StringBuilder b = new StringBuilder("Effective database configuration:");
+
+    values.forEach((key, value) -> {
+      String shown = key.equals(PASSWORD) ? "********" : value;
+      b.append("\n   ").append(key).append('=').append(shown).append(" (")
+          .append(sources.get(key)).append(')');
+    });
+
+    LOG.info(b.toString());
+  }
+
+  /**
+   * Returns {@code true} if the other configuration would open connections
+   * the same way as this one (same URLs, shard map, credentials, and driver
+   * properties).
+   * Changes to these settings only take effect on a restart.
+   *
+   * @param other The configuration to compare with.
+   * @return {@code true} if the connection settings are the same.
+   */
+  public boolean hasSameConnectionSettings(DbConfig other) {
+    return getUrl().equals(other.getUrl())
+        && replicaUrls.equals(other.replicaUrls)
+        && shardUrls.equals(other.shardUrls)
+        && shardMap.toString().equals(other.shardMap.toString())
+        && driverProperties.equals(other.driverProperties);
+  }
+
+  /**
+   * Returns the JDBC URL. Credentials and driver properties are not part of
+   * the URL. They are in {@link #getDriverProperties()}.
+   *
+   * @return The URL.
+   */
+  public String getUrl() {
+    return url(host, port);
+  }
+
+  private String url(String urlHost, int urlPort) {
+    return url(urlHost, urlPort, schema);
+  }
+
+  private String url(String urlHost, int urlPort, String urlSchema) {
+    return String.format("jdbc:mysql://%s:%d/%s", urlHost, urlPort,
+        urlSchema);
+  }
+
+  /**
+   * Returns the JDBC URL of each shard after shard 0, which is the primary at
+   * {@link #getUrl()}.
+   *
+   * @return The shard URLs. The list is empty if the data isn't sharded.
+   */
+  public List<String> getShardUrls() {
+    return List.copyOf(shardUrls);
+  }
+
+  /**
+   * Returns the map from recipe IDs to shards. Without sharding this maps
+   * every recipe to shard 0.
+   *
+   * @return The shard map.
+   */
+  public ShardMap getShardMap() {
+    return shardMap;
+  }
+
+  /**
+   * Returns the JDBC URL of each read replica.
+   *
+   * @return The replica URLs. The list is empty if there are no replicas.
+   */
+  public List<String> getReplicaUrls() {
+    return List.copyOf(replicaUrls);
+  }
+
+  public ReplicaRouter.Strategy getReplicaStrategy() {
+    return replicaStrategy;
+  }
+
+  /**
+   * A replica that is further behind the primary than this is not used.
+   */
+  public long getReplicaMaxLagSeconds() {
+    return replicaMaxLagSeconds;
+  }
+
+  public long getReplicaLagCheckIntervalMillis() {
+    return replicaLagCheckIntervalMillis;
+  }
+
+  /**
+   * For this long after a thread uses the primary, its reads also go to the
+   * primary so that it sees its own writes.
+   */
+  public long getReadYourWritesMillis() {
+    return readYourWritesMillis;
+  }
+
+  /**
+   * If {@code true}, the number of concurrent reads and writes is limited by
+   * a {@link ConcurrencyLimiter} each.
+   */
+  public boolean isLimitEnabled() {
+    return limitEnabled;
+  }
+
+  /**
+   * The most reads allowed to run at once.
+   */
+  public int getLimitReadMax() {
+    return limitReadMax;
+  }
+
+  /**
+   * The most writes allowed to run at once.
+   */
+  public int getLimitWriteMax() {
+    return limitWriteMax;
+  }
+
+  /**
+   * The most callers allowed to wait for each limiter.
+   */
+  public int getLimitQueueSize() {
+    return limitQueueSize;
+  }
+
+  public long getLimitQueueTimeoutMillis() {
+    return limitQueueTimeoutMillis;
+  }
+
+  /**
+   * Operations that take longer than this lower the concurrency limit.
+   */
+  public long getLimitLatencyTargetMillis() {
+    return limitLatencyTargetMillis;
+  }
+
+  /**
+   * Returns the properties passed to the driver when a connection is opened.
+   * A new copy is returned on each call.
+   *
+   * @return The driver properties, including the user and password.
+   */
+  public Properties getDriverProperties() {
+    Properties copy = new Properties();
+    copy.putAll(driverProperties);
+
+    return copy;
+  }
+
+  /**
+   * Returns the pool settings. These can be changed without a restart.
+   *
+   * @return A new copy of the pool settings.
+   */
+  public PoolSettings getPoolSettings() {
+    PoolSettings copy = new PoolSettings();
+
+    copy.setMinSize(poolSettings.getMinSize());
+    copy.setMaxSize(poolSettings.getMaxSize());
+    copy.setAcquireTimeoutMillis(poolSettings.getAcquireTimeoutMillis());
+    copy.setIdleTimeoutMillis(poolSettings.getIdleTimeoutMillis());
+    copy.setValidationIntervalMillis(
+        poolSettings.getValidationIntervalMillis());
+    copy.setValidationTimeoutSeconds(
+        poolSettings.getValidationTimeoutSeconds());
+    copy.setLeakDetectionThresholdMillis(
+        poolSettings.getLeakDetectionThresholdMillis());
+    copy.setHousekeepingIntervalMillis(
+        poolSettings.getHousekeepingIntervalMillis());
+    copy.setStatementCacheSize(poolSettings.getStatementCacheSize());
+
+    return copy;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public String getSchema() {
+    return schema;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  /**
+   * Returns the external configuration file, or {@code null} if there isn't
+   * one. Only this file is watched for changes.
+   */
+  public Path getExternalFile() {
+    return externalFile;
+  }
+
+  /**
+   * How often the external configuration file is checked for changes. Zero
+   * turns the check off.
+   */
+  public long getReloadIntervalMillis() {
+    return reloadIntervalMillis;
+  }
+
+  /**
+   * If {@code true}, connections are opened and statements prepared at
+   * startup, before the application reports that it is ready.
+   */
+  public boolean isWarmUpEnabled() {
+    return warmUpEnabled;
+  }
+
+  /**
+   * If {@code true}, every named query is checked against the live schema at
+   * startup, and any that the server rejects are reported.
+   */
+  public boolean isQueryValidationEnabled() {
+    return validateQueries;
+  }
+
+  /**
+   * Returns how many rows a streamed query fetches from its server-side
+   * cursor at a time. Zero means there is no cursor, and Connector/J streams
+   * the rows one at a time instead.
+   */
+  public int getStreamFetchSize() {
+    return streamFetchSize;
+  }
+
+  /**
+   * Returns how many recipe, ingredient, or step IDs are reserved from the
+   * id_sequence table at a time. Zero means the IDs come from AUTO_INCREMENT
+   * instead, except for sharded recipe IDs, which are then reserved one at a
+   * time.
+   */
+  public int getIdBlockSize() {
+    return idBlockSize;
+  }
+}
@@ -1,30 +1,912 @@
 package recipes.dao;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import recipes.exception.DbException;
+import recipes.exception.DbOverloadException;
 
 
+/**
+ * This class hands out connections to the recipe schema. Connections come from
+ * a {@link ConnectionPool}, which is created the first time a connection is
+ * requested. Closing a connection returns it to the pool, so callers use the
+ * same try-with-resource pattern they would use with a plain connection.
+ *
+ * The connection, driver, and pool settings come from {@link DbConfig}. If an
+ * external configuration file is used, it is checked for changes in the
+ * background and the pool settings are applied without a restart.
+ *
+ * Writes use {@link #getConnection()}, which always goes to the primary.
+ * Read-only work can use {@link #getReadConnection()}, which goes to a read
+ * replica if any are configured and healthy. A thread that has recently used
+ * the primary keeps reading from the primary for a short window, so it always
+ * sees its own writes.
+ *
+ * If recipes.db.shards is set, recipes are spread across several schemas or
+ * instances as described by the {@link ShardMap}. The per-shard methods
+ * {@link #getConnection(int)} and {@link #getReadConnection(int)} pick the
+ * shard; the methods without a shard number use shard 0, the primary. Read
+ * replicas only serve shard 0. {@link #onEveryShard(IntFunction)} runs the
+ * same work on every shard in parallel.
+ *
+ * Several DAO calls can be combined into one transaction with
+ * {@link #inTransaction(Supplier)}. The unit of work borrows a connection the
+ * first time it needs one, and from then on every connection the current
+ * thread requests for that shard is the unit of work's connection. A unit of
+ * work can read from other shards but can only write to one.
+ *
+ * Reads and writes each pass through a {@link ConcurrencyLimiter}, which caps
+ * how many run at once and sheds load with
+ * {@link recipes.exception.DbOverloadException} when the database falls
+ * behind. A unit of work holds one write permit for its whole length, and
+ * the operations inside it don't take permits of their own.
+ */
 public class DbConnection {
-  private static final String SCHEMA = "recipes";
-  private static final String USER = "recipes";
-  private static final String PASSWORD = "recipes";
-  private static final String HOST = "localhost";
-  private static final int PORT = 3306;
+  private static final Logger LOG =
+      Logger.getLogger(DbConnection.class.getName());
 
+  /*
+   * The holder class is not loaded until a connection is first requested, so
+   * the pools are created lazily and exactly once without any locking.
+   */
+  private static class PoolHolder {
+    private static final ConnectionPool POOL;
+    private static final ReplicaRouter REPLICAS;
+
+    /* Shard 0 is POOL. */
+    private static final List<ConnectionPool> SHARDS = new ArrayList<>();
+
+    /* A connection of its own for reserving ID blocks on shard 0. */
+    private static final ConnectionPool SEQUENCE;
+    private static final ShardMap SHARD_MAP;
+    private static final ExecutorService SCATTER;
+
+    /*
+     * This goes with the useCursorFetch driver property the pools were
+     * created with, so it only changes on restart.
+     */
+    private static final int STREAM_FETCH_SIZE;
+
+    /* Mixing assigned and AUTO_INCREMENT IDs isn't safe, so this is fixed. */
+    private static final int ID_BLOCK_SIZE;
+
+    /* These are null if limits are turned off. */
+    private static final ConcurrencyLimiter READ_LIMIT;
+    private static final ConcurrencyLimiter WRITE_LIMIT;
+
+    static {
+      config = DbConfig.load();
+      config.logEffectiveSettings();
+
+      POOL = new ConnectionPool("primary", config.getUrl(),
+          config.getDriverProperties(), config.getPoolSettings());
+
+      List<ConnectionPool> replicaPools = new LinkedList<>();
+      int replicaNumber = 1;
+
+      for (String url : config.getReplicaUrls()) {
+        replicaPools.add(new ConnectionPool("replica-" + replicaNumber++, url,
+            config.getDriverProperties(), config.getPoolSettings()));
+      }
+
+      REPLICAS = new ReplicaRouter(replicaPools, config.getReplicaStrategy(),
+          config.getReplicaMaxLagSeconds(),
+          config.getReplicaLagCheckIntervalMillis());
+
+      SHARDS.add(POOL);
+      int shardNumber = 1;
+
+      for (String url : config.getShardUrls()) {
+        SHARDS.add(new ConnectionPool("shard-" + shardNumber++, url,
+            config.getDriverProperties(), config.getPoolSettings()));
+      }
+
+      SEQUENCE = new ConnectionPool("id-sequence", config.getUrl(),
+          config.getDriverProperties(),
+          sequenceSettings(config.getPoolSettings()));
+
+      SHARD_MAP = config.getShardMap();
+      STREAM_FETCH_SIZE = config.getStreamFetchSize();
+      ID_BLOCK_SIZE = config.getIdBlockSize();
+      SCATTER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "recipes-scatter");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+      if (config.isLimitEnabled()) {
+        int poolMax = config.getPoolSettings().getMaxSize();
+
+        READ_LIMIT = new ConcurrencyLimiter("read",
+            cap("read", config.getLimitReadMax(),
+                poolMax * (SHARDS.size() + replicaPools.size())),
+            config.getLimitQueueSize(), config.getLimitQueueTimeoutMillis(),
+            config.getLimitLatencyTargetMillis());
+        WRITE_LIMIT = new ConcurrencyLimiter("write",
+            cap("write", config.getLimitWriteMax(), poolMax * SHARDS.size()),
+            config.getLimitQueueSize(), config.getLimitQueueTimeoutMillis(),
+            config.getLimitLatencyTargetMillis());
+      } else {
+        READ_LIMIT = null;
+        WRITE_LIMIT = null;
+      }
+
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        SCATTER.shutdownNow();
+        REPLICAS.close();
+        SHARDS.forEach(ConnectionPool::close);
+        SEQUENCE.close();
+      }, "recipes-pool-shutdown"));
+
+      watchConfigFile(config);
+    }
+
+    /**
+     * Returns the configured maximum of a limiter, or the number of
+     * connections the limiter's pools can hand out if that is lower. Above
+     * that, the extra callers would wait in the pools instead of the
+     * limiter's queue, and the time they waited there would look like a slow
+     * database.
+     */
+    private static int cap(String name, int max, int connections) {
+      if (max <= connections) {
+        return max;
+      }
+
+      LOG.warning("The " + name + " limit of " + max + " is more than the "
+          + connections + " connections its pools allow. Using "
+          + connections + ".");
+
+      return connections;
+    }
+
+    /**
+     * Returns the configuration, creating the pools first if necessary.
+     */
+    static DbConfig config() {
+      return config;
+    }
+  }
+
+  private static volatile DbConfig config;
+  private static volatile FileTime configFileTime;
+
+  /*
+   * The System.nanoTime() at which the current thread last borrowed a primary
+   * connection.
+   */
+  private static final ThreadLocal<Long> lastPrimaryUse = new ThreadLocal<>();
+
+  /* The unit of work the current thread is running, if any. */
+  private static final ThreadLocal<UnitOfWork> currentUnit =
+      new ThreadLocal<>();
+
+  /**
+   * This holds the state of one unit of work. The connection is borrowed the
+   * first time the work needs one, and the shard it came from is remembered.
+   */
+  private static class UnitOfWork {
+    private Connection conn;
+    private TransactionConnection tx;
+    private int shard;
+  }
+
+  /**
+   * Start a background task that reloads the configuration when the external
+   * configuration file changes. Nothing is started if there is no external
+   * file or the reload interval is zero.
+   *
+   * @param initial The configuration loaded at startup.
+   */
+  private static void watchConfigFile(DbConfig initial) {
+    Path file = initial.getExternalFile();
+
+    if (Objects.isNull(file) || initial.getReloadIntervalMillis() == 0) {
+      return;
+    }
+
+    configFileTime = lastModified(file);
+
+    ScheduledExecutorService watcher =
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "recipes-config-watcher");
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    watcher.scheduleWithFixedDelay(() -> {
+      FileTime modified = lastModified(file);
+
+      if (Objects.nonNull(modified) && !modified.equals(configFileTime)) {
+        configFileTime = modified;
+
+        try {
+          reloadConfig();
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "Keeping the current configuration.", e);
+        }
+      }
+    }, initial.getReloadIntervalMillis(), initial.getReloadIntervalMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  private static FileTime lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Load the configuration again and apply the pool settings to the running
+   * pool. Changes to the connection settings (host, credentials, driver
+   * properties) are logged but only take effect on a restart, because
+   * connections that are already open can't be changed.
+   *
+   * @throws DbException Thrown if the new configuration is invalid. The
+   *         current configuration stays in effect.
+   */
+  public static void reloadConfig() {
+    List<ConnectionPool> shards = PoolHolder.SHARDS;
+    DbConfig newConfig = DbConfig.load();
+
+    if (!newConfig.hasSameConnectionSettings(config)) {
+      LOG.warning("Connection settings changed. They take effect on restart.");
+    }
+
+    shards.forEach(pool -> pool.reconfigure(newConfig.getPoolSettings()));
+    PoolHolder.SEQUENCE.reconfigure(
+        sequenceSettings(newConfig.getPoolSettings()));
+    PoolHolder.REPLICAS.reconfigure(newConfig.getPoolSettings());
+    config = newConfig;
+    newConfig.logEffectiveSettings();
+  }
+
+  /**
+   * Returns {@code true} if the application should warm up the pools (see
+   * {@link #warmUp(QueryCatalog, WarmUpReport)}) before it reports that it is
+   * ready (recipes.db.warm-up=true).
+   *
+   * @return {@code true} if warm-up is turned on.
+   */
+  public static boolean isWarmUpEnabled() {
+    return PoolHolder.config().isWarmUpEnabled();
+  }
+
+  /**
+   * Returns {@code true} if the application should check its queries against
+   * the live schema at startup (recipes.db.validate-queries=true).
+   *
+   * @return {@code true} if query validation is turned on.
+   */
+  public static boolean isQueryValidationEnabled() {
+    return PoolHolder.config().isQueryValidationEnabled();
+  }
+
+  /**
+   * Get every pool ready to serve requests at full speed. This:
+   * <ol>
+   * <li>Loads the configuration and creates the pools, if that hasn't
+   * happened yet.</li>
+   * <li>Opens the minimum number of connections in every pool (shards and
+   * replicas) concurrently.</li>
+   * <li>Prepares each query in the catalog on every one of those
+   * connections, also concurrently, the way the query itself prepares it.
+   * With the statement cache turned on, the prepared handles are kept for
+   * reuse.</li>
+   * </ol>
+   * Each step is recorded as a phase in the report.
+   *
+   * @param queries The queries to prepare.
+   * @param report The report in which to record the phases.
+   * @throws DbException Thrown if any connection can't be opened or any
+   *         statement can't be prepared.
+   */
+  static void warmUp(QueryCatalog queries, WarmUpReport report) {
+    List<ConnectionPool> pools = new LinkedList<>();
+
+    pools.addAll(PoolHolder.SHARDS);
+    pools.addAll(PoolHolder.REPLICAS.getPools());
+    report.endPhase("load configuration and create pools");
+
+    int perPool = Math.max(1, config.getPoolSettings().getMinSize());
+    ExecutorService executor =
+        Executors.newFixedThreadPool(perPool * pools.size());
+    List<Future<Connection>> opened = new LinkedList<>();
+
+    try {
+      List<Connection> connections = new LinkedList<>();
+
+      for (ConnectionPool pool : pools) {
+        for (int count = 0; count < perPool; count++) {
+          opened.add(executor.submit(pool::getConnection));
+        }
+      }
+
+      for (Future<Connection> future : opened) {
+        connections.add(await(future));
+      }
+
+      report.endPhase("open " + connections.size() + " connections");
+
+      List<Future<Connection>> prepared = new LinkedList<>();
+
+      for (Connection conn : connections) {
+        prepared.add(executor.submit(() -> {
+          queries.prepareAll(conn);
+          return conn;
+        }));
+      }
+
+      for (Future<Connection> future : prepared) {
+        await(future);
+      }
+
+      report.endPhase("prepare " + queries.getQueries().size()
+          + " statements on each connection");
+    } finally {
+      /*
+       * If a task failed, the others may still be borrowing or preparing.
+       * Wait for them, then give back every connection that was borrowed,
+       * not just the ones collected before the failure.
+       */
+      awaitTasks(executor);
+
+      for (Future<Connection> future : opened) {
+        Connection conn = borrowed(future);
+
+        if (Objects.nonNull(conn)) {
+          closeQuietly(conn);
+        }
+      }
+    }
+  }
+
+  /**
+   * Shut the executor down and wait for the tasks it was given to finish.
+   * They all end by themselves, since borrowing a connection and preparing a
+   * statement both time out. If the wait is interrupted, the tasks are
+   * interrupted too.
+   */
+  private static void awaitTasks(ExecutorService executor) {
+    executor.shutdown();
+
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+        LOG.fine("Waiting for warm-up tasks to finish.");
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns the connection a finished task borrowed, or {@code null} if the
+   * task failed or hasn't finished.
+   */
+  private static Connection borrowed(Future<Connection> future) {
+    if (!future.isDone() || future.isCancelled()) {
+      return null;
+    }
+
+    try {
+      return future.get();
+    } catch (InterruptedException | ExecutionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Wait for a background task and return its result, unwrapping any
+   * exception it threw.
+   */
+  private static <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DbException("Interrupted waiting for a background task.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      throw new DbException(e.getCause());
+    }
+  }
+
+  private static void closeQuietly(Connection conn) {
+    try {
+      conn.close();
+    } catch (SQLException e) {
+      LOG.log(Level.FINE, "Error returning a connection.", e);
+    }
+  }
+
+  /**
+   * Returns the map that says which shard holds each recipe.
+   *
+   * @return The shard map.
+   */
+  public static ShardMap getShardMap() {
+    return PoolHolder.SHARD_MAP;
+  }
+
+  /**
+   * Borrow a connection to the primary. Close it to give it back.
+   *
+   * @return A pooled connection.
+   * @throws DbOverloadException Thrown if too many writes are running or
+   *         waiting.
+   * @throws DbException Thrown if a connection can't be obtained.
+   */
   public static Connection getConnection() {
-    String url =
-        String.format("jdbc:mysql://%s:%d/%s?user=%s&password=%s&useSSL=false",
-            HOST, PORT, SCHEMA, USER, PASSWORD);
+    return getConnection(0);
+  }	// END OF GET CONNECTION
+
+  /**
+   * Borrow a connection to the given shard for writing. Close it to give it
+   * back.
+   *
+   * @param shard The shard, from {@link ShardMap#shardFor(long)}.
+   * @return A pooled connection.
+   * @throws DbOverloadException Thrown if too many writes are running or
+   *         waiting.
+   * @throws DbException Thrown if a connection can't be obtained, or if the
+   *         current unit of work already writes to a different shard.
+   */
+  public static Connection getConnection(int shard) {
+    checkShard(shard);
+
+    UnitOfWork unit = currentUnit.get();
+
+    if (Objects.nonNull(unit)) {
+      if (Objects.nonNull(unit.tx) && unit.shard != shard) {
+        throw new DbException("A unit of work can only write to one shard. "
+            + "This one is using shard " + unit.shard + ", not " + shard
+            + ".");
+      }
+
+      return joinUnit(unit, shard);
+    }
+
+    return borrowForWrite(shard);
+  }
+
+  /**
+   * Borrow a connection to the primary for reserving a block of IDs from the
+   * id_sequence table. It is never part of the current unit of work, so the
+   * reservation is committed independently, even if the unit of work later
+   * rolls back. It comes from a one-connection pool of its own and takes no
+   * write permit, so a caller that already holds a connection or a permit
+   * never waits for one of its own kind to be given back. Close it to give
+   * it back.
+   *
+   * @return A pooled connection.
+   * @throws DbException Thrown if a connection can't be obtained.
+   */
+  static Connection getSequenceConnection() {
+    return PoolHolder.SEQUENCE.getConnection();
+  }
+
+  /**
+   * Returns the settings of the ID sequence pool: the main pool's timeouts,
+   * with a single connection that is only opened when it is first needed. A
+   * block is reserved with one short update, and not often, so callers that
+   * need one at the same moment simply take turns.
+   */
+  private static PoolSettings sequenceSettings(PoolSettings settings) {
+    settings.setMinSize(0);
+    settings.setMaxSize(1);
+
+    return settings;
+  }
+
+  /**
+   * Borrow a connection for read-only work. This goes to the primary if there
+   * are no healthy replicas, or if the current thread used the primary within
+   * the read-your-writes window. Otherwise it goes to a replica. Close it to
+   * give it back.
+   *
+   * @return A pooled connection.
+   * @throws DbOverloadException Thrown if too many reads are running or
+   *         waiting.
+   * @throws DbException Thrown if a connection can't be obtained.
+   */
+  public static Connection getReadConnection() {
+    return getReadConnection(0);
+  }
+
+  /**
+   * Borrow a connection to the given shard for read-only work. Shard 0 reads
+   * may go to a replica, as described in {@link #getReadConnection()}. Inside
+   * a unit of work, reads from the unit's shard use the unit's connection, and
+   * reads from other shards use a connection of their own. Close it to give it
+   * back.
+   *
+   * @param shard The shard, from {@link ShardMap#shardFor(long)}.
+   * @return A pooled connection.
+   * @throws DbOverloadException Thrown if too many reads are running or
+   *         waiting.
+   * @throws DbException Thrown if a connection can't be obtained.
+   */
+  public static Connection getReadConnection(int shard) {
+    checkShard(shard);
+
+    UnitOfWork unit = currentUnit.get();
+
+    if (Objects.nonNull(unit)
+        && (Objects.isNull(unit.tx) || unit.shard == shard)) {
+      return joinUnit(unit, shard);
+    }
+
+    ConcurrencyLimiter limit = PoolHolder.READ_LIMIT;
+
+    return Objects.isNull(limit) ? borrowForRead(shard)
+        : limit.getConnection(() -> borrowForRead(shard));
+  }
+
+  /**
+   * Borrow a connection to the given shard for a streamed query, one whose
+   * rows are read a few at a time for as long as the caller likes. Like
+   * {@link #getReadConnection(int)}, shard 0 may go to a replica. Unlike it,
+   * this is never the current unit of work's connection, since an open stream
+   * would tie that connection up, and it doesn't take a read permit, since
+   * the time a stream is held open says nothing about how the database is
+   * coping. Streams are still bounded by the pool size. Close it to give it
+   * back.
+   *
+   * @param shard The shard, from {@link ShardMap#shardFor(long)}.
+   * @return A pooled connection.
+   * @throws DbException Thrown if a connection can't be obtained.
+   */
+  public static Connection getStreamConnection(int shard) {
+    checkShard(shard);
+    return borrowForRead(shard);
+  }
+
+  /**
+   * Returns the fetch size to give a streamed query's statement: the
+   * configured number of rows per cursor fetch, or, if cursors are turned
+   * off, {@link Integer#MIN_VALUE}, which tells Connector/J to stream the rows
+   * one at a time.
+   *
+   * @return The fetch size.
+   */
+  public static int getStreamFetchSize() {
+    int fetchSize = PoolHolder.STREAM_FETCH_SIZE;
+    return fetchSize > 0 ? fetchSize : Integer.MIN_VALUE;
+  }
+
+  /**
+   * Returns the number of IDs reserved from the id_sequence table at a time
+   * (recipes.db.id-block-size). Zero means the application leaves recipe,
+   * ingredient, and step IDs to AUTO_INCREMENT. Like the fetch size, this is
+   * read once, since changing it while the application runs would mix the two
+   * kinds of ID.
+   *
+   * @return The block size.
+   */
+  public static int getIdBlockSize() {
+    return PoolHolder.ID_BLOCK_SIZE;
+  }
+
+  private static void checkShard(int shard) {
+    if (shard < 0 || shard >= PoolHolder.SHARDS.size()) {
+      throw new DbException("There is no shard " + shard + ". There are "
+          + PoolHolder.SHARDS.size() + " shards.");
+    }
+  }
+
+  /**
+   * Returns the unit of work's connection, borrowing it from the given shard
+   * and starting the transaction if this is the first use.
+   */
+  private static Connection joinUnit(UnitOfWork unit, int shard) {
+    if (Objects.isNull(unit.tx)) {
+      Connection conn = borrowForWrite(shard);
+
+      try {
+        conn.setAutoCommit(false);
+      } catch (SQLException e) {
+        closeQuietly(conn);
+        throw new DbException(e);
+      }
+
+      unit.conn = conn;
+      unit.tx = new TransactionConnection(conn);
+      unit.shard = shard;
+    }
+
+    return unit.tx;
+  }
+
+  private static Connection borrowForWrite(int shard) {
+    ConcurrencyLimiter limit = PoolHolder.WRITE_LIMIT;
+
+    return Objects.isNull(limit) ? borrowPrimary(shard)
+        : limit.getConnection(() -> borrowPrimary(shard));
+  }
+
+  private static Connection borrowPrimary(int shard) {
+    Connection conn = PoolHolder.SHARDS.get(shard).getConnection();
+
+    if (shard == 0) {
+      lastPrimaryUse.set(System.nanoTime());
+    }
+
+    return conn;
+  }
+
+  private static Connection borrowForRead(int shard) {
+    ReplicaRouter replicas = PoolHolder.REPLICAS;
+
+    if (shard == 0 && replicas.hasReplicas()
+        && !isReadYourWritesWindowOpen()) {
+      Connection conn = replicas.getConnection();
+
+      if (Objects.nonNull(conn)) {
+        return conn;
+      }
+    }
+
+    return PoolHolder.SHARDS.get(shard).getConnection();
+  }
+
+  /**
+   * Run the same work against every shard in parallel and return the results
+   * in shard order. The work is given the shard number and typically calls
+   * {@link #getReadConnection(int)} with it. If the current thread is in a
+   * unit of work, the work for the unit's shard runs on the current thread so
+   * that it sees the unit's changes. Work on the other threads keeps the
+   * current thread's read-your-writes window, so it doesn't read the
+   * caller's own writes from a stale replica. Without sharding, the work
+   * simply runs once for shard 0 on the current thread.
+   *
+   * @param <T> The type returned by the work.
+   * @param work The work to run for each shard.
+   * @return The results, one per shard.
+   * @throws DbException Thrown if the work fails on any shard.
+   */
+  public static <T> List<T> onEveryShard(IntFunction<T> work) {
+    int shards = PoolHolder.SHARDS.size();
+
+    if (shards == 1) {
+      return List.of(work.apply(0));
+    }
+
+    UnitOfWork unit = currentUnit.get();
+    int local = Objects.nonNull(unit) && Objects.nonNull(unit.tx) ? unit.shard
+        : -1;
+    Long primaryUse = lastPrimaryUse.get();
+    List<CompletableFuture<T>> futures = new ArrayList<>();
+
+    for (int shard = 0; shard < shards; shard++) {
+      int target = shard;
+
+      futures.add(shard == local ? null
+          : CompletableFuture.supplyAsync(
+              () -> onScatterThread(primaryUse, target, work),
+              PoolHolder.SCATTER));
+    }
+
+    List<T> results = new ArrayList<>();
+
+    for (int shard = 0; shard < shards; shard++) {
+      results.add(shard == local ? work.apply(shard)
+          : await(futures.get(shard)));
+    }
+
+    return results;
+  }
+
+  /**
+   * Run one shard's work on a scatter thread as if on the calling thread. The
+   * read-your-writes window is per thread, so the caller's last use of the
+   * primary is carried over. Otherwise a caller that has just written to
+   * shard 0 could have its own write missing from a shard 0 read that went
+   * to a replica.
+   */
+  private static <T> T onScatterThread(Long primaryUse, int shard,
+      IntFunction<T> work) {
+    if (Objects.nonNull(primaryUse)) {
+      lastPrimaryUse.set(primaryUse);
+    }
 
     try {
-      Connection conn = DriverManager.getConnection(url);
-      System.out.println("Connected!");
-      return conn;
+      return work.apply(shard);
+    } finally {
+      lastPrimaryUse.remove();
+    }
+  }
+
+  /**
+   * Run several DAO operations in a single transaction on a single
+   * connection. The connection is borrowed from whichever shard the first
+   * operation uses. Every call to {@link #getConnection(int)} or
+   * {@link #getReadConnection(int)} for that shard made by the current thread
+   * while the work runs returns the same connection, and the DAO's own commits
+   * are deferred until the work finishes. So this:
+   *
+   * <pre>
+   * Recipe recipe = DbConnection.inTransaction(() -> {
+   *   recipeDao.insertRecipe(recipe);
+   *   recipeDao.addStepToRecipe(step);
+   *   return recipeDao.fetchRecipeById(recipe.getRecipeId()).orElseThrow();
+   * });
+   * </pre>
+   *
+   * borrows one connection and commits once. If the work throws, or if any
+   * DAO operation in it rolled back, the whole unit of work is rolled back. A
+   * unit of work started while one is already running simply joins it.
+   *
+   * @param <T> The type returned by the work.
+   * @param work The DAO operations to run.
+   * @return The value returned by the work.
+   * @throws DbException Thrown if the transaction can't be committed, if a
+   *         DAO operation failed and the caller caught its exception, or if
+   *         the work tries to write to a second shard.
+   */
+  public static <T> T inTransaction(Supplier<T> work) {
+    if (Objects.nonNull(currentUnit.get())) {
+      return work.get();
+    }
+
+    UnitOfWork unit = new UnitOfWork();
+    currentUnit.set(unit);
+
+    try {
+      T result = work.get();
+
+      if (Objects.nonNull(unit.tx)) {
+        if (unit.tx.isRollbackOnly()) {
+          /* The catch below rolls it back. */
+          throw new DbException("The transaction was rolled back because an "
+              + "operation failed.");
+        }
+
+        unit.conn.commit();
+      }
+
+      return result;
+    } catch (RuntimeException e) {
+      rollback(unit, e);
+      throw e;
     } catch (SQLException e) {
-      System.out.println("Error getting connection.");
       throw new DbException(e);
+    } finally {
+      currentUnit.remove();
+
+      if (Objects.nonNull(unit.conn)) {
+        closeQuietly(unit.conn);
+      }
     }
-  }	// END OF GET CONNECTION
+  }
+
+  /**
+   * Roll back a unit of work that failed. If the rollback fails too, which is
+   * likely when the connection has died, the rollback failure is added to the
+   * original exception as a suppressed exception rather than replacing it.
+   *
+   * @param unit The unit of work.
+   * @param cause The exception that made the unit of work fail.
+   */
+  private static void rollback(UnitOfWork unit, RuntimeException cause) {
+    if (Objects.nonNull(unit.conn)) {
+      try {
+        unit.conn.rollback();
+      } catch (SQLException e) {
+        cause.addSuppressed(e);
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the current thread used the primary recently
+   * enough that a replica might not have its writes yet.
+   */
+  private static boolean isReadYourWritesWindowOpen() {
+    Long lastUse = lastPrimaryUse.get();
+
+    return Objects.nonNull(lastUse) && System.nanoTime() - lastUse < TimeUnit
+        .MILLISECONDS.toNanos(config.getReadYourWritesMillis());
+  }
+
+  /**
+   * Returns a snapshot of the primary connection pool statistics.
+   *
+   * @return The pool statistics.
+   */
+  public static PoolStats getPoolStats() {
+    return PoolHolder.POOL.getStats();
+  }
+
+  /**
+   * Returns a snapshot of every pool: the primary first, then any other
+   * shards, then each replica.
+   *
+   * @return The pool statistics.
+   */
+  public static List<PoolStats> getAllPoolStats() {
+    List<PoolStats> stats = new LinkedList<>();
+
+    PoolHolder.SHARDS.forEach(pool -> stats.add(pool.getStats()));
+    stats.addAll(PoolHolder.REPLICAS.getStats());
+
+    return stats;
+  }
+
+  /**
+   * Returns the prepared statement cache counts of every pool: a line with
+   * each pool's totals, followed by a line for each statement it has
+   * prepared, busiest first.
+   *
+   * @return The description.
+   */
+  public static String describeStatementCache() {
+    List<ConnectionPool> pools = new LinkedList<>(PoolHolder.SHARDS);
+    StringBuilder description = new StringBuilder();
+
+    pools.addAll(PoolHolder.REPLICAS.getPools());
+
+    for (ConnectionPool pool : pools) {
+      PoolStats stats = pool.getStats();
+
+      description.append(description.length() == 0 ? "" : "\n")
+          .append("Statement cache ").append(pool.getName())
+          .append(" [hits=").append(stats.getStatementHits())
+          .append(", misses=").append(stats.getStatementMisses())
+          .append(", evictions=").append(stats.getStatementEvictions())
+          .append("]");
+
+      for (StatementStats statement : pool.getStatementStats()) {
+        description.append("\n  ").append(statement);
+      }
+    }
+
+    return description.toString();
+  }
+
+  /**
+   * Returns the health, lag, and load of each replica.
+   *
+   * @return A description of the replicas.
+   */
+  public static String describeReplicas() {
+    return PoolHolder.REPLICAS.toString();
+  }
+
+  /**
+   * Returns the state of the read and write limiters: the current limit,
+   * in-flight and queued operations, and how many were turned away.
+   *
+   * @return One line per limiter.
+   */
+  public static String describeLimits() {
+    if (Objects.isNull(PoolHolder.READ_LIMIT)) {
+      return "Limits are turned off.";
+    }
+
+    return PoolHolder.READ_LIMIT + "\n" + PoolHolder.WRITE_LIMIT;
+  }
 }	// END OF DBCONNECTION
@@ -0,0 +1,187 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+import recipes.exception.DbException;
+
+/**
+ * This class hands out the primary keys of one table from blocks reserved in
+ * the id_sequence table (the hi/lo pattern). A block is reserved with a
+ * single UPDATE, which moves the table's last_id past the block:
+ *
+ * <pre>
+ * UPDATE id_sequence SET last_id = LAST_INSERT_ID(last_id + ?)
+ * WHERE table_name = ?
+ * </pre>
+ *
+ * The new last_id comes back with the update as a generated key, so a block
+ * costs one round trip however many IDs are in it. The IDs in the block are
+ * then handed out by an atomic increment, without a lock or a trip to the
+ * database. Only the thread that finds the block used up takes the lock and
+ * reserves the next one. The lock is a {@link ReentrantLock} rather than a
+ * synchronized block, so a virtual thread waiting on the round trip doesn't
+ * pin its carrier thread.
+ *
+ * The sequence is on shard 0, so the IDs are unique across shards. It is
+ * updated on a connection from {@link DbConnection#getSequenceConnection()},
+ * outside any unit of work, so the sequence row is only locked for a moment,
+ * and the caller's own connection and write permit are never counted against
+ * it. Even so, the DAO takes the IDs it needs before it borrows a connection
+ * for the rows. An ID that is handed out but never inserted, because its unit
+ * of work rolled back or the application stopped, is simply never used.
+ *
+ * @author Promineo
+ *
+ */
+final class IdBlockAllocator {
+  private static final Block EMPTY = new Block(1, 0);
+
+  private final NamedQuery reserve;
+  private final String table;
+  private final IntSupplier blockSize;
+  private final Lock refillLock = new ReentrantLock();
+
+  private volatile Block block = EMPTY;
+
+  /**
+   * Create an allocator.
+   *
+   * @param reserve The UPDATE that reserves a block, with the block size and
+   *        the table name as its parameters, defined to return the new
+   *        last_id as a generated key.
+   * @param table The table whose IDs are handed out, which is the table_name
+   *        of its row in id_sequence.
+   * @param blockSize Returns the number of IDs to reserve at a time. A value
+   *        below one is treated as one.
+   */
+  IdBlockAllocator(NamedQuery reserve, String table, IntSupplier blockSize) {
+    this.reserve = reserve;
+    this.table = table;
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * Returns the next ID, reserving a new block first if the current one is
+   * used up.
+   *
+   * @return The ID.
+   * @throws DbException Thrown if a block can't be reserved.
+   */
+  int next() {
+    return next(1).get(0);
+  }
+
+  /**
+   * Returns the given number of IDs, reserving new blocks as the current one
+   * is used up. If more IDs are wanted than a block holds, the new block is
+   * made big enough for the rest of them, so a bulk load reserves its IDs in
+   * one round trip.
+   *
+   * @param count The number of IDs.
+   * @return The IDs, in ascending order. They are not necessarily
+   *         consecutive.
+   * @throws DbException Thrown if a block can't be reserved.
+   */
+  List<Integer> next(int count) {
+    List<Integer> ids = new ArrayList<>(count);
+
+    while (ids.size() < count) {
+      Block current = block;
+      int id = current.next.getAndIncrement();
+
+      if (id <= current.last) {
+        ids.add(id);
+      } else {
+        refill(current, count - ids.size());
+      }
+    }
+
+    return ids;
+  }
+
+  /**
+   * Forget the rest of the current block, so that the next ID comes from a
+   * new one. This is needed after the sequence has been reset, as it is when
+   * the data is reloaded.
+   */
+  void discard() {
+    refillLock.lock();
+
+    try {
+      block = EMPTY;
+    } finally {
+      refillLock.unlock();
+    }
+  }
+
+  /**
+   * Reserve a new block, of at least the given size, unless another thread
+   * already has.
+   */
+  private void refill(Block exhausted, int wanted) {
+    refillLock.lock();
+
+    try {
+      if (block == exhausted) {
+        block = reserve(Math.max(wanted, blockSize.getAsInt()));
+      }
+    } finally {
+      refillLock.unlock();
+    }
+  }
+
+  private Block reserve(int size) {
+    try (Connection conn = DbConnection.getSequenceConnection()) {
+      /*
+       * The update commits by itself. The pooled connection only calls the
+       * driver if the last borrower left auto-commit off.
+       */
+      conn.setAutoCommit(true);
+
+      try (PreparedStatement stmt = reserve.prepare(conn)) {
+        reserve.bind(stmt, size, table);
+
+        if (stmt.executeUpdate() != 1) {
+          throw new DbException("Table " + table + " has no row in the ID"
+              + " sequence. Run the schema script to create it.");
+        }
+
+        try (ResultSet rs = stmt.getGeneratedKeys()) {
+          if (!rs.next()) {
+            throw new DbException(
+                "The ID sequence of table " + table + " returned no value.");
+          }
+
+          int last = rs.getInt(1);
+          return new Block(last - size + 1, last);
+        }
+      }
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  /**
+   * A range of reserved IDs. The next counter runs past the last ID when the
+   * block is used up, which is how a thread knows to reserve another.
+   */
+  private static class Block {
+    private final AtomicInteger next;
+    private final int last;
+
+    Block(int first, int last) {
+      this.next = new AtomicInteger(first);
+      this.last = last;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records durations in buckets whose upper bounds are powers of two
+ * microseconds (1us, 2us, 4us ... about 35 minutes). Recording is lock-free, so
+ * many threads can record into the same histogram without contending with each
+ * other. Percentiles are approximate: they report the upper bound of the bucket
+ * that contains the requested rank, which is never more than twice the actual
+ * value.
+ *
+ * @author Promineo
+ *
+ */
+public class LatencyHistogram {
+  private static final int BUCKETS = 32;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram() {
+    for (int index = 0; index < BUCKETS; index++) {
+      buckets[index] = new LongAdder();
+    }
+  }
+
+  /**
+   * Record a single duration.
+   *
+   * @param nanos The duration in nanoseconds. Negative values are recorded as
+   *        zero.
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    long micros = TimeUnit.NANOSECONDS.toMicros(value);
+
+    /*
+     * The bucket index is the number of bits needed to hold the microsecond
+     * value. So, 0us goes into bucket 0, 1us into bucket 1, 2-3us into bucket
+     * 2, 4-7us into bucket 3, etc. Bucket n holds values below 2^n us.
+     */
+    int index = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+
+    buckets[index].increment();
+    count.increment();
+    totalNanos.add(value);
+    maxNanos.accumulate(value);
+  }
+
+  /**
+   * Returns the number of recorded durations.
+   *
+   * @return The count.
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the mean of all recorded durations.
+   *
+   * @return The mean in microseconds, or zero if nothing has been recorded.
+   */
+  public long getMeanMicros() {
+    long n = count.sum();
+
+    return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / n);
+  }
+
+  /**
+   * Returns the largest recorded duration.
+   *
+   * @return The maximum in microseconds.
+   */
+  public long getMaxMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+  }
+
+  /**
+   * Returns the approximate duration below which the given fraction of
+   * recorded durations fall.
+   *
+   * @param percentile The percentile as a fraction (e.g., 0.99 for p99).
+   * @return The upper bound, in microseconds, of the bucket holding the
+   *         requested rank, capped at the maximum recorded value. Zero if
+   *         nothing has been recorded.
+   */
+  public long getPercentileMicros(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long n = 0;
+
+    for (int index = 0; index < BUCKETS; index++) {
+      snapshot[index] = buckets[index].sum();
+      n += snapshot[index];
+    }
+
+    if (n == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(percentile * n);
+    long seen = 0;
+
+    for (int index = 0; index < BUCKETS; index++) {
+      seen += snapshot[index];
+
+      if (seen >= rank) {
+        return Math.min(1L << index, getMaxMicros());
+      }
+    }
+
+    return getMaxMicros();
+  }
+
+  /**
+   * Returns a one-line summary like "n=120, mean=340us, p50=256us, p99=2048us,
+   * max=1890us".
+   */
+  @Override
+  public String toString() {
+    return "n=" + getCount() + ", mean=" + getMeanMicros() + "us, p50="
+        + getPercentileMicros(0.50) + "us, p99=" + getPercentileMicros(0.99)
+        + "us, max=" + getMaxMicros() + "us";
+  }
+}
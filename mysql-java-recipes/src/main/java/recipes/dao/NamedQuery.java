@@ -0,0 +1,218 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import provided.util.StatementBinder;
+import recipes.exception.DbException;
+
+/**
+ * This class is one entry in a {@link QueryCatalog}: a SQL statement with a
+ * name, like recipe.byId or ingredient.byRecipe, and the statistics of every
+ * execution of it. A DAO prepares the statement through the query rather
+ * than from the SQL text:
+ *
+ * <pre>
+ * try (PreparedStatement stmt = RECIPE_BY_ID.prepare(conn)) {
+ *   RECIPE_BY_ID.bind(stmt, recipeId);
+ *
+ *   try (ResultSet rs = stmt.executeQuery()) {
+ *     ...
+ *   }
+ * }
+ * </pre>
+ *
+ * The statement returned by {@link #prepare(Connection)} times each
+ * execution and counts the rows read or affected (see
+ * {@link NamedQueryStatement}). The counters are lock-free, so a query can be
+ * shared by every thread.
+ *
+ * An insert defined with {@link QueryCatalog#defineInsert(String, String)} is
+ * prepared with {@link Statement#RETURN_GENERATED_KEYS}, so the new keys can
+ * be read from {@link PreparedStatement#getGeneratedKeys()} after it runs.
+ *
+ * @author Promineo
+ *
+ */
+final class NamedQuery implements NamedQueryMXBean {
+  private final String name;
+  private final String sql;
+  private final StatementBinder binder;
+  private final boolean generatedKeys;
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder rowsRead = new LongAdder();
+  private final LongAdder rowsAffected = new LongAdder();
+
+  /**
+   * Create a query. Queries are created by
+   * {@link QueryCatalog#define(String, String, Class...)}.
+   *
+   * @param name The query name.
+   * @param sql The SQL text.
+   * @param binder The binder for the parameters, or {@code null} if they are
+   *        set some other way (like a generated bindInsert method).
+   * @param generatedKeys {@code true} if the statement returns the keys it
+   *        generates.
+   */
+  NamedQuery(String name, String sql, StatementBinder binder,
+      boolean generatedKeys) {
+    this.name = name;
+    this.sql = sql;
+    this.binder = binder;
+    this.generatedKeys = generatedKeys;
+  }
+
+  /**
+   * Prepare the statement on the given connection.
+   *
+   * @param conn The connection.
+   * @return The statement, which records its executions in this query.
+   * @throws SQLException Thrown if the statement can't be prepared.
+   */
+  PreparedStatement prepare(Connection conn) throws SQLException {
+    PreparedStatement stmt = generatedKeys
+        ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+        : conn.prepareStatement(sql);
+
+    return new NamedQueryStatement(this, stmt);
+  }
+
+  /**
+   * Prepare the statement on the given connection with the given result set
+   * type and concurrency. A statement prepared this way is not taken from the
+   * connection's statement cache.
+   *
+   * @param conn The connection.
+   * @param resultSetType A ResultSet.TYPE_* constant.
+   * @param resultSetConcurrency A ResultSet.CONCUR_* constant.
+   * @return The statement, which records its executions in this query.
+   * @throws SQLException Thrown if the statement can't be prepared.
+   */
+  PreparedStatement prepare(Connection conn, int resultSetType,
+      int resultSetConcurrency) throws SQLException {
+    return new NamedQueryStatement(this,
+        conn.prepareStatement(sql, resultSetType, resultSetConcurrency));
+  }
+
+  /**
+   * Set every parameter of a statement prepared from this query.
+   *
+   * @param stmt The statement.
+   * @param values A value for each parameter, in order.
+   * @throws SQLException Thrown if a parameter can't be set.
+   * @throws DbException Thrown if the query was defined without parameter
+   *         types.
+   */
+  void bind(PreparedStatement stmt, Object... values) throws SQLException {
+    if (Objects.isNull(binder)) {
+      throw new DbException("Query " + name + " has no parameter types.");
+    }
+
+    binder.bind(stmt, values);
+  }
+
+  /**
+   * Record a query whose result set has been closed.
+   *
+   * @param nanos The time from execution until the result set was closed.
+   * @param rows The number of rows read.
+   */
+  void recordRead(long nanos, long rows) {
+    latency.record(nanos);
+    rowsRead.add(rows);
+  }
+
+  /**
+   * Record an insert, update, delete, or batch.
+   *
+   * @param nanos The execution time.
+   * @param rows The number of rows affected.
+   */
+  void recordUpdate(long nanos, long rows) {
+    latency.record(nanos);
+    rowsAffected.add(rows);
+  }
+
+  /**
+   * Record an execution that failed.
+   */
+  void recordError() {
+    errors.increment();
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getSql() {
+    return sql;
+  }
+
+  @Override
+  public long getExecutions() {
+    return latency.getCount();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  @Override
+  public long getRowsRead() {
+    return rowsRead.sum();
+  }
+
+  @Override
+  public long getRowsAffected() {
+    return rowsAffected.sum();
+  }
+
+  @Override
+  public long getMeanMicros() {
+    return latency.getMeanMicros();
+  }
+
+  @Override
+  public long getP50Micros() {
+    return latency.getPercentileMicros(0.50);
+  }
+
+  @Override
+  public long getP99Micros() {
+    return latency.getPercentileMicros(0.99);
+  }
+
+  @Override
+  public long getMaxMicros() {
+    return latency.getMaxMicros();
+  }
+
+  /**
+   * Returns the approximate total execution time in microseconds, which is
+   * how the catalog ranks the queries.
+   */
+  long getTotalMicros() {
+    return getExecutions() * getMeanMicros();
+  }
+
+  /**
+   * Returns a one-line summary like "recipe.byId [n=120, mean=340us,
+   * p50=256us, p99=2048us, max=1890us, errors=0, rows read=120, rows
+   * affected=0]".
+   */
+  @Override
+  public String toString() {
+    return name + " [" + latency + ", errors=" + getErrors() + ", rows read="
+        + getRowsRead() + ", rows affected=" + getRowsAffected() + "]";
+  }
+}
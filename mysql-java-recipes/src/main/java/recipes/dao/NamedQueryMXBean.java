@@ -0,0 +1,67 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+/**
+ * This is the management interface of a named query. Each query in a
+ * {@link QueryCatalog} is registered with the platform MBean server under
+ * {@code recipes.dao:type=NamedQuery,name=<query name>}, so that its counts
+ * can be watched with JConsole, VisualVM, or any other JMX client while the
+ * application runs. All values are totals since startup.
+ *
+ * @author Promineo
+ *
+ */
+public interface NamedQueryMXBean {
+  /**
+   * Returns the query name, like recipe.byId.
+   */
+  String getName();
+
+  /**
+   * Returns the SQL text.
+   */
+  String getSql();
+
+  /**
+   * Returns the number of times the statement was executed successfully. A
+   * batch counts as one execution.
+   */
+  long getExecutions();
+
+  /**
+   * Returns the number of executions that failed with an exception.
+   */
+  long getErrors();
+
+  /**
+   * Returns the number of rows read from the query's result sets.
+   */
+  long getRowsRead();
+
+  /**
+   * Returns the number of rows inserted, changed, or deleted, as reported by
+   * the driver.
+   */
+  long getRowsAffected();
+
+  /**
+   * Returns the mean execution time in microseconds.
+   */
+  long getMeanMicros();
+
+  /**
+   * Returns the approximate median execution time in microseconds.
+   */
+  long getP50Micros();
+
+  /**
+   * Returns the approximate 99th percentile execution time in microseconds.
+   */
+  long getP99Micros();
+
+  /**
+   * Returns the longest execution time in microseconds.
+   */
+  long getMaxMicros();
+}
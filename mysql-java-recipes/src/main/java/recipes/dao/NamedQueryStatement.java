@@ -0,0 +1,165 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Objects;
+
+/**
+ * This is the prepared statement returned by
+ * {@link NamedQuery#prepare(java.sql.Connection)}. It records each execution
+ * in its query:
+ * <ul>
+ * <li>executeUpdate and executeLargeUpdate record the execution time and the
+ * number of rows affected.</li>
+ * <li>executeBatch records the time of the whole batch and the rows affected
+ * by all of its statements, as one execution.</li>
+ * <li>executeQuery returns a result set that counts the rows as they are
+ * read. The execution is recorded when the result set is closed, so its time
+ * includes reading the rows.</li>
+ * </ul>
+ * An execution that throws is counted as an error. Everything else is passed
+ * through to the statement from the connection.
+ *
+ * @author Promineo
+ *
+ */
+class NamedQueryStatement extends DelegatingPreparedStatement {
+  private final NamedQuery query;
+
+  private CountingResultSet resultSet;
+
+  /**
+   * Wrap a statement prepared from the query's SQL.
+   *
+   * @param query The query in which to record executions.
+   * @param stmt The statement.
+   */
+  NamedQueryStatement(NamedQuery query, PreparedStatement stmt) {
+    super(stmt);
+    this.query = query;
+  }
+
+  @Override
+  public ResultSet executeQuery() throws SQLException {
+    long start = System.nanoTime();
+
+    try {
+      resultSet = new CountingResultSet(super.executeQuery(), start);
+      return resultSet;
+    } catch (SQLException e) {
+      query.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public int executeUpdate() throws SQLException {
+    long start = System.nanoTime();
+
+    try {
+      int rows = super.executeUpdate();
+
+      query.recordUpdate(System.nanoTime() - start, rows);
+      return rows;
+    } catch (SQLException e) {
+      query.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public long executeLargeUpdate() throws SQLException {
+    long start = System.nanoTime();
+
+    try {
+      long rows = super.executeLargeUpdate();
+
+      query.recordUpdate(System.nanoTime() - start, rows);
+      return rows;
+    } catch (SQLException e) {
+      query.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    long start = System.nanoTime();
+
+    try {
+      int[] counts = super.executeBatch();
+      long rows = 0;
+
+      /* SUCCESS_NO_INFO (-2) means the driver doesn't know the count. */
+      for (int count : counts) {
+        rows += Math.max(count, 0);
+      }
+
+      query.recordUpdate(System.nanoTime() - start, rows);
+      return counts;
+    } catch (SQLException e) {
+      query.recordError();
+      throw e;
+    }
+  }
+
+  /**
+   * Close the open result set, if any, so that its query is recorded, and
+   * then close the statement.
+   */
+  @Override
+  public void close() throws SQLException {
+    try {
+      if (Objects.nonNull(resultSet)) {
+        resultSet.close();
+      }
+    } finally {
+      super.close();
+    }
+  }
+
+  /**
+   * This result set counts the rows read and records the query when it is
+   * closed. Closing it more than once records the query once.
+   */
+  private class CountingResultSet extends DelegatingResultSet {
+    private final long start;
+
+    private long rows;
+    private boolean recorded;
+
+    CountingResultSet(ResultSet rs, long start) {
+      super(rs);
+      this.start = start;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+      if (super.next()) {
+        rows++;
+        return true;
+      }
+
+      return false;
+    }
+
+    @Override
+    public Statement getStatement() throws SQLException {
+      return NamedQueryStatement.this;
+    }
+
+    @Override
+    public void close() throws SQLException {
+      if (!recorded) {
+        recorded = true;
+        query.recordRead(System.nanoTime() - start, rows);
+      }
+
+      super.close();
+    }
+  }
+}
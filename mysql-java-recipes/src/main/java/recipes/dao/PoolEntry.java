@@ -0,0 +1,109 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+
+/**
+ * This class holds a physical connection owned by a {@link ConnectionPool},
+ * along with the bookkeeping the pool needs to manage it. That includes the
+ * connection's last known session state (auto-commit, isolation level,
+ * read-only flag, catalog, and schema), which {@link PooledConnection} uses to
+ * skip calls that wouldn't change anything, and the connection's
+ * {@link StatementCache}. A PoolEntry lives as
+ * long as the physical connection. Each time it is borrowed, the pool wraps it
+ * in a new {@link PooledConnection}.
+ *
+ * @author Promineo
+ *
+ */
+class PoolEntry {
+  private final Connection connection;
+  private final StatementCache statements;
+  private final long createdNanos;
+  private volatile long lastReturnedNanos;
+
+  /*
+   * The last known session state of the physical connection. A null value
+   * means the state is not known yet. These are only touched by the current
+   * borrower, and the pool lock orders one borrower after the next.
+   */
+  private Boolean autoCommit;
+  private Integer transactionIsolation;
+  private Boolean readOnly;
+  private String catalog;
+  private String schema;
+
+  /**
+   * Create an entry for a newly opened physical connection.
+   *
+   * @param connection The physical connection.
+   * @param counters The pool's statement cache counters.
+   */
+  PoolEntry(Connection connection, StatementCache.Counters counters) {
+    this.connection = connection;
+    this.statements = new StatementCache(counters);
+    this.createdNanos = System.nanoTime();
+    this.lastReturnedNanos = createdNanos;
+  }
+
+  Connection getConnection() {
+    return connection;
+  }
+
+  StatementCache getStatements() {
+    return statements;
+  }
+
+  long getCreatedNanos() {
+    return createdNanos;
+  }
+
+  long getLastReturnedNanos() {
+    return lastReturnedNanos;
+  }
+
+  void setLastReturnedNanos(long lastReturnedNanos) {
+    this.lastReturnedNanos = lastReturnedNanos;
+  }
+
+  Boolean getAutoCommit() {
+    return autoCommit;
+  }
+
+  void setAutoCommit(Boolean autoCommit) {
+    this.autoCommit = autoCommit;
+  }
+
+  Integer getTransactionIsolation() {
+    return transactionIsolation;
+  }
+
+  void setTransactionIsolation(Integer transactionIsolation) {
+    this.transactionIsolation = transactionIsolation;
+  }
+
+  Boolean getReadOnly() {
+    return readOnly;
+  }
+
+  void setReadOnly(Boolean readOnly) {
+    this.readOnly = readOnly;
+  }
+
+  String getCatalog() {
+    return catalog;
+  }
+
+  void setCatalog(String catalog) {
+    this.catalog = catalog;
+  }
+
+  String getSchema() {
+    return schema;
+  }
+
+  void setSchema(String schema) {
+    this.schema = schema;
+  }
+}
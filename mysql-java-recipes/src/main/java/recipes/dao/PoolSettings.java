@@ -0,0 +1,144 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+/**
+ * This class holds the sizing and timeout settings for a
+ * {@link ConnectionPool}. It contains getters and setters for each setting.
+ * Each setting starts with a default that is reasonable for a small
+ * application, so only the settings that need to change have to be set.
+ *
+ * @author Promineo
+ *
+ */
+public class PoolSettings {
+  private int minSize = 2;
+  private int maxSize = 10;
+  private long acquireTimeoutMillis = 5_000;
+  private long idleTimeoutMillis = 600_000;
+  private long validationIntervalMillis = 500;
+  private int validationTimeoutSeconds = 2;
+  private long leakDetectionThresholdMillis = 0;
+  private long housekeepingIntervalMillis = 30_000;
+  private int statementCacheSize = 64;
+
+  /**
+   * The number of connections the pool tries to keep open even when they are
+   * idle.
+   */
+  public int getMinSize() {
+    return minSize;
+  }
+
+  public void setMinSize(int minSize) {
+    this.minSize = minSize;
+  }
+
+  /**
+   * The maximum number of physical connections the pool will open.
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * How long a caller waits for a connection before a
+   * {@link recipes.exception.DbException} is thrown.
+   */
+  public long getAcquireTimeoutMillis() {
+    return acquireTimeoutMillis;
+  }
+
+  public void setAcquireTimeoutMillis(long acquireTimeoutMillis) {
+    this.acquireTimeoutMillis = acquireTimeoutMillis;
+  }
+
+  /**
+   * How long a connection may sit idle before it is closed. Connections are
+   * only closed while the pool holds more than {@link #getMinSize()}.
+   */
+  public long getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+  }
+
+  /**
+   * A connection that was used more recently than this is handed out without
+   * being validated. This avoids a validation round trip when connections are
+   * being borrowed and returned rapidly.
+   */
+  public long getValidationIntervalMillis() {
+    return validationIntervalMillis;
+  }
+
+  public void setValidationIntervalMillis(long validationIntervalMillis) {
+    this.validationIntervalMillis = validationIntervalMillis;
+  }
+
+  /**
+   * The timeout passed to {@link java.sql.Connection#isValid(int)}.
+   */
+  public int getValidationTimeoutSeconds() {
+    return validationTimeoutSeconds;
+  }
+
+  public void setValidationTimeoutSeconds(int validationTimeoutSeconds) {
+    this.validationTimeoutSeconds = validationTimeoutSeconds;
+  }
+
+  /**
+   * If a connection is held longer than this, a warning with the stack trace
+   * of the borrower is logged. Zero turns leak detection off.
+   */
+  public long getLeakDetectionThresholdMillis() {
+    return leakDetectionThresholdMillis;
+  }
+
+  public void setLeakDetectionThresholdMillis(
+      long leakDetectionThresholdMillis) {
+    this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+  }
+
+  /**
+   * How often the background task evicts idle connections, tops the pool up
+   * to its minimum size, and checks for leaks.
+   */
+  public long getHousekeepingIntervalMillis() {
+    return housekeepingIntervalMillis;
+  }
+
+  public void setHousekeepingIntervalMillis(long housekeepingIntervalMillis) {
+    this.housekeepingIntervalMillis = housekeepingIntervalMillis;
+  }
+
+  /**
+   * The most prepared statements each connection keeps open for reuse. Zero
+   * turns the statement cache off.
+   */
+  public int getStatementCacheSize() {
+    return statementCacheSize;
+  }
+
+  public void setStatementCacheSize(int statementCacheSize) {
+    this.statementCacheSize = statementCacheSize;
+  }
+
+  @Override
+  public String toString() {
+    return "minSize=" + minSize + ", maxSize=" + maxSize
+        + ", acquireTimeoutMillis=" + acquireTimeoutMillis
+        + ", idleTimeoutMillis=" + idleTimeoutMillis
+        + ", validationIntervalMillis=" + validationIntervalMillis
+        + ", validationTimeoutSeconds=" + validationTimeoutSeconds
+        + ", leakDetectionThresholdMillis=" + leakDetectionThresholdMillis
+        + ", housekeepingIntervalMillis=" + housekeepingIntervalMillis
+        + ", statementCacheSize=" + statementCacheSize;
+  }
+}
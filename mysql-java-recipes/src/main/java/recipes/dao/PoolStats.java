@@ -0,0 +1,182 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+/**
+ * This class holds a point-in-time snapshot of the state of a
+ * {@link ConnectionPool}. The values are copied when the snapshot is taken, so
+ * they do not change afterward. It contains getters for each value and a
+ * {@link #toString()} method that prints them all on one line.
+ *
+ * @author Promineo
+ *
+ */
+public class PoolStats {
+  private final String poolName;
+  private final int total;
+  private final int active;
+  private final int idle;
+  private final int waiters;
+  private final long maxWaiters;
+  private final long created;
+  private final long destroyed;
+  private final long timeouts;
+  private final long validationFailures;
+  private final long leaks;
+  private final long roundTripsSaved;
+  private final long statementHits;
+  private final long statementMisses;
+  private final long statementEvictions;
+  private final String acquireTimes;
+  private final String waitTimes;
+
+  PoolStats(String poolName, int total, int active, int idle, int waiters,
+      long maxWaiters, long created, long destroyed, long timeouts,
+      long validationFailures, long leaks, long roundTripsSaved,
+      long statementHits, long statementMisses, long statementEvictions,
+      LatencyHistogram acquireTimes, LatencyHistogram waitTimes) {
+    this.poolName = poolName;
+    this.total = total;
+    this.active = active;
+    this.idle = idle;
+    this.waiters = waiters;
+    this.maxWaiters = maxWaiters;
+    this.created = created;
+    this.destroyed = destroyed;
+    this.timeouts = timeouts;
+    this.validationFailures = validationFailures;
+    this.leaks = leaks;
+    this.roundTripsSaved = roundTripsSaved;
+    this.statementHits = statementHits;
+    this.statementMisses = statementMisses;
+    this.statementEvictions = statementEvictions;
+    this.acquireTimes = acquireTimes.toString();
+    this.waitTimes = waitTimes.toString();
+  }
+
+  public String getPoolName() {
+    return poolName;
+  }
+
+  /**
+   * The number of physical connections, including those being opened.
+   */
+  public int getTotal() {
+    return total;
+  }
+
+  /**
+   * The number of connections currently borrowed.
+   */
+  public int getActive() {
+    return active;
+  }
+
+  /**
+   * The number of open connections waiting in the pool.
+   */
+  public int getIdle() {
+    return idle;
+  }
+
+  /**
+   * The number of callers in the wait queue.
+   */
+  public int getWaiters() {
+    return waiters;
+  }
+
+  /**
+   * The longest the wait queue has been since the pool was created.
+   */
+  public long getMaxWaiters() {
+    return maxWaiters;
+  }
+
+  public long getCreated() {
+    return created;
+  }
+
+  public long getDestroyed() {
+    return destroyed;
+  }
+
+  /**
+   * The number of borrow attempts that gave up waiting.
+   */
+  public long getTimeouts() {
+    return timeouts;
+  }
+
+  /**
+   * The number of idle connections that failed validation on borrow.
+   */
+  public long getValidationFailures() {
+    return validationFailures;
+  }
+
+  /**
+   * The number of connections reported as possibly leaked.
+   */
+  public long getLeaks() {
+    return leaks;
+  }
+
+  /**
+   * The number of session state calls (setAutoCommit, etc.) that were skipped
+   * because the connection was already in the requested state.
+   */
+  public long getRoundTripsSaved() {
+    return roundTripsSaved;
+  }
+
+  /**
+   * The number of prepares answered from the connections' statement caches.
+   * See {@link ConnectionPool#getStatementStats()} for the counts of each
+   * statement.
+   */
+  public long getStatementHits() {
+    return statementHits;
+  }
+
+  /**
+   * The number of prepares that went to the driver.
+   */
+  public long getStatementMisses() {
+    return statementMisses;
+  }
+
+  /**
+   * The number of cached statements closed to make room for others.
+   */
+  public long getStatementEvictions() {
+    return statementEvictions;
+  }
+
+  /**
+   * A summary of the acquire-time histogram.
+   */
+  public String getAcquireTimes() {
+    return acquireTimes;
+  }
+
+  /**
+   * A summary of the wait-time histogram (callers that had to queue).
+   */
+  public String getWaitTimes() {
+    return waitTimes;
+  }
+
+  @Override
+  public String toString() {
+    return "Pool " + poolName + " [total=" + total + ", active=" + active
+        + ", idle=" + idle + ", waiters=" + waiters + ", maxWaiters="
+        + maxWaiters + ", created=" + created + ", destroyed=" + destroyed
+        + ", timeouts=" + timeouts + ", validationFailures="
+        + validationFailures + ", leaks=" + leaks + ", roundTripsSaved="
+        + roundTripsSaved + ", statementHits=" + statementHits
+        + ", statementMisses=" + statementMisses + ", statementEvictions="
+        + statementEvictions + ", acquire: " + acquireTimes + ", wait: "
+        + waitTimes + "]";
+  }
+}
@@ -0,0 +1,339 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the connection handed to callers by {@link ConnectionPool}. It
+ * passes all calls through to the physical connection except
+ * {@link #close()}, which returns the physical connection to the pool instead
+ * of closing it. A new PooledConnection is created for each borrow, so once a
+ * caller has closed it any further use fails instead of interfering with the
+ * next borrower.
+ *
+ * The session state setters ({@link #setAutoCommit(boolean)},
+ * {@link #setTransactionIsolation(int)}, {@link #setReadOnly(boolean)},
+ * {@link #setCatalog(String)}, and {@link #setSchema(String)}) are only
+ * passed to the driver when the requested value differs from the physical
+ * connection's last known state, and the matching getters answer from that
+ * state once it is known. The driver may turn each of these calls into a
+ * server round trip, and on a pooled connection the state is usually already
+ * right. Each call that is skipped is counted in the pool statistics. Session
+ * state changed by running SQL directly (SET autocommit, USE, etc.) is not
+ * seen, so use the JDBC methods instead.
+ *
+ * {@link #prepareStatement(String)} reuses the physical connection's open
+ * statements through its {@link StatementCache}. The statement it returns
+ * goes back into the cache when it is closed. So does
+ * {@link #prepareStatement(String, int)} for a statement that returns
+ * generated keys. The other prepareStatement methods, which ask for special
+ * result set types or key columns, are passed through to the driver.
+ *
+ * @author Promineo
+ *
+ */
+class PooledConnection extends DelegatingConnection {
+  /* Appended to the cache key of a statement that returns generated keys. */
+  static final String GENERATED_KEYS = " /* RETURN_GENERATED_KEYS */";
+
+  private final ConnectionPool pool;
+  private final PoolEntry entry;
+  private final long borrowedNanos;
+  private final Throwable borrowTrace;
+
+  private volatile boolean closed;
+  private volatile boolean leakReported;
+
+  /*
+   * Set when a statement is created while auto-commit is off, and cleared on
+   * commit or rollback. If it is still set when the connection is returned,
+   * the pool rolls back so that the next borrower doesn't inherit a half
+   * finished transaction.
+   */
+  private boolean transactionDirty;
+
+  /**
+   * Wrap a pool entry for a single borrow.
+   *
+   * @param pool The pool that owns the entry.
+   * @param entry The entry holding the physical connection.
+   * @param captureTrace If {@code true}, the stack of the borrowing thread is
+   *        captured so that it can be reported if the connection leaks.
+   */
+  PooledConnection(ConnectionPool pool, PoolEntry entry,
+      boolean captureTrace) {
+    super(entry.getConnection());
+    this.pool = pool;
+    this.entry = entry;
+    this.borrowedNanos = System.nanoTime();
+    this.borrowTrace =
+        captureTrace ? new Throwable("Connection borrowed here") : null;
+  }
+
+  @Override
+  protected Connection getDelegate() throws SQLException {
+    checkOpen();
+    return super.getDelegate();
+  }
+
+  /**
+   * Fail if this handle has been closed. The session state methods call this
+   * directly because they may answer without touching the delegate.
+   */
+  private void checkOpen() throws SQLException {
+    if (closed) {
+      throw new SQLException("The connection has been returned to the pool.");
+    }
+  }
+
+  @Override
+  protected void beforeStatement() throws SQLException {
+    if (!getAutoCommit()) {
+      transactionDirty = true;
+    }
+  }
+
+  /**
+   * Returns a statement for the given SQL, taken from the statement cache if
+   * one is there, or prepared by the driver otherwise. Close it as usual to
+   * put it back.
+   */
+  @Override
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    if (getStatementCacheSize() <= 0) {
+      return super.prepareStatement(sql);
+    }
+
+    return prepareCached(sql, false);
+  }
+
+  /**
+   * Returns a cached statement, as {@link #prepareStatement(String)} does, if
+   * generated keys are asked for. A statement that returns generated keys is
+   * a different statement to the driver, so it is cached separately, under
+   * the SQL followed by {@value #GENERATED_KEYS}.
+   */
+  @Override
+  public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
+      throws SQLException {
+    if (getStatementCacheSize() <= 0
+        || autoGeneratedKeys != Statement.RETURN_GENERATED_KEYS) {
+      return super.prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    return prepareCached(sql, true);
+  }
+
+  private PreparedStatement prepareCached(String sql, boolean generatedKeys)
+      throws SQLException {
+    checkOpen();
+    beforeStatement();
+
+    String key = generatedKeys ? sql + GENERATED_KEYS : sql;
+    PreparedStatement stmt = entry.getStatements().take(key);
+
+    if (Objects.isNull(stmt)) {
+      stmt = generatedKeys
+          ? super.getDelegate().prepareStatement(sql,
+              Statement.RETURN_GENERATED_KEYS)
+          : super.getDelegate().prepareStatement(sql);
+    }
+
+    return new CachedPreparedStatement(this, key, stmt);
+  }
+
+  /**
+   * Returns the most statements the cache of each connection may hold.
+   */
+  int getStatementCacheSize() {
+    return pool.getStatementCacheSize();
+  }
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) throws SQLException {
+    checkOpen();
+
+    if (Objects.equals(entry.getAutoCommit(), autoCommit)) {
+      pool.roundTripSaved();
+      return;
+    }
+
+    super.setAutoCommit(autoCommit);
+    entry.setAutoCommit(autoCommit);
+  }
+
+  @Override
+  public boolean getAutoCommit() throws SQLException {
+    checkOpen();
+
+    if (Objects.isNull(entry.getAutoCommit())) {
+      entry.setAutoCommit(super.getAutoCommit());
+    }
+
+    return entry.getAutoCommit();
+  }
+
+  @Override
+  public void setTransactionIsolation(int level) throws SQLException {
+    checkOpen();
+
+    if (Objects.equals(entry.getTransactionIsolation(), level)) {
+      pool.roundTripSaved();
+      return;
+    }
+
+    super.setTransactionIsolation(level);
+    entry.setTransactionIsolation(level);
+  }
+
+  @Override
+  public int getTransactionIsolation() throws SQLException {
+    checkOpen();
+
+    if (Objects.isNull(entry.getTransactionIsolation())) {
+      entry.setTransactionIsolation(super.getTransactionIsolation());
+    } else {
+      pool.roundTripSaved();
+    }
+
+    return entry.getTransactionIsolation();
+  }
+
+  @Override
+  public void setReadOnly(boolean readOnly) throws SQLException {
+    checkOpen();
+
+    if (Objects.equals(entry.getReadOnly(), readOnly)) {
+      pool.roundTripSaved();
+      return;
+    }
+
+    super.setReadOnly(readOnly);
+    entry.setReadOnly(readOnly);
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException {
+    checkOpen();
+
+    if (Objects.isNull(entry.getReadOnly())) {
+      entry.setReadOnly(super.isReadOnly());
+    } else {
+      pool.roundTripSaved();
+    }
+
+    return entry.getReadOnly();
+  }
+
+  @Override
+  public void setCatalog(String catalog) throws SQLException {
+    checkOpen();
+
+    if (Objects.nonNull(catalog) && catalog.equals(entry.getCatalog())) {
+      pool.roundTripSaved();
+      return;
+    }
+
+    super.setCatalog(catalog);
+    entry.setCatalog(catalog);
+  }
+
+  @Override
+  public String getCatalog() throws SQLException {
+    checkOpen();
+
+    if (Objects.isNull(entry.getCatalog())) {
+      entry.setCatalog(super.getCatalog());
+    }
+
+    return entry.getCatalog();
+  }
+
+  @Override
+  public void setSchema(String schema) throws SQLException {
+    checkOpen();
+
+    if (Objects.nonNull(schema) && schema.equals(entry.getSchema())) {
+      pool.roundTripSaved();
+      return;
+    }
+
+    super.setSchema(schema);
+    entry.setSchema(schema);
+  }
+
+  @Override
+  public String getSchema() throws SQLException {
+    checkOpen();
+
+    if (Objects.isNull(entry.getSchema())) {
+      entry.setSchema(super.getSchema());
+    }
+
+    return entry.getSchema();
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    super.commit();
+    transactionDirty = false;
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    super.rollback();
+    transactionDirty = false;
+  }
+
+  /**
+   * Return the physical connection to the pool. Calling this more than once
+   * has no effect.
+   */
+  @Override
+  public void close() throws SQLException {
+    if (!closed) {
+      closed = true;
+      pool.release(this);
+    }
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return closed || entry.getConnection().isClosed();
+  }
+
+  PoolEntry getEntry() {
+    return entry;
+  }
+
+  boolean isTransactionDirty() {
+    return transactionDirty;
+  }
+
+  /**
+   * Returns how long the caller has held this connection.
+   *
+   * @return The time since the connection was borrowed, in milliseconds.
+   */
+  long getHeldMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - borrowedNanos);
+  }
+
+  Throwable getBorrowTrace() {
+    return borrowTrace;
+  }
+
+  boolean isLeakReported() {
+    return leakReported;
+  }
+
+  void setLeakReported(boolean leakReported) {
+    this.leakReported = leakReported;
+  }
+}
@@ -0,0 +1,232 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import provided.util.StatementBinder;
+import recipes.exception.DbException;
+
+/**
+ * This class holds the named queries of a DAO. The DAO defines every
+ * statement it runs here, once, when the class is loaded, and then prepares
+ * them through their {@link NamedQuery} instead of from SQL text. That gives
+ * each statement a name that shows up in the statistics, so a slow or busy
+ * statement can be found without turning on the MySQL general log.
+ *
+ * The statistics of each query can be seen in two ways:
+ * <ul>
+ * <li>Through JMX: each query is registered with the platform MBean server as
+ * {@code recipes.dao:type=NamedQuery,name=<query name>} (see
+ * {@link NamedQueryMXBean}).</li>
+ * <li>Through {@link #toString()}, which lists every query that has run,
+ * most total time first.</li>
+ * </ul>
+ *
+ * The queries can be checked against the live schema with
+ * {@link #validate(Connection)}, which asks the server to EXPLAIN each one.
+ *
+ * @author Promineo
+ *
+ */
+final class QueryCatalog {
+  private static final Logger LOG =
+      Logger.getLogger(QueryCatalog.class.getName());
+
+  private static final String MBEAN_NAME =
+      "recipes.dao:type=NamedQuery,name=";
+
+  /* Only written while the owning class is being initialized. */
+  private final Map<String, NamedQuery> queries = new LinkedHashMap<>();
+
+  /**
+   * Define a query whose parameters are set with
+   * {@link NamedQuery#bind(PreparedStatement, Object...)}.
+   *
+   * @param name The query name, like recipe.byId. It must be unique in the
+   *        catalog.
+   * @param sql The SQL, with a question mark for each parameter.
+   * @param types The Java type of each parameter, in order.
+   * @return The query.
+   * @throws DbException Thrown if the name is already used.
+   */
+  synchronized NamedQuery define(String name, String sql,
+      Class<?>... types) {
+    return add(new NamedQuery(name, sql, StatementBinder.forSql(sql, types),
+        false));
+  }
+
+  /**
+   * Define a query whose parameters are set some other way, like by a
+   * generated *Mapping.bindInsert method.
+   *
+   * @param name The query name. It must be unique in the catalog.
+   * @param sql The SQL.
+   * @return The query.
+   * @throws DbException Thrown if the name is already used.
+   */
+  synchronized NamedQuery defineUnbound(String name, String sql) {
+    return add(new NamedQuery(name, sql, null, false));
+  }
+
+  /**
+   * Define an insert whose parameters are set some other way, as with
+   * {@link #defineUnbound(String, String)}, and which returns the keys it
+   * generates. Reading them from the statement saves the SELECT
+   * LAST_INSERT_ID() round trip after each insert, and works for a batch.
+   *
+   * @param name The query name. It must be unique in the catalog.
+   * @param sql The INSERT statement.
+   * @return The query.
+   * @throws DbException Thrown if the name is already used.
+   */
+  synchronized NamedQuery defineInsert(String name, String sql) {
+    return add(new NamedQuery(name, sql, null, true));
+  }
+
+  /**
+   * Define a query like {@link #define(String, String, Class...)} that also
+   * returns the keys it generates. This works for an UPDATE that sets
+   * LAST_INSERT_ID(expr) as well: the server sends the value back with the
+   * row count, so it can be read without a SELECT LAST_INSERT_ID().
+   *
+   * @param name The query name. It must be unique in the catalog.
+   * @param sql The SQL, with a question mark for each parameter.
+   * @param types The Java type of each parameter, in order.
+   * @return The query.
+   * @throws DbException Thrown if the name is already used.
+   */
+  synchronized NamedQuery defineWithKeys(String name, String sql,
+      Class<?>... types) {
+    return add(new NamedQuery(name, sql, StatementBinder.forSql(sql, types),
+        true));
+  }
+
+  private NamedQuery add(NamedQuery query) {
+    if (queries.containsKey(query.getName())) {
+      throw new DbException("Duplicate query name: " + query.getName());
+    }
+
+    queries.put(query.getName(), query);
+    register(query);
+
+    return query;
+  }
+
+  /**
+   * Register the query with the platform MBean server. A failure is logged
+   * rather than thrown, since the query works without it.
+   */
+  private static void register(NamedQuery query) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(query,
+          new ObjectName(MBEAN_NAME + query.getName()));
+    } catch (JMException e) {
+      LOG.log(Level.WARNING,
+          "Unable to register query " + query.getName() + " with JMX.", e);
+    }
+  }
+
+  /**
+   * Returns every query, in the order they were defined.
+   */
+  synchronized List<NamedQuery> getQueries() {
+    return Collections.unmodifiableList(new LinkedList<>(queries.values()));
+  }
+
+  /**
+   * Prepare every query on the connection and close it again, so that the
+   * statements are in the connection's statement cache before they are
+   * needed. Each query is prepared the way it runs, so an insert that returns
+   * generated keys is cached as one.
+   *
+   * @param conn The connection.
+   * @throws SQLException Thrown if a query can't be prepared.
+   */
+  void prepareAll(Connection conn) throws SQLException {
+    for (NamedQuery query : getQueries()) {
+      try (PreparedStatement stmt = query.prepare(conn)) {
+        /* Preparing is the point. */
+      }
+    }
+  }
+
+  /**
+   * Check every query against the schema the connection is attached to. Each
+   * query is prepared as "EXPLAIN query" and executed with every parameter
+   * set to NULL, so that the server parses it and checks the tables and
+   * columns without running it. Nothing is changed. The EXPLAIN statements
+   * are only run once, so they are prepared around the connection's statement
+   * cache rather than pushing out the statements the DAO uses.
+   *
+   * @param conn The connection.
+   * @return A message for each query the server rejected. The list is empty
+   *         if all is well.
+   */
+  List<String> validate(Connection conn) {
+    List<String> problems = new LinkedList<>();
+
+    for (NamedQuery query : getQueries()) {
+      String sql = "EXPLAIN " + query.getSql();
+
+      try (PreparedStatement stmt = conn.prepareStatement(sql,
+          ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+        int count = StatementBinder.countParameters(query.getSql());
+
+        for (int index = 1; index <= count; index++) {
+          stmt.setNull(index, Types.NULL);
+        }
+
+        try (ResultSet rs = stmt.executeQuery()) {
+          /* The plan itself isn't needed. */
+        }
+      } catch (SQLException e) {
+        problems.add(query.getName() + ": " + e.getMessage());
+      }
+    }
+
+    return problems;
+  }
+
+  /**
+   * Returns one line per query that has run, most total time first, so that
+   * the statements worth tuning are at the top.
+   */
+  @Override
+  public String toString() {
+    List<NamedQuery> ran = new LinkedList<>();
+
+    for (NamedQuery query : getQueries()) {
+      if (query.getExecutions() > 0 || query.getErrors() > 0) {
+        ran.add(query);
+      }
+    }
+
+    if (ran.isEmpty()) {
+      return "No queries have run.";
+    }
+
+    ran.sort((a, b) -> Long.compare(b.getTotalMicros(), a.getTotalMicros()));
+
+    StringBuilder b = new StringBuilder("Query statistics:");
+
+    for (NamedQuery query : ran) {
+      b.append("\n   ").append(query);
+    }
+
+    return b.toString();
+  }
+}
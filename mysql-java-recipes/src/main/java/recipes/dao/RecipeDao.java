@@ -2,44 +2,76 @@
 
 package recipes.dao;
 
-import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.time.LocalTime;
+import java.text.Collator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
 import provided.util.DaoBase;
 import recipes.entity.Category;
+import recipes.entity.CategoryMapping;
+import recipes.entity.CategoryRecordMapping;
 import recipes.entity.Ingredient;
+import recipes.entity.IngredientMapping;
+import recipes.entity.IngredientRecordMapping;
 import recipes.entity.Recipe;
+import recipes.entity.RecipeMapping;
+import recipes.entity.RecipeRecord;
+import recipes.entity.RecipeRecordMapping;
+import recipes.entity.RecipeSummary;
+import recipes.entity.RecipeSummaryMapping;
 import recipes.entity.Step;
+import recipes.entity.StepMapping;
+import recipes.entity.StepRecordMapping;
 import recipes.entity.Unit;
+import recipes.entity.UnitMapping;
 import recipes.exception.DbException;
 
 /**
  * This class performs CRUD (Create, Read, Update and Delete) operations on
  * tables in the recipe schema. Connections are obtained from
- * {@link DbConnection#getConnection()}. All operations within a transaction
+ * {@link DbConnection#getConnection()}, or from
+ * {@link DbConnection#getReadConnection()} for methods that only read, so
+ * that reads can be served by a replica. If the recipes are sharded, each
+ * operation on a recipe goes to the shard that holds it (see {@link ShardMap}):
+ * a recipe's ingredients, steps, and categories are always on the same shard
+ * as the recipe. The reference tables (unit and category) are copied to every
+ * shard. All operations within a transaction
  * must be made on the same connection. The strategy is to use try-with-resource
  * to ensure that resources are always closed properly. The approach looks like
  * this:
  * 
  * <pre>
- * String sql = "...";
- * 
  * try(Connection conn = DbConnection.getConnection()) {
- *   try(PreparedStatement stmt = conn.prepareStatement(sql)) {
- *     setParameter(stmt, 1, parm1, Parm1.class);
- *     ...
+ *   try(PreparedStatement stmt = QUERY.prepare(conn)) {
+ *     // QUERY = QUERIES.define("name", sql, Parm1.class, ...), built once
+ *     QUERY.bind(stmt, parm1, ...);
  *     
  *     try(ResultSet rs = stmt.executeQuery()) {
+ *       <em>Object</em>Mapping.Reader reader = <em>Object</em>Mapping.reader(rs);
+ *
  *       while(rs.next) {
- *         <em>Object<em> value = extract(rs, <em>Object</em>.class);
+ *         <em>Object<em> value = reader.read(rs);
  *         // Where <em>Object</em> is the actual entity type: Recipe, etc.
  *       }
  *     }
@@ -60,12 +92,330 @@ import recipes.exception.DbException;
  *
  */
 public class RecipeDao extends DaoBase {
-  private static final String CATEGORY_TABLE = "category";
-  private static final String INGREDIENT_TABLE = "ingredient";
-  private static final String RECIPE_TABLE = "recipe";
+  /*
+   * The *Mapping classes are generated at build time from the annotations on
+   * the entities. Their table and column names have been checked against
+   * recipe_schema.sql.
+   */
+  private static final String CATEGORY_TABLE = CategoryMapping.TABLE;
+  private static final String INGREDIENT_TABLE = IngredientMapping.TABLE;
+  private static final String RECIPE_TABLE = RecipeMapping.TABLE;
   private static final String RECIPE_CATEGORY_TABLE = "recipe_category";
-  private static final String STEP_TABLE = "step";
-  private static final String UNIT_TABLE = "unit";
+  private static final String ID_SEQUENCE_TABLE = "id_sequence";
+  private static final String STEP_TABLE = StepMapping.TABLE;
+  private static final String UNIT_TABLE = UnitMapping.TABLE;
+
+  /*
+   * The SQL statements are built once, here, rather than in each method. This
+   * lets warmUp() prepare every statement this class uses before the first
+   * request arrives.
+   */
+  // @formatter:off
+  private static final String FETCH_RECIPE_INGREDIENTS_SQL = ""
+      + "SELECT " + IngredientMapping.COLUMNS + ", "
+      + "u.unit_name_singular, u.unit_name_plural "
+      + "FROM " + INGREDIENT_TABLE + " i "
+      + "LEFT JOIN " + UNIT_TABLE + " u USING (unit_id) "
+      + "WHERE i.recipe_id = ? "
+      + "ORDER BY i.ingredient_order";
+
+  private static final String FETCH_RECIPE_STEPS_SQL = ""
+      + "SELECT " + StepMapping.COLUMNS + " FROM " + STEP_TABLE + " "
+      + "WHERE recipe_id = ? "
+      + "ORDER BY step_order";
+
+  private static final String FETCH_RECIPE_CATEGORIES_SQL = ""
+      + "SELECT c.category_id, c.category_name "
+      + "FROM " + RECIPE_CATEGORY_TABLE + " rc "
+      + "JOIN " + CATEGORY_TABLE + " c USING (category_id) "
+      + "WHERE rc.recipe_id = ?";
+
+  private static final String FETCH_ALL_RECIPES_SQL = ""
+      + "SELECT " + RecipeMapping.COLUMNS + " FROM " + RECIPE_TABLE + " "
+      + "ORDER BY recipe_name";
+
+  private static final String FETCH_RECIPE_SUMMARIES_SQL = ""
+      + "SELECT " + RecipeSummaryMapping.COLUMNS + " FROM " + RECIPE_TABLE + " "
+      + "ORDER BY recipe_name";
+
+  private static final String INSERT_RECIPE_SQL = RecipeMapping.INSERT_SQL;
+
+  private static final String INSERT_RECIPE_WITH_ID_SQL =
+      RecipeMapping.INSERT_WITH_ID_SQL;
+
+  private static final String RESERVE_IDS_SQL = ""
+      + "UPDATE " + ID_SEQUENCE_TABLE + " "
+      + "SET last_id = LAST_INSERT_ID(last_id + ?) "
+      + "WHERE table_name = ?";
+
+  private static final String SET_ID_SEQUENCE_SQL = ""
+      + "UPDATE " + ID_SEQUENCE_TABLE + " SET last_id = ? "
+      + "WHERE table_name = ?";
+
+  private static final String SET_ORDER_COUNTERS_SQL = ""
+      + "UPDATE " + RECIPE_TABLE + " "
+      + "SET last_ingredient_order = ?, last_step_order = ? "
+      + "WHERE recipe_id = ?";
+
+  private static final String FETCH_RECIPE_IDS_SQL =
+      "SELECT recipe_id FROM " + RECIPE_TABLE;
+
+  private static final String FETCH_RECIPE_BY_ID_SQL = ""
+      + "SELECT " + RecipeMapping.COLUMNS + " FROM " + RECIPE_TABLE + " "
+      + "WHERE recipe_id = ?";
+
+  private static final String FETCH_ALL_UNITS_SQL = ""
+      + "SELECT " + UnitMapping.COLUMNS + " FROM " + UNIT_TABLE + " "
+      + "ORDER BY unit_name_singular";
+
+  private static final String INSERT_INGREDIENT_SQL =
+      IngredientMapping.INSERT_SQL;
+
+  private static final String INSERT_INGREDIENT_WITH_ID_SQL =
+      IngredientMapping.INSERT_WITH_ID_SQL;
+
+  private static final String INSERT_STEP_SQL = StepMapping.INSERT_SQL;
+
+  private static final String INSERT_STEP_WITH_ID_SQL =
+      StepMapping.INSERT_WITH_ID_SQL;
+
+  private static final String FETCH_ALL_CATEGORIES_SQL = ""
+      + "SELECT " + CategoryMapping.COLUMNS + " FROM " + CATEGORY_TABLE + " "
+      + "ORDER BY category_name";
+
+  private static final String INSERT_RECIPE_CATEGORY_SQL = ""
+      + "INSERT INTO " + RECIPE_CATEGORY_TABLE + " "
+      + "(recipe_id, category_id) "
+      + "VALUES (?, (SELECT category_id FROM " + CATEGORY_TABLE
+      + " WHERE category_name = ?))";
+
+  private static final String MODIFY_STEP_SQL = ""
+      + "UPDATE " + STEP_TABLE + " SET step_text = ? "
+      + "WHERE step_id = ? AND recipe_id = ?";
+
+  private static final String DELETE_RECIPE_SQL =
+      "DELETE FROM " + RECIPE_TABLE + " WHERE recipe_id = ?";
+  // @formatter:on
+
+  /*
+   * Every statement this class runs is defined here, once, as a named query.
+   * The catalog binds the parameters with a typed setter for each one, keeps
+   * the latency and row counts of each query, and prepares each one for
+   * warmUp() the way it runs. The inserts return their generated keys.
+   */
+  private static final QueryCatalog QUERIES = new QueryCatalog();
+
+  private static final NamedQuery RECIPE_BY_ID =
+      QUERIES.define("recipe.byId", FETCH_RECIPE_BY_ID_SQL, Integer.class);
+  private static final NamedQuery RECIPE_ALL =
+      QUERIES.define("recipe.all", FETCH_ALL_RECIPES_SQL);
+  private static final NamedQuery RECIPE_SUMMARIES =
+      QUERIES.define("recipe.summaries", FETCH_RECIPE_SUMMARIES_SQL);
+  private static final NamedQuery RECIPE_IDS =
+      QUERIES.define("recipe.ids", FETCH_RECIPE_IDS_SQL);
+  private static final NamedQuery RECIPE_INSERT =
+      QUERIES.defineInsert("recipe.insert", INSERT_RECIPE_SQL);
+  private static final NamedQuery RECIPE_INSERT_WITH_ID =
+      QUERIES.defineUnbound("recipe.insertWithId", INSERT_RECIPE_WITH_ID_SQL);
+  private static final NamedQuery RECIPE_DELETE =
+      QUERIES.define("recipe.delete", DELETE_RECIPE_SQL, Integer.class);
+  private static final NamedQuery RECIPE_SET_ORDER_COUNTERS =
+      QUERIES.define("recipe.setOrderCounters", SET_ORDER_COUNTERS_SQL,
+          Integer.class, Integer.class, Integer.class);
+  private static final NamedQuery ID_RESERVE = QUERIES.defineWithKeys(
+      "idSequence.reserve", RESERVE_IDS_SQL, Integer.class, String.class);
+  private static final NamedQuery ID_SET_SEQUENCE = QUERIES.define(
+      "idSequence.set", SET_ID_SEQUENCE_SQL, Integer.class, String.class);
+  private static final NamedQuery INGREDIENT_BY_RECIPE = QUERIES.define(
+      "ingredient.byRecipe", FETCH_RECIPE_INGREDIENTS_SQL, Integer.class);
+  private static final NamedQuery INGREDIENT_INSERT =
+      QUERIES.defineInsert("ingredient.insert", INSERT_INGREDIENT_SQL);
+  private static final NamedQuery INGREDIENT_INSERT_WITH_ID =
+      QUERIES.defineUnbound("ingredient.insertWithId",
+          INSERT_INGREDIENT_WITH_ID_SQL);
+  private static final NamedQuery STEP_BY_RECIPE =
+      QUERIES.define("step.byRecipe", FETCH_RECIPE_STEPS_SQL, Integer.class);
+  private static final NamedQuery STEP_INSERT =
+      QUERIES.defineInsert("step.insert", INSERT_STEP_SQL);
+  private static final NamedQuery STEP_INSERT_WITH_ID =
+      QUERIES.defineUnbound("step.insertWithId", INSERT_STEP_WITH_ID_SQL);
+  private static final NamedQuery STEP_MODIFY = QUERIES.define("step.modify",
+      MODIFY_STEP_SQL, String.class, Integer.class, Integer.class);
+  private static final NamedQuery CATEGORY_BY_RECIPE = QUERIES.define(
+      "category.byRecipe", FETCH_RECIPE_CATEGORIES_SQL, Integer.class);
+  private static final NamedQuery CATEGORY_ALL =
+      QUERIES.define("category.all", FETCH_ALL_CATEGORIES_SQL);
+  private static final NamedQuery RECIPE_CATEGORY_INSERT =
+      QUERIES.define("recipeCategory.insert", INSERT_RECIPE_CATEGORY_SQL,
+          Integer.class, String.class);
+  private static final NamedQuery UNIT_ALL =
+      QUERIES.define("unit.all", FETCH_ALL_UNITS_SQL);
+
+  /*
+   * Ingredients and steps are ordered by sparse integers, so that one can be
+   * inserted or moved by writing its own row. See ChildOrdering.
+   */
+  private static final ChildOrdering INGREDIENT_ORDERING =
+      new ChildOrdering(QUERIES, INGREDIENT_TABLE, "ingredient_id",
+          "ingredient_order", "last_ingredient_order");
+  private static final ChildOrdering STEP_ORDERING = new ChildOrdering(QUERIES,
+      STEP_TABLE, "step_id", "step_order", "last_step_order");
+
+  private static final Logger LOG =
+      Logger.getLogger(RecipeDao.class.getName());
+
+  /*
+   * Renumbers the children of recipes whose gaps have run out, one recipe at
+   * a time, off the caller's thread.
+   */
+  private static final ExecutorService COMPACTOR =
+      Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recipes-order-compactor");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /*
+   * IDs assigned by the application are taken from blocks reserved in the
+   * id_sequence table. Recipe IDs are assigned when the recipes are sharded,
+   * so that the shard is known before the insert. All three are assigned when
+   * recipes.db.id-block-size is set.
+   */
+  private static final IdBlockAllocator RECIPE_ID_BLOCKS =
+      new IdBlockAllocator(ID_RESERVE, RECIPE_TABLE,
+          DbConnection::getIdBlockSize);
+  private static final IdBlockAllocator INGREDIENT_ID_BLOCKS =
+      new IdBlockAllocator(ID_RESERVE, INGREDIENT_TABLE,
+          DbConnection::getIdBlockSize);
+  private static final IdBlockAllocator STEP_ID_BLOCKS =
+      new IdBlockAllocator(ID_RESERVE, STEP_TABLE,
+          DbConnection::getIdBlockSize);
+
+  /* The most strings the shared string pool holds at once. */
+  private static final int MAX_POOLED_STRINGS = 10_000;
+
+  /*
+   * Fetched units, categories, and repeated ingredient strings are replaced by
+   * shared copies. The registry is shared by every RecipeDao.
+   */
+  private static final CanonicalRegistry REGISTRY =
+      new CanonicalRegistry(MAX_POOLED_STRINGS);
+
+  /**
+   * Run several of this DAO's operations in one transaction on one
+   * connection. Each operation still starts and commits its "own"
+   * transaction, but inside the unit of work those calls are deferred, and
+   * the whole unit is committed once at the end or rolled back if anything
+   * fails. See {@link DbConnection#inTransaction(Supplier)}.
+   * 
+   * @param <T> The type returned by the work.
+   * @param work The DAO operations to run.
+   * @return The value returned by the work.
+   */
+  public <T> T inTransaction(Supplier<T> work) {
+    return DbConnection.inTransaction(work);
+  }
+
+  /**
+   * Returns a description of the objects shared through the
+   * {@link CanonicalRegistry}, including the estimated memory saved.
+   */
+  public String describeSharedObjects() {
+    return REGISTRY.toString();
+  }
+
+  /**
+   * Returns the prepared statement cache hits, misses, and evictions of each
+   * connection pool and each statement. See
+   * {@link DbConnection#describeStatementCache()}.
+   */
+  public String describeStatementCache() {
+    return DbConnection.describeStatementCache();
+  }
+
+  /**
+   * Returns the latency and row counts of every named query that has run,
+   * the one with the most total time first. The same numbers are published
+   * through JMX (see {@link QueryCatalog}).
+   */
+  public String describeQueries() {
+    return QUERIES.toString();
+  }
+
+  /**
+   * Returns {@code true} if the configuration asks for the named queries to
+   * be checked against the schema at startup.
+   */
+  public boolean isQueryValidationEnabled() {
+    return DbConnection.isQueryValidationEnabled();
+  }
+
+  /**
+   * Check every named query against the schema of every shard, by asking the
+   * server to EXPLAIN it. This finds a query that refers to a missing table
+   * or column at startup, rather than when it first runs.
+   * 
+   * @return A message for each query that was rejected, prefixed with the
+   *         shard if the recipes are sharded. The list is empty if all is
+   *         well.
+   */
+  public List<String> validateQueries() {
+    List<List<String>> byShard = DbConnection.onEveryShard(shard -> {
+      try (Connection conn = DbConnection.getConnection(shard)) {
+        return QUERIES.validate(conn);
+      } catch (SQLException e) {
+        throw new DbException(e);
+      }
+    });
+
+    List<String> problems = new LinkedList<>();
+
+    for (int shard = 0; shard < byShard.size(); shard++) {
+      for (String problem : byShard.get(shard)) {
+        problems.add(isSharded() ? "shard " + shard + ": " + problem : problem);
+      }
+    }
+
+    return problems;
+  }
+
+  /**
+   * Returns {@code true} if the configuration asks for a warm-up at startup.
+   */
+  public boolean isWarmUpEnabled() {
+    return DbConnection.isWarmUpEnabled();
+  }
+
+  /**
+   * Open the pools' connections and prepare every statement this DAO uses on
+   * each of them, so that the first requests don't pay for it.
+   * 
+   * @param report The report in which to record how long each step took.
+   */
+  public void warmUp(WarmUpReport report) {
+    DbConnection.warmUp(QUERIES, report);
+  }
+
+  /**
+   * Returns the shard that holds the recipe with the given ID. A missing ID
+   * maps to shard 0, where the database will reject the operation as it
+   * would without sharding.
+   * 
+   * @param recipeId The recipe ID.
+   * @return The shard number.
+   */
+  private int shardOf(Integer recipeId) {
+    return Objects.isNull(recipeId) ? 0
+        : DbConnection.getShardMap().shardFor(recipeId);
+  }
+
+  /**
+   * Returns {@code true} if the recipes are spread across more than one
+   * shard.
+   */
+  private boolean isSharded() {
+    return DbConnection.getShardMap().getShardCount() > 1;
+  }
 
   /**
    * Returns the list of ingredients for a recipe, given the recipe ID. Note
@@ -92,49 +442,34 @@ public class RecipeDao extends DaoBase {
      * because it is declared first (to the left of the unit table if the SQL
      * statement was stretched out in a long line).
      */
-    // @formatter:off
-    String sql = ""
-        + "SELECT i.*, u.unit_name_singular, u.unit_name_plural "
-        + "FROM " + INGREDIENT_TABLE + " i "
-        + "LEFT JOIN " + UNIT_TABLE + " u USING (unit_id) "
-        + "WHERE i.recipe_id = ? "
-        + "ORDER BY i.ingredient_order";
-    // @formatter:on
-
-    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-      setParameter(stmt, 1, recipeId, Integer.class);
+    try (PreparedStatement stmt = INGREDIENT_BY_RECIPE.prepare(conn)) {
+      INGREDIENT_BY_RECIPE.bind(stmt, recipeId);
 
       try (ResultSet rs = stmt.executeQuery()) {
         List<Ingredient> ingredients = new LinkedList<>();
 
+        /*
+         * The generated readers match column names in the result set with
+         * fields in the entity. They find the columns once, here, and then
+         * load each row with typed getters, just as you would by hand. The
+         * graph reader loads the columns that match fields in the Ingredient
+         * object and, in the same pass, puts the unit columns into a Unit
+         * object. Ingredients with the same unit_id share one Unit, so 30
+         * ingredients measured in cups create a single "cup" Unit. The
+         * registry then swaps that Unit, and the repeated strings, for the
+         * copies shared by every recipe.
+         */
+        IngredientMapping.GraphReader reader =
+            IngredientMapping.graphReader(rs);
+
         while (rs.next()) {
-          /*
-           * The extract method matches column names in the result set with
-           * instance names in the Java object. Since there are two unit columns
-           * in the result set, extract will put them into a Unit object along
-           * with the columns that match fields in the Ingredient object. If the
-           * extract method is not used, you would have to manually load the
-           * objects as shown below:
-           */
-          // Unit unit = new Unit();
-          // unit.setUnitNamePlural(rs.getString("unit_name_plural"));
-          // unit.setUnitNameSingular(rs.getString("unit_name_singular"));
-          //
-          // Ingredient ingredient = new Ingredient();
-          // ingredient.setAmount(rs.getBigDecimal("amount"));
-          // ingredient.setIngredientId(rs.getObject("ingredient_id",
-          // Integer.class));
-          // ingredient.setIngredientName(rs.getString("ingredient_name"));
-          // ingredient.setIngredientOrder(rs.getObject("ingredient_order",
-          // Integer.class));
-          // ingredient.setInstruction(rs.getString("instruction"));
-          // ingredient.setRecipeId(rs.getObject("recipe_id", Integer.class));
-          // ingredient.setUnit(unit);
-
-          Unit unit = extract(rs, Unit.class);
-          Ingredient ingredient = extract(rs, Ingredient.class);
-
-          ingredient.setUnit(unit);
+          Ingredient ingredient = reader.read(rs);
+
+          ingredient.setUnit(REGISTRY.unit(ingredient.getUnit()));
+          ingredient.setIngredientName(
+              REGISTRY.string(ingredient.getIngredientName()));
+          ingredient.setInstruction(
+              REGISTRY.string(ingredient.getInstruction()));
           ingredients.add(ingredient);
         }
 
@@ -155,22 +490,19 @@ public class RecipeDao extends DaoBase {
    */
   private List<Step> fetchRecipeSteps(Connection conn, Integer recipeId)
       throws SQLException {
-    String sql = "SELECT * FROM " + STEP_TABLE + " s WHERE s.recipe_id = ? "
-        + "ORDER BY s.step_order";
-
-    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-      setParameter(stmt, 1, recipeId, Integer.class);
+    try (PreparedStatement stmt = STEP_BY_RECIPE.prepare(conn)) {
+      STEP_BY_RECIPE.bind(stmt, recipeId);
 
       try (ResultSet rs = stmt.executeQuery()) {
         List<Step> steps = new LinkedList<>();
+        StepMapping.Reader reader = StepMapping.reader(rs);
 
         while (rs.next()) {
           /*
-           * If the convenience method, extract, is not used, you would need to
-           * load all the columns into a Step object manually by pulling them
-           * from the result set.
+           * The generated reader loads the columns into a Step object, just as
+           * you would by pulling them from the result set manually.
            */
-          steps.add(extract(rs, Step.class));
+          steps.add(reader.read(rs));
         }
 
         return steps;
@@ -187,7 +519,7 @@ public class RecipeDao extends DaoBase {
    * @return The list of steps.
    */
   public List<Step> fetchRecipeSteps(Integer recipeId) {
-    try (Connection conn = DbConnection.getConnection()) {
+    try (Connection conn = DbConnection.getReadConnection(shardOf(recipeId))) {
       startTransaction(conn);
 
       try {
@@ -219,27 +551,19 @@ public class RecipeDao extends DaoBase {
    */
   private List<Category> fetchRecipeCategories(Connection conn,
       Integer recipeId) throws SQLException {
-    // @formatter:off
-    String sql = ""
-        + "SELECT c.category_id, c.category_name "
-        + "FROM " + RECIPE_CATEGORY_TABLE + " rc "
-        + "JOIN " + CATEGORY_TABLE + " c USING (category_id) "
-        + "WHERE rc.recipe_id = ?";
-    // @formatter:on
-
-    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-      setParameter(stmt, 1, recipeId, Integer.class);
+    try (PreparedStatement stmt = CATEGORY_BY_RECIPE.prepare(conn)) {
+      CATEGORY_BY_RECIPE.bind(stmt, recipeId);
 
       try (ResultSet rs = stmt.executeQuery()) {
         List<Category> categories = new LinkedList<>();
+        CategoryMapping.Reader reader = CategoryMapping.reader(rs);
 
         while (rs.next()) {
           /*
-           * If the convenience method, extract, isn't used, you would need to
-           * create the Category objects and load them from the result set
-           * manually.
+           * The generated reader creates the Category objects and loads them
+           * from the result set.
            */
-          categories.add(extract(rs, Category.class));
+          categories.add(REGISTRY.category(reader.read(rs)));
         }
 
         return categories;
@@ -248,28 +572,191 @@ public class RecipeDao extends DaoBase {
   }
 
   /**
-   * This method returns all recipes. The Recipe objects do not include
-   * ingredients, steps, or categories.
+   * This method returns all recipes ordered by name. The Recipe objects do not
+   * include ingredients, steps, or categories. If the recipes are sharded,
+   * every shard is queried in parallel and the sorted lists are merged.
    * 
    * @return The list of recipes.
    */
   public List<Recipe> fetchAllRecipes() {
-    String sql = "SELECT * FROM " + RECIPE_TABLE + " ORDER BY recipe_name";
+    return mergeByRecipeName(DbConnection.onEveryShard(this::fetchAllRecipes),
+        Recipe::getRecipeName);
+  }
+
+  /**
+   * This method returns the ID and name of every recipe, ordered by name. Only
+   * those two columns are selected, so it is the one to use for a list of
+   * recipes. If the recipes are sharded, every shard is queried in parallel
+   * and the sorted lists are merged.
+   * 
+   * @return The list of recipe summaries.
+   */
+  public List<RecipeSummary> fetchRecipeSummaries() {
+    return mergeByRecipeName(
+        DbConnection.onEveryShard(this::fetchRecipeSummaries),
+        RecipeSummary::recipeName);
+  }
+
+  /**
+   * Returns the order of ORDER BY recipe_name. Names are compared the way
+   * MySQL's default collation compares them: ignoring case and accents.
+   * 
+   * @param <T> The type being ordered: Recipe or RecipeSummary.
+   * @param recipeName Returns the recipe name.
+   * @return The comparator.
+   */
+  private static <T> Comparator<T> byRecipeName(
+      Function<T, String> recipeName) {
+    Collator collator = Collator.getInstance(Locale.ROOT);
+    collator.setStrength(Collator.PRIMARY);
+
+    return Comparator.comparing(recipeName, collator::compare);
+  }
+
+  /**
+   * This method returns every recipe, ordered by name, as a stream that reads
+   * the rows as it goes rather than loading them all first. Each shard's rows
+   * are read through a server-side cursor, recipes.db.stream.fetch-size rows
+   * at a time, on a connection of its own, and the shards are merged by name
+   * as the stream is consumed. So memory use stays the same however many
+   * recipes there are. This is meant for jobs that walk the whole catalog,
+   * like exports.
+   * 
+   * The stream holds one connection per shard until it is closed, so the
+   * caller must close it, ideally with try-with-resources:
+   * 
+   * <pre>
+   * try (Stream&lt;Recipe&gt; recipes = recipeDao.streamAllRecipes()) {
+   *   recipes.forEach(...);
+   * }
+   * </pre>
+   * 
+   * The connections are also given back as soon as the last row has been
+   * read. Like {@link #fetchAllRecipes()}, the recipes don't include
+   * ingredients, steps, or categories.
+   * 
+   * @return The stream of recipes.
+   * @throws DbException Thrown if a query can't be started. Errors while the
+   *         stream is consumed are also thrown as DbException.
+   */
+  public Stream<Recipe> streamAllRecipes() {
+    int shards = DbConnection.getShardMap().getShardCount();
+    List<RowCursor<Recipe>> cursors = new ArrayList<>(shards);
+
+    try {
+      for (int shard = 0; shard < shards; shard++) {
+        cursors.add(openRecipeCursor(shard));
+      }
+    } catch (RuntimeException e) {
+      try {
+        RowCursor.closeAll(cursors);
+      } catch (DbException closeFailure) {
+        e.addSuppressed(closeFailure);
+      }
+
+      throw e;
+    }
+
+    return RowCursor.stream(cursors, byRecipeName(Recipe::getRecipeName));
+  }
+
+  /**
+   * Start the query for all recipes on one shard and return a cursor over its
+   * rows. The cursor owns the connection.
+   * 
+   * @param shard The shard number.
+   * @return The cursor.
+   */
+  private RowCursor<Recipe> openRecipeCursor(int shard) {
+    Connection conn = DbConnection.getStreamConnection(shard);
+
+    try {
+      PreparedStatement stmt = RECIPE_ALL.prepare(conn,
+          ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+      try {
+        stmt.setFetchSize(DbConnection.getStreamFetchSize());
+
+        ResultSet rs = stmt.executeQuery();
+        RecipeMapping.Reader reader = RecipeMapping.reader(rs);
+
+        return new RowCursor<>(conn, stmt, rs, reader::read);
+      } catch (SQLException e) {
+        stmt.close();
+        throw e;
+      }
+    } catch (SQLException e) {
+      try {
+        conn.close();
+      } catch (SQLException closeFailure) {
+        e.addSuppressed(closeFailure);
+      }
+
+      throw new DbException(e);
+    }
+  }
+
+  /**
+   * Merge lists of recipes that are each sorted by name into one sorted list.
+   * Names are compared the way MySQL's default collation compares them:
+   * ignoring case and accents.
+   * 
+   * @param <T> The type of the list elements: Recipe or RecipeSummary.
+   * @param sorted The sorted lists, one per shard.
+   * @param recipeName Returns the recipe name of a list element.
+   * @return The merged list.
+   */
+  private <T> List<T> mergeByRecipeName(List<List<T>> sorted,
+      Function<T, String> recipeName) {
+    if (sorted.size() == 1) {
+      return sorted.get(0);
+    }
+
+    Comparator<Deque<T>> byHeadName = Comparator.comparing(Deque::peekFirst,
+        byRecipeName(recipeName));
+    PriorityQueue<Deque<T>> heads = new PriorityQueue<>(byHeadName);
 
-    try (Connection conn = DbConnection.getConnection()) {
+    for (List<T> recipes : sorted) {
+      if (!recipes.isEmpty()) {
+        heads.add(new ArrayDeque<>(recipes));
+      }
+    }
+
+    List<T> merged = new LinkedList<>();
+
+    while (!heads.isEmpty()) {
+      Deque<T> head = heads.poll();
+      merged.add(head.pollFirst());
+
+      if (!head.isEmpty()) {
+        heads.add(head);
+      }
+    }
+
+    return merged;
+  }
+
+  /**
+   * Returns all recipes on one shard, ordered by name.
+   * 
+   * @param shard The shard number.
+   * @return The list of recipes.
+   */
+  private List<Recipe> fetchAllRecipes(int shard) {
+    try (Connection conn = DbConnection.getReadConnection(shard)) {
       startTransaction(conn);
 
-      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+      try (PreparedStatement stmt = RECIPE_ALL.prepare(conn)) {
         try (ResultSet rs = stmt.executeQuery()) {
           List<Recipe> recipes = new LinkedList<>();
+          RecipeMapping.Reader reader = RecipeMapping.reader(rs);
 
           while (rs.next()) {
             /*
-             * If the convenience method, extract, is not used, you would need
-             * to manually create the Recipe objects and populate them from the
-             * result set.
+             * The generated reader creates the Recipe objects and populates
+             * them from the result set.
              */
-            recipes.add(extract(rs, Recipe.class));
+            recipes.add(reader.read(rs));
           }
 
           return recipes;
@@ -283,6 +770,36 @@ public class RecipeDao extends DaoBase {
     }
   }
 
+  /**
+   * Returns the summary of every recipe on one shard, ordered by name.
+   * 
+   * @param shard The shard number.
+   * @return The list of recipe summaries.
+   */
+  private List<RecipeSummary> fetchRecipeSummaries(int shard) {
+    try (Connection conn = DbConnection.getReadConnection(shard)) {
+      startTransaction(conn);
+
+      try (PreparedStatement stmt = RECIPE_SUMMARIES.prepare(conn)) {
+        try (ResultSet rs = stmt.executeQuery()) {
+          List<RecipeSummary> summaries = new LinkedList<>();
+          RecipeSummaryMapping.Reader reader = RecipeSummaryMapping.reader(rs);
+
+          while (rs.next()) {
+            summaries.add(reader.read(rs));
+          }
+
+          return summaries;
+        }
+      } catch (Exception e) {
+        rollbackTransaction(conn);
+        throw new DbException(e);
+      }
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
   /**
    * Insert a recipe into the recipe table. This uses a
    * {@link PreparedStatement} so that typed parameters can be passed into the
@@ -296,25 +813,28 @@ public class RecipeDao extends DaoBase {
     /*
      * Note that the primary key (recipe_id) is not included in the list of
      * fields in the insert statement. MySQL will set the correct primary key
-     * value when the row is inserted.
+     * value when the row is inserted. If the application assigns the IDs
+     * (always when the recipes are sharded, so that the shard is known), the
+     * ID is taken from a reserved block first.
      */
-    // @formatter:off
-    String sql = ""
-        + "INSERT INTO " + RECIPE_TABLE + " "
-        + "(recipe_name, notes, num_servings, prep_time, cook_time) "
-        + "VALUES "
-        + "(?, ?, ?, ?, ?)";
-    // @formatter:on
-
-    try (Connection conn = DbConnection.getConnection()) {
+    boolean assigned = assignsRecipeIds();
+    Integer newId = assigned ? RECIPE_ID_BLOCKS.next() : null;
+    NamedQuery insert = assigned ? RECIPE_INSERT_WITH_ID : RECIPE_INSERT;
+
+    try (Connection conn = DbConnection.getConnection(shardOf(newId))) {
       startTransaction(conn);
 
-      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-        setParameter(stmt, 1, recipe.getRecipeName(), String.class);
-        setParameter(stmt, 2, recipe.getNotes(), String.class);
-        setParameter(stmt, 3, recipe.getNumServings(), Integer.class);
-        setParameter(stmt, 4, recipe.getPrepTime(), LocalTime.class);
-        setParameter(stmt, 5, recipe.getCookTime(), LocalTime.class);
+      try (PreparedStatement stmt = insert.prepare(conn)) {
+        /*
+         * The generated binder sets a parameter for each insertable column,
+         * in the order of RecipeMapping.INSERT_SQL, and returns the index of
+         * the next parameter.
+         */
+        int next = RecipeMapping.bindInsert(stmt, 1, recipe);
+
+        if (assigned) {
+          setParameter(stmt, next, newId, Integer.class);
+        }
 
         /*
          * Insert the row. Statement.executeUpdate() performs inserts,
@@ -324,16 +844,16 @@ public class RecipeDao extends DaoBase {
         stmt.executeUpdate();
 
         /*
-         * Call a method in the base class to get the last insert ID (primary
-         * key value) in the given table.
+         * RECIPE_INSERT is prepared to return the generated primary key, so it
+         * comes back with the insert instead of needing another query.
          */
-        Integer recipeId = getLastInsertId(conn, RECIPE_TABLE);
+        Integer recipeId = assigned ? newId : getGeneratedKey(stmt);
 
         commitTransaction(conn);
 
         /*
          * Set the recipe ID primary key to the value obtained by
-         * getLastInsertId(). This does not fill in the createdAt field. To get
+         * getGeneratedKey(). This does not fill in the createdAt field. To get
          * that value we would need to do a fetch on the recipe row.
          */
         recipe.setRecipeId(recipeId);
@@ -347,14 +867,116 @@ public class RecipeDao extends DaoBase {
     }
   }
 
+  /**
+   * Returns {@code true} if new recipe IDs are assigned by the application
+   * rather than by AUTO_INCREMENT.
+   */
+  private boolean assignsRecipeIds() {
+    return isSharded() || assignsIds();
+  }
+
+  /**
+   * Returns {@code true} if new ingredient and step IDs (and recipe IDs) are
+   * assigned by the application, from blocks reserved in id_sequence.
+   */
+  private boolean assignsIds() {
+    return DbConnection.getIdBlockSize() > 0;
+  }
+
+  /**
+   * After the data file has been loaded on every shard, each shard holds a
+   * copy of every sample recipe. This deletes each recipe from the shards that
+   * don't own it (its children go with it, by ON DELETE CASCADE), and moves
+   * the recipe ID sequence past the loaded IDs. Without sharding this does
+   * nothing.
+   */
+  public void distributeLoadedRecipes() {
+    if (!isSharded()) {
+      return;
+    }
+
+    List<Integer> maxIds = DbConnection.onEveryShard(shard -> {
+      try (Connection conn = DbConnection.getConnection(shard)) {
+        startTransaction(conn);
+
+        try (PreparedStatement select = RECIPE_IDS.prepare(conn);
+            PreparedStatement delete = RECIPE_DELETE.prepare(conn)) {
+          int maxId = 0;
+
+          try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+              int recipeId = rs.getInt(1);
+              maxId = Math.max(maxId, recipeId);
+
+              if (shardOf(recipeId) != shard) {
+                RECIPE_DELETE.bind(delete, recipeId);
+                delete.addBatch();
+              }
+            }
+          }
+
+          delete.executeBatch();
+          commitTransaction(conn);
+
+          return maxId;
+        } catch (Exception e) {
+          rollbackTransaction(conn);
+          throw new DbException(e);
+        }
+      } catch (SQLException e) {
+        throw new DbException(e);
+      }
+    });
+
+    long lastId = DbConnection.getShardMap().getFirstNewRecipeId() - 1;
+
+    for (Integer maxId : maxIds) {
+      lastId = Math.max(lastId, maxId);
+    }
+
+    try (Connection conn = DbConnection.getConnection(0)) {
+      startTransaction(conn);
+
+      try (PreparedStatement stmt = ID_SET_SEQUENCE.prepare(conn)) {
+        ID_SET_SEQUENCE.bind(stmt, Math.toIntExact(lastId), RECIPE_TABLE);
+        stmt.executeUpdate();
+        commitTransaction(conn);
+        RECIPE_ID_BLOCKS.discard();
+      } catch (Exception e) {
+        rollbackTransaction(conn);
+        throw new DbException(e);
+      }
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
   /**
    * This method takes a list of SQL statements, which will be executed as a
-   * batch.
+   * batch. If the recipes are sharded, the batch is run on every shard in
+   * turn, so that every shard has the same tables and reference data. Each
+   * shard commits separately.
    * 
    * @param sqlBatch A list of SQL statements that are executed in order.
    */
   public void executeBatch(List<String> sqlBatch) {
-    try (Connection conn = DbConnection.getConnection()) {
+    int shards = DbConnection.getShardMap().getShardCount();
+
+    /* The batch may reload the reference tables with different IDs. */
+    REGISTRY.clear();
+
+    for (int shard = 0; shard < shards; shard++) {
+      executeBatch(shard, sqlBatch);
+    }
+
+    /* It may also have reset the ID sequences. */
+    RECIPE_ID_BLOCKS.discard();
+    INGREDIENT_ID_BLOCKS.discard();
+    STEP_ID_BLOCKS.discard();
+  }
+
+  private void executeBatch(int shard, List<String> sqlBatch) {
+    try (Connection conn = DbConnection.getConnection(shard)) {
       startTransaction(conn);
 
       try (Statement stmt = conn.createStatement()) {
@@ -389,9 +1011,7 @@ public class RecipeDao extends DaoBase {
    *         recipe is found. Otherwise, an empty Optional is returned.
    */
   public Optional<Recipe> fetchRecipeById(Integer recipeId) {
-    String sql = "SELECT * FROM " + RECIPE_TABLE + " WHERE recipe_id = ?";
-
-    try (Connection conn = DbConnection.getConnection()) {
+    try (Connection conn = DbConnection.getReadConnection(shardOf(recipeId))) {
       startTransaction(conn);
 
       /*
@@ -403,12 +1023,12 @@ public class RecipeDao extends DaoBase {
       try {
         Recipe recipe = null;
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-          setParameter(stmt, 1, recipeId, Integer.class);
+        try (PreparedStatement stmt = RECIPE_BY_ID.prepare(conn)) {
+          RECIPE_BY_ID.bind(stmt, recipeId);
 
           try (ResultSet rs = stmt.executeQuery()) {
             if (rs.next()) {
-              recipe = extract(rs, Recipe.class);
+              recipe = RecipeMapping.reader(rs).read(rs);
             }
           }
         }
@@ -450,6 +1070,81 @@ public class RecipeDao extends DaoBase {
     }
   }
 
+  /**
+   * This method returns an immutable copy of the recipe with the given ID, with
+   * its ingredients, steps, and categories, read in one transaction. Since
+   * nothing in it can change, it can be cached and shared by any number of
+   * threads without copying. The rows are mapped to records by the generated
+   * readers, which pass the columns to the canonical constructors. The
+   * ingredient graph reader reads each unit from the same row, once per
+   * unit_id.
+   * 
+   * @param recipeId The recipe ID of the recipe to return.
+   * @return The recipe, or an empty Optional if there is no recipe with the
+   *         given ID.
+   */
+  public Optional<RecipeRecord> fetchRecipeRecordById(Integer recipeId) {
+    try (Connection conn = DbConnection.getReadConnection(shardOf(recipeId))) {
+      startTransaction(conn);
+
+      try {
+        RecipeRecord recipe = fetchRecords(conn, RECIPE_BY_ID, recipeId,
+            rs -> RecipeRecordMapping.reader(rs)::read).stream().findFirst()
+                .orElse(null);
+
+        if (Objects.nonNull(recipe)) {
+          recipe = recipe.withChildren(
+              fetchRecords(conn, INGREDIENT_BY_RECIPE, recipeId,
+                  rs -> IngredientRecordMapping.graphReader(rs)::read),
+              fetchRecords(conn, STEP_BY_RECIPE, recipeId,
+                  rs -> StepRecordMapping.reader(rs)::read),
+              fetchRecords(conn, CATEGORY_BY_RECIPE, recipeId,
+                  rs -> CategoryRecordMapping.reader(rs)::read));
+        }
+
+        commitTransaction(conn);
+        return Optional.ofNullable(recipe);
+      } catch (Exception e) {
+        rollbackTransaction(conn);
+        throw new DbException(e);
+      }
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  /**
+   * Run a query that takes a recipe ID and map every row to a record. The
+   * reader is created once, from the result set, so it finds the columns
+   * before the first row.
+   * 
+   * @param <T> The record type.
+   * @param conn The connection with a transaction underway.
+   * @param query The query.
+   * @param recipeId The recipe ID.
+   * @param readerFor Creates the row reader for the result set.
+   * @return The records.
+   * @throws SQLException Thrown if an error occurs.
+   */
+  private <T> List<T> fetchRecords(Connection conn, NamedQuery query,
+      Integer recipeId, RowCursor.RowReader<RowCursor.RowReader<T>> readerFor)
+      throws SQLException {
+    try (PreparedStatement stmt = query.prepare(conn)) {
+      query.bind(stmt, recipeId);
+
+      try (ResultSet rs = stmt.executeQuery()) {
+        List<T> records = new LinkedList<>();
+        RowCursor.RowReader<T> reader = readerFor.read(rs);
+
+        while (rs.next()) {
+          records.add(reader.read(rs));
+        }
+
+        return records;
+      }
+    }
+  }
+
   /**
    * This method retrieves all units from the unit table and orders them by the
    * unit name.
@@ -457,24 +1152,16 @@ public class RecipeDao extends DaoBase {
    * @return The list of units.
    */
   public List<Unit> fetchAllUnits() {
-    String sql = "SELECT * FROM " + UNIT_TABLE + " ORDER BY unit_name_singular";
-
-    try (Connection conn = DbConnection.getConnection()) {
+    try (Connection conn = DbConnection.getReadConnection()) {
       startTransaction(conn);
 
-      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+      try (PreparedStatement stmt = UNIT_ALL.prepare(conn)) {
         try (ResultSet rs = stmt.executeQuery()) {
           List<Unit> units = new LinkedList<>();
+          UnitMapping.Reader reader = UnitMapping.reader(rs);
 
           while (rs.next()) {
-            units.add(extract(rs, Unit.class));
-
-            /* To use straight JDBC method calls, do this: */
-            // Unit unit = new Unit();
-            // unit.setUnitId(rs.getObject("unit_id", Integer.class));
-            // unit.setUnitNamePlural(rs.getString("unit_name_plural"));
-            // unit.setUnitNameSingular(rs.getString("unit_name_singular"));
-            // units.add(unit);
+            units.add(REGISTRY.unit(reader.read(rs)));
           }
 
           return units;
@@ -491,43 +1178,61 @@ public class RecipeDao extends DaoBase {
   /**
    * This method uses the JDBC API to add an ingredient to a recipe.
    * 
-   * @param ingredient The ingredient to add.
+   * @param ingredient The ingredient to add. Its ingredient order and ID are
+   *        filled in.
+   * @return The ID of the new ingredient.
+   */
+  public Integer addIngredientToRecipe(Ingredient ingredient) {
+    return addIngredientsToRecipe(ingredient.getRecipeId(),
+        List.of(ingredient)).get(0);
+  }
+
+  /**
+   * Add ingredients to a recipe, in list order, with one round trip for the
+   * orders and one for the rows. The inserts are sent as a JDBC batch, which
+   * the driver rewrites into a multi-row INSERT (rewriteBatchedStatements),
+   * and the new primary keys come back with it.
+   * 
+   * @param recipeId The recipe ID.
+   * @param ingredients The ingredients to add. The recipe ID, ingredient
+   *        order, and ingredient ID of each are filled in.
+   * @return The IDs of the new ingredients, in list order.
    */
-  public void addIngredientToRecipe(Ingredient ingredient) {
-    String sql = "INSERT INTO " + INGREDIENT_TABLE
-        + " (recipe_id, unit_id, ingredient_name, instruction, ingredient_order, amount) "
-        + "VALUES (?, ?, ?, ?, ?, ?)";
+  public List<Integer> addIngredientsToRecipe(Integer recipeId,
+      List<Ingredient> ingredients) {
+    if (ingredients.isEmpty()) {
+      return List.of();
+    }
 
-    try (Connection conn = DbConnection.getConnection()) {
+    assignIngredientIds(ingredients);
+
+    try (Connection conn = DbConnection.getConnection(shardOf(recipeId))) {
       startTransaction(conn);
 
       /*
-       * Create a try/catch block so that the ingredient order can be obtained
-       * inside the current transaction.
+       * Create a try/catch block so that the ingredient orders can be
+       * obtained inside the current transaction.
        */
       try {
         /*
-         * The ingredient order is simply obtained by finding out how many
-         * ingredients currently exist in the recipe and adding one to it. This
-         * is not the most elegant approach as it doesn't allow for inserting
-         * ingredients or reordering an ingredient.
+         * The ingredient orders are taken from the recipe's ingredient
+         * counter, GAP apart. This locks the recipe row, so concurrent adds to
+         * the same recipe get consecutive orders. The gaps leave room for
+         * insertIngredientAfter and moveIngredient (see ChildOrdering).
          */
-        Integer order = getNextSequenceNumber(conn, ingredient.getRecipeId(),
-            INGREDIENT_TABLE, "recipe_id");
-
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-          setParameter(stmt, 1, ingredient.getRecipeId(), Integer.class);
-          setParameter(stmt, 2, ingredient.getUnit().getUnitId(),
-              Integer.class);
-          setParameter(stmt, 3, ingredient.getIngredientName(), String.class);
-          setParameter(stmt, 4, ingredient.getInstruction(), String.class);
-          setParameter(stmt, 5, order, Integer.class);
-          setParameter(stmt, 6, ingredient.getAmount(), BigDecimal.class);
+        int order =
+            INGREDIENT_ORDERING.take(conn, recipeId, ingredients.size());
 
-          /* The executeUpdate method handles every action except queries. */
-          stmt.executeUpdate();
-          commitTransaction(conn);
+        for (Ingredient ingredient : ingredients) {
+          ingredient.setRecipeId(recipeId);
+          ingredient.setIngredientOrder(order);
+          order += ChildOrdering.GAP;
         }
+
+        List<Integer> ids = insertIngredients(conn, ingredients);
+
+        commitTransaction(conn);
+        return ids;
       } catch (Exception e) {
         rollbackTransaction(conn);
         throw new DbException(e);
@@ -540,29 +1245,46 @@ public class RecipeDao extends DaoBase {
   /**
    * Add a step to the recipe. The recipe ID is supplied in the step object.
    * 
-   * @param step The step to add.
+   * @param step The step to add. Its step order and ID are filled in.
+   * @return The ID of the new step.
+   */
+  public Integer addStepToRecipe(Step step) {
+    return addStepsToRecipe(step.getRecipeId(), List.of(step)).get(0);
+  }
+
+  /**
+   * Add steps to a recipe, in list order. Like
+   * {@link #addIngredientsToRecipe(Integer, List)}, this takes every step
+   * order with one update and inserts the steps as one batch.
+   * 
+   * @param recipeId The recipe ID.
+   * @param steps The steps to add. The recipe ID, step order, and step ID of
+   *        each are filled in.
+   * @return The IDs of the new steps, in list order.
    */
-  public void addStepToRecipe(Step step) {
-    String sql = "INSERT INTO " + STEP_TABLE
-        + " (recipe_id, step_order, step_text)" + " VALUES (?, ?, ?)";
+  public List<Integer> addStepsToRecipe(Integer recipeId, List<Step> steps) {
+    if (steps.isEmpty()) {
+      return List.of();
+    }
 
-    try (Connection conn = DbConnection.getConnection()) {
+    assignStepIds(steps);
+
+    try (Connection conn = DbConnection.getConnection(shardOf(recipeId))) {
       startTransaction(conn);
 
-      /*
-       * Like the ingredient, this calls getNextSequenceNumber to find out how
-       * many steps there currently are in the recipe and adds one to it.
-       */
-      Integer order = getNextSequenceNumber(conn, step.getRecipeId(),
-          STEP_TABLE, "recipe_id");
+      try {
+        int order = STEP_ORDERING.take(conn, recipeId, steps.size());
 
-      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-        setParameter(stmt, 1, step.getRecipeId(), Integer.class);
-        setParameter(stmt, 2, order, Integer.class);
-        setParameter(stmt, 3, step.getStepText(), String.class);
+        for (Step step : steps) {
+          step.setRecipeId(recipeId);
+          step.setStepOrder(order);
+          order += ChildOrdering.GAP;
+        }
+
+        List<Integer> ids = insertSteps(conn, steps);
 
-        stmt.executeUpdate();
         commitTransaction(conn);
+        return ids;
       } catch (Exception e) {
         rollbackTransaction(conn);
         throw new DbException(e);
@@ -572,27 +1294,462 @@ public class RecipeDao extends DaoBase {
     }
   }
 
+  /**
+   * Add an ingredient to a recipe right after another one, instead of at the
+   * end. Only the new row is written. It gets the order halfway between its
+   * neighbors (see {@link ChildOrdering}).
+   * 
+   * @param ingredient The ingredient to add. Its ingredient order and ID are
+   *        filled in.
+   * @param afterIngredientId The ID of the ingredient it goes after, or
+   *        {@code null} to put it first.
+   * @return The ID of the new ingredient.
+   */
+  public Integer insertIngredientAfter(Ingredient ingredient,
+      Integer afterIngredientId) {
+    Integer recipeId = ingredient.getRecipeId();
+
+    assignIngredientIds(List.of(ingredient));
+
+    try (Connection conn = DbConnection.getConnection(shardOf(recipeId))) {
+      startTransaction(conn);
+
+      try {
+        ChildOrdering.Slot slot = INGREDIENT_ORDERING.slotAfter(conn,
+            recipeId, afterIngredientId, null);
+
+        ingredient.setIngredientOrder(slot.order());
+
+        List<Integer> ids = insertIngredients(conn, List.of(ingredient));
+
+        commitTransaction(conn);
+        compactLater(INGREDIENT_ORDERING, recipeId, slot);
+        return ids.get(0);
+      } catch (Exception e) {
+        rollbackTransaction(conn);
+        throw new DbException(e);
+      }
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  /**
+   * Add a step to a recipe right after another one, instead of at the end.
+   * Like {@link #insertIngredientAfter(Ingredient, Integer)}, only the new
+   * row is written.
+   * 
+   * @param step The step to add. Its step order and ID are filled in.
+   * @param afterStepId The ID of the step it goes after, or {@code null} to
+   *        put it first.
+   * @return The ID of the new step.
+   */
+  public Integer insertStepAfter(Step step, Integer afterStepId) {
+    Integer recipeId = step.getRecipeId();
+
+    assignStepIds(List.of(step));
+
+    try (Connection conn = DbConnection.getConnection(shardOf(recipeId))) {
+      startTransaction(conn);
+
+      try {
+        ChildOrdering.Slot slot =
+            STEP_ORDERING.slotAfter(conn, recipeId, afterStepId, null);
+
+        step.setStepOrder(slot.order());
+
+        List<Integer> ids = insertSteps(conn, List.of(step));
+
+        commitTransaction(conn);
+        compactLater(STEP_ORDERING, recipeId, slot);
+        return ids.get(0);
+      } catch (Exception e) {
+        rollbackTransaction(conn);
+        throw new DbException(e);
+      }
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  /**
+   * Move an ingredient so that it comes right after another one. Only the
+   * moved ingredient's row is written.
+   * 
+   * @param recipeId The recipe ID.
+   * @param ingredientId The ID of the ingredient to move.
+   * @param afterIngredientId The ID of the ingredient it goes after, or
+   *        {@code null} to move it to the top.
+   */
+  public void moveIngredient(Integer recipeId, Integer ingredientId,
+      Integer afterIngredientId) {
+    moveChild(INGREDIENT_ORDERING, recipeId, ingredientId, afterIngredientId);
+  }
+
+  /**
+   * Move a step so that it comes right after another one. Only the moved
+   * step's row is written.
+   * 
+   * @param recipeId The recipe ID.
+   * @param stepId The ID of the step to move.
+   * @param afterStepId The ID of the step it goes after, or {@code null} to
+   *        make it the first step.
+   */
+  public void moveStep(Integer recipeId, Integer stepId, Integer afterStepId) {
+    moveChild(STEP_ORDERING, recipeId, stepId, afterStepId);
+  }
+
+  private void moveChild(ChildOrdering ordering, Integer recipeId,
+      Integer childId, Integer afterId) {
+    try (Connection conn = DbConnection.getConnection(shardOf(recipeId))) {
+      startTransaction(conn);
+
+      try {
+        ChildOrdering.Slot slot =
+            ordering.slotAfter(conn, recipeId, afterId, childId);
+
+        ordering.setOrder(conn, recipeId, childId, slot.order());
+        commitTransaction(conn);
+        compactLater(ordering, recipeId, slot);
+      } catch (Exception e) {
+        rollbackTransaction(conn);
+        throw new DbException(e);
+      }
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  /**
+   * If the slot used up the room between its neighbors, renumber the
+   * recipe's children on the compactor thread, so that the next insert there
+   * doesn't have to. A recipe that is already waiting isn't scheduled again.
+   */
+  private void compactLater(ChildOrdering ordering, Integer recipeId,
+      ChildOrdering.Slot slot) {
+    if (!slot.crowded() || !ordering.markPending(recipeId)) {
+      return;
+    }
+
+    COMPACTOR.execute(() -> {
+      ordering.clearPending(recipeId);
+
+      try {
+        compactOrders(ordering, recipeId);
+      } catch (DbException e) {
+        LOG.log(Level.WARNING, "Unable to compact the " + ordering.getName()
+            + " orders of recipe " + recipeId + ".", e);
+      }
+    });
+  }
+
+  private void compactOrders(ChildOrdering ordering, Integer recipeId) {
+    try (Connection conn = DbConnection.getConnection(shardOf(recipeId))) {
+      startTransaction(conn);
+
+      try {
+        ordering.compact(conn, recipeId);
+        commitTransaction(conn);
+      } catch (Exception e) {
+        rollbackTransaction(conn);
+        throw new DbException(e);
+      }
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  /**
+   * Add many complete recipes at once, each with its ingredients, steps, and
+   * categories. This is meant for bulk loads. The rows of each table are sent
+   * as one JDBC batch, which the driver rewrites into multi-row INSERTs, so an
+   * import takes a few round trips per shard rather than several per recipe.
+   * Each shard's recipes are added in one transaction.
+   * 
+   * With recipes.db.id-block-size set, every ID is taken from the reserved
+   * blocks before any connection is borrowed, so the children never wait on
+   * their parent's generated key. Otherwise the keys of each batch are read
+   * back from it. The ingredients and steps are ordered as listed, GAP apart
+   * (see {@link ChildOrdering}), and each recipe's order counters are set to
+   * match.
+   * 
+   * @param recipes The recipes to add. The IDs and orders of the recipes and
+   *        their children are filled in.
+   * @return The recipes.
+   */
+  public List<Recipe> importRecipes(List<Recipe> recipes) {
+    boolean assigned = assignsRecipeIds();
+    List<Integer> recipeIds = assigned ? RECIPE_ID_BLOCKS.next(recipes.size())
+        : null;
+    List<Ingredient> ingredients = new ArrayList<>();
+    List<Step> steps = new ArrayList<>();
+    Map<Integer, List<Recipe>> byShard = new HashMap<>();
+
+    for (int index = 0; index < recipes.size(); index++) {
+      Recipe recipe = recipes.get(index);
+      Integer recipeId = assigned ? recipeIds.get(index) : null;
+
+      recipe.setRecipeId(recipeId);
+      ingredients.addAll(recipe.getIngredients());
+      steps.addAll(recipe.getSteps());
+      byShard.computeIfAbsent(shardOf(recipeId), shard -> new LinkedList<>())
+          .add(recipe);
+    }
+
+    /* Every ID is reserved before the first connection is borrowed. */
+    assignIngredientIds(ingredients);
+    assignStepIds(steps);
+
+    byShard.forEach((shard, shardRecipes) -> importRecipes(shard,
+        shardRecipes, assigned));
+
+    return recipes;
+  }
+
+  private void importRecipes(int shard, List<Recipe> recipes,
+      boolean assigned) {
+    try (Connection conn = DbConnection.getConnection(shard)) {
+      startTransaction(conn);
+
+      try {
+        insertRecipes(conn, recipes, assigned);
+
+        List<Ingredient> ingredients = new ArrayList<>();
+        List<Step> steps = new ArrayList<>();
+
+        for (Recipe recipe : recipes) {
+          int order = 0;
+
+          for (Ingredient ingredient : recipe.getIngredients()) {
+            order += ChildOrdering.GAP;
+            ingredient.setRecipeId(recipe.getRecipeId());
+            ingredient.setIngredientOrder(order);
+            ingredients.add(ingredient);
+          }
+
+          order = 0;
+
+          for (Step step : recipe.getSteps()) {
+            order += ChildOrdering.GAP;
+            step.setRecipeId(recipe.getRecipeId());
+            step.setStepOrder(order);
+            steps.add(step);
+          }
+        }
+
+        insertIngredients(conn, ingredients);
+        insertSteps(conn, steps);
+
+        try (PreparedStatement stmt = RECIPE_SET_ORDER_COUNTERS.prepare(conn)) {
+          for (Recipe recipe : recipes) {
+            RECIPE_SET_ORDER_COUNTERS.bind(stmt,
+                recipe.getIngredients().size() * ChildOrdering.GAP,
+                recipe.getSteps().size() * ChildOrdering.GAP,
+                recipe.getRecipeId());
+            stmt.addBatch();
+          }
+
+          stmt.executeBatch();
+        }
+
+        try (PreparedStatement stmt = RECIPE_CATEGORY_INSERT.prepare(conn)) {
+          for (Recipe recipe : recipes) {
+            for (Category category : recipe.getCategories()) {
+              RECIPE_CATEGORY_INSERT.bind(stmt, recipe.getRecipeId(),
+                  category.getCategoryName());
+              stmt.addBatch();
+            }
+          }
+
+          stmt.executeBatch();
+        }
+
+        commitTransaction(conn);
+      } catch (Exception e) {
+        rollbackTransaction(conn);
+        throw new DbException(e);
+      }
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  /**
+   * Insert recipes as one batch and fill in their IDs, unless the IDs were
+   * assigned already.
+   */
+  private void insertRecipes(Connection conn, List<Recipe> recipes,
+      boolean assigned) throws SQLException {
+    NamedQuery insert = assigned ? RECIPE_INSERT_WITH_ID : RECIPE_INSERT;
+
+    try (PreparedStatement stmt = insert.prepare(conn)) {
+      for (Recipe recipe : recipes) {
+        int next = RecipeMapping.bindInsert(stmt, 1, recipe);
+
+        if (assigned) {
+          setParameter(stmt, next, recipe.getRecipeId(), Integer.class);
+        }
+
+        stmt.addBatch();
+      }
+
+      stmt.executeBatch();
+
+      if (!assigned) {
+        List<Integer> ids = getGeneratedKeys(stmt, recipes.size());
+
+        for (int index = 0; index < ids.size(); index++) {
+          recipes.get(index).setRecipeId(ids.get(index));
+        }
+      }
+    }
+  }
+
+  /**
+   * If the application assigns ingredient IDs, take one for each ingredient
+   * from the reserved blocks. Callers do this before they borrow a connection,
+   * so that no connection sits idle while a block is reserved.
+   */
+  private void assignIngredientIds(List<Ingredient> ingredients) {
+    if (assignsIds()) {
+      List<Integer> ids = INGREDIENT_ID_BLOCKS.next(ingredients.size());
+
+      for (int index = 0; index < ids.size(); index++) {
+        ingredients.get(index).setIngredientId(ids.get(index));
+      }
+    }
+  }
+
+  /**
+   * If the application assigns step IDs, take one for each step from the
+   * reserved blocks, like {@link #assignIngredientIds(List)}.
+   */
+  private void assignStepIds(List<Step> steps) {
+    if (assignsIds()) {
+      List<Integer> ids = STEP_ID_BLOCKS.next(steps.size());
+
+      for (int index = 0; index < ids.size(); index++) {
+        steps.get(index).setStepId(ids.get(index));
+      }
+    }
+  }
+
+  /**
+   * Insert ingredients as one batch and fill in their IDs. The recipe ID and
+   * order of each must be set already. If the application assigns the IDs,
+   * they must be set already too (see {@link #assignIngredientIds(List)}).
+   * Otherwise they are read back from the batch.
+   */
+  private List<Integer> insertIngredients(Connection conn,
+      List<Ingredient> ingredients) throws SQLException {
+    if (ingredients.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    boolean assigned = assignsIds();
+    NamedQuery insert =
+        assigned ? INGREDIENT_INSERT_WITH_ID : INGREDIENT_INSERT;
+    List<Integer> ids = new ArrayList<>(ingredients.size());
+
+    try (PreparedStatement stmt = insert.prepare(conn)) {
+      for (Ingredient ingredient : ingredients) {
+        int next = IngredientMapping.bindInsert(stmt, 1, ingredient);
+
+        if (assigned) {
+          setParameter(stmt, next, ingredient.getIngredientId(),
+              Integer.class);
+          ids.add(ingredient.getIngredientId());
+        }
+
+        stmt.addBatch();
+      }
+
+      stmt.executeBatch();
+
+      if (!assigned) {
+        ids = getGeneratedKeys(stmt, ingredients.size());
+      }
+    }
+
+    for (int index = 0; index < ids.size(); index++) {
+      ingredients.get(index).setIngredientId(ids.get(index));
+    }
+
+    return ids;
+  }
+
+  /**
+   * Insert steps as one batch and fill in their IDs, like
+   * {@link #insertIngredients(Connection, List)}.
+   */
+  private List<Integer> insertSteps(Connection conn, List<Step> steps)
+      throws SQLException {
+    if (steps.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    boolean assigned = assignsIds();
+    NamedQuery insert = assigned ? STEP_INSERT_WITH_ID : STEP_INSERT;
+    List<Integer> ids = new ArrayList<>(steps.size());
+
+    try (PreparedStatement stmt = insert.prepare(conn)) {
+      for (Step step : steps) {
+        int next = StepMapping.bindInsert(stmt, 1, step);
+
+        if (assigned) {
+          setParameter(stmt, next, step.getStepId(), Integer.class);
+          ids.add(step.getStepId());
+        }
+
+        stmt.addBatch();
+      }
+
+      stmt.executeBatch();
+
+      if (!assigned) {
+        ids = getGeneratedKeys(stmt, steps.size());
+      }
+    }
+
+    for (int index = 0; index < ids.size(); index++) {
+      steps.get(index).setStepId(ids.get(index));
+    }
+
+    return ids;
+  }
+
+  /**
+   * Returns the keys generated by a batch of inserts, checking that there is
+   * one for each row.
+   */
+  private List<Integer> getGeneratedKeys(Statement stmt, int rows)
+      throws SQLException {
+    List<Integer> ids = getGeneratedKeys(stmt);
+
+    if (ids.size() != rows) {
+      throw new SQLException("Expected " + rows + " generated keys but got "
+          + ids.size() + ".");
+    }
+
+    return ids;
+  }
+
   /**
    * This method retrieves all the categories ordered by the category name.
    * 
    * @return The list of categories.
    */
   public List<Category> fetchAllCategories() {
-    String sql = "SELECT * FROM " + CATEGORY_TABLE + " ORDER BY category_name";
-
-    try (Connection conn = DbConnection.getConnection()) {
+    try (Connection conn = DbConnection.getReadConnection()) {
       startTransaction(conn);
 
-      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+      try (PreparedStatement stmt = CATEGORY_ALL.prepare(conn)) {
         try (ResultSet rs = stmt.executeQuery()) {
           List<Category> categories = new LinkedList<>();
+          CategoryMapping.Reader reader = CategoryMapping.reader(rs);
 
           while (rs.next()) {
-            /*
-             * If you don't want to use the extract method you can use straight
-             * JDBC calls.
-             */
-            categories.add(extract(rs, Category.class));
+            categories.add(REGISTRY.category(reader.read(rs)));
           }
 
           return categories;
@@ -621,21 +1778,15 @@ public class RecipeDao extends DaoBase {
      * for any (or nearly any) value in the INSERT statement. You could perform
      * a separate query for the category ID given the category name, then do the
      * insert once you had the category ID. Using a subquery allows us to do it
-     * with a single statement.
+     * with a single statement. See INSERT_RECIPE_CATEGORY_SQL. The category
+     * table is copied to every shard, so the subquery works on the recipe's
+     * shard.
      */
-    String subQuery = "(SELECT category_id FROM " + CATEGORY_TABLE
-        + " WHERE category_name = ?)";
-
-    String sql = "INSERT INTO " + RECIPE_CATEGORY_TABLE
-        + " (recipe_id, category_id) VALUES (?, " + subQuery + ")";
-
-    /* Subqueries are handled just like everything else. */
-    try (Connection conn = DbConnection.getConnection()) {
+    try (Connection conn = DbConnection.getConnection(shardOf(recipeId))) {
       startTransaction(conn);
 
-      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-        setParameter(stmt, 1, recipeId, Integer.class);
-        setParameter(stmt, 2, category, String.class);
+      try (PreparedStatement stmt = RECIPE_CATEGORY_INSERT.prepare(conn)) {
+        RECIPE_CATEGORY_INSERT.bind(stmt, recipeId, category);
 
         /*
          * With a subquery in an INSERT statement you do not call executeQuery.
@@ -665,19 +1816,18 @@ public class RecipeDao extends DaoBase {
    *         found. It will never return a value greater than one because the
    *         WHERE clause constrains the update to a single row. This is because
    *         the WHERE clause uses the primary key value, step_id. A primary key
-   *         by definition, only applies to a single row.
+   *         by definition, only applies to a single row. The step's recipe
+   *         ID must be set: it picks the shard and must match the step.
    */
 
   public boolean modifyRecipeStep(Step step) {
-    String sql =
-        "UPDATE " + STEP_TABLE + " SET step_text = ? WHERE step_id = ?";
-
-    try (Connection conn = DbConnection.getConnection()) {
+    try (Connection conn =
+        DbConnection.getConnection(shardOf(step.getRecipeId()))) {
       startTransaction(conn);
 
-      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-        setParameter(stmt, 1, step.getStepText(), String.class);
-        setParameter(stmt, 2, step.getStepId(), Integer.class);
+      try (PreparedStatement stmt = STEP_MODIFY.prepare(conn)) {
+        STEP_MODIFY.bind(stmt, step.getStepText(), step.getStepId(),
+            step.getRecipeId());
 
         /*
          * The step was updated successfully if the return value from
@@ -712,13 +1862,11 @@ public class RecipeDao extends DaoBase {
    * @return
    */
   public boolean deleteRecipe(Integer recipeId) {
-    String sql = "DELETE FROM " + RECIPE_TABLE + " WHERE recipe_id = ?";;
-
-    try (Connection conn = DbConnection.getConnection()) {
+    try (Connection conn = DbConnection.getConnection(shardOf(recipeId))) {
       startTransaction(conn);
 
-      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-        setParameter(stmt, 1, recipeId, Integer.class);
+      try (PreparedStatement stmt = RECIPE_DELETE.prepare(conn)) {
+        RECIPE_DELETE.bind(stmt, recipeId);
 
         boolean deleted = stmt.executeUpdate() == 1;
 
@@ -0,0 +1,339 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class spreads read-only work across a set of MySQL replicas. Each
+ * replica has its own {@link ConnectionPool}. A replica is picked using one of
+ * two strategies:
+ * <ul>
+ * <li>{@link Strategy#ROUND_ROBIN}: each read goes to the next replica in
+ * turn.</li>
+ * <li>{@link Strategy#LEAST_OUTSTANDING}: each read goes to the replica with
+ * the fewest connections currently borrowed through this router.</li>
+ * </ul>
+ *
+ * A background task checks the replication lag of every replica. A replica
+ * that is further behind than the configured maximum, that has stopped
+ * replicating, or that can't be reached is skipped until a later check finds
+ * it healthy again. If no replica is healthy, {@link #getConnection()} returns
+ * {@code null} and the caller uses the primary.
+ *
+ * @author Promineo
+ *
+ */
+public class ReplicaRouter implements AutoCloseable {
+  private static final Logger LOG =
+      Logger.getLogger(ReplicaRouter.class.getName());
+
+  /**
+   * The ways a replica can be chosen for a read.
+   */
+  public enum Strategy {
+    ROUND_ROBIN, LEAST_OUTSTANDING;
+
+    /**
+     * Convert a configuration value like "round-robin" to a strategy.
+     *
+     * @param text The configuration value.
+     * @return The matching strategy.
+     * @throws IllegalArgumentException Thrown if there is no match.
+     */
+    public static Strategy fromConfig(String text) {
+      return valueOf(text.trim().toUpperCase().replace('-', '_'));
+    }
+  }
+
+  /**
+   * This holds one replica's pool and its routing state.
+   */
+  private static class Replica {
+    private final ConnectionPool pool;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile boolean healthy = true;
+    private volatile Long lagSeconds;
+
+    Replica(ConnectionPool pool) {
+      this.pool = pool;
+    }
+  }
+
+  private final List<Replica> replicas = new LinkedList<>();
+  private final Strategy strategy;
+  private final long maxLagSeconds;
+  private final AtomicInteger next = new AtomicInteger();
+  private final ScheduledExecutorService lagChecker;
+
+  /**
+   * Create a router over the given replica pools. If there are any replicas, a
+   * background task is started to check their lag.
+   *
+   * @param pools One pool per replica.
+   * @param strategy How to pick a replica.
+   * @param maxLagSeconds A replica further behind than this is skipped.
+   * @param lagCheckIntervalMillis How often replication lag is checked.
+   */
+  public ReplicaRouter(List<ConnectionPool> pools, Strategy strategy,
+      long maxLagSeconds, long lagCheckIntervalMillis) {
+    this.strategy = strategy;
+    this.maxLagSeconds = maxLagSeconds;
+
+    pools.forEach(pool -> replicas.add(new Replica(pool)));
+
+    if (replicas.isEmpty()) {
+      lagChecker = null;
+    } else {
+      lagChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recipes-replica-lag");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+      lagChecker.scheduleWithFixedDelay(this::checkLag, 0,
+          lagCheckIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Borrow a connection from a healthy replica. As with any pooled
+   * connection, close it to give it back.
+   *
+   * @return A replica connection, or {@code null} if there are no healthy
+   *         replicas.
+   */
+  public Connection getConnection() {
+    Replica replica = pick();
+
+    if (Objects.isNull(replica)) {
+      return null;
+    }
+
+    replica.outstanding.incrementAndGet();
+
+    try {
+      return new RoutedConnection(replica);
+    } catch (RuntimeException e) {
+      replica.outstanding.decrementAndGet();
+
+      /*
+       * If no connection could be opened to the replica (which is also where
+       * a failed validation ends up), take it out of rotation until the next
+       * lag check finds it healthy. Anything else, like an acquire timeout
+       * because the replica pool is busy, says nothing about the replica, so
+       * it stays in rotation. Either way the caller falls back to the
+       * primary.
+       */
+      if (e.getCause() instanceof SQLException) {
+        replica.healthy = false;
+        LOG.log(Level.WARNING, "Replica " + replica.pool.getName()
+            + " is unavailable. Using the primary.", e);
+      } else {
+        LOG.log(Level.FINE, "No connection from replica "
+            + replica.pool.getName() + ". Using the primary.", e);
+      }
+
+      return null;
+    }
+  }
+
+  /**
+   * Choose a replica according to the strategy, skipping unhealthy ones.
+   *
+   * @return The chosen replica, or {@code null} if none are healthy.
+   */
+  private Replica pick() {
+    List<Replica> healthy = new LinkedList<>();
+
+    for (Replica replica : replicas) {
+      if (replica.healthy) {
+        healthy.add(replica);
+      }
+    }
+
+    if (healthy.isEmpty()) {
+      return null;
+    }
+
+    if (strategy == Strategy.ROUND_ROBIN) {
+      int index = Math.floorMod(next.getAndIncrement(), healthy.size());
+      return healthy.get(index);
+    }
+
+    Replica best = null;
+
+    for (Replica replica : healthy) {
+      if (Objects.isNull(best)
+          || replica.outstanding.get() < best.outstanding.get()) {
+        best = replica;
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Check every replica's lag and mark it healthy or unhealthy. This runs on
+   * the lag checker thread.
+   */
+  private void checkLag() {
+    for (Replica replica : replicas) {
+      Long lag = null;
+
+      try {
+        lag = readLagSeconds(replica.pool);
+      } catch (RuntimeException | SQLException e) {
+        LOG.log(Level.FINE, "Lag check failed for " + replica.pool.getName(),
+            e);
+      }
+
+      boolean healthy = Objects.nonNull(lag) && lag <= maxLagSeconds;
+
+      if (healthy != replica.healthy) {
+        LOG.warning("Replica " + replica.pool.getName() + " is now "
+            + (healthy ? "in" : "out of") + " rotation (lag=" + lag + "s).");
+      }
+
+      replica.lagSeconds = lag;
+      replica.healthy = healthy;
+    }
+  }
+
+  /**
+   * Ask the replica how far behind the source it is. MySQL 8.0.22 renamed the
+   * statement and column, so the old names are tried if the new ones fail.
+   *
+   * @param pool The replica pool.
+   * @return The lag in seconds, or {@code null} if replication is not
+   *         running.
+   * @throws SQLException Thrown if the replica can't be queried.
+   */
+  private Long readLagSeconds(ConnectionPool pool) throws SQLException {
+    try (Connection conn = pool.getConnection();
+        Statement stmt = conn.createStatement()) {
+      try (ResultSet rs = stmt.executeQuery("SHOW REPLICA STATUS")) {
+        return rs.next() ? lagColumn(rs, "Seconds_Behind_Source") : null;
+      } catch (SQLException e) {
+        try (ResultSet rs = stmt.executeQuery("SHOW SLAVE STATUS")) {
+          return rs.next() ? lagColumn(rs, "Seconds_Behind_Master") : null;
+        }
+      }
+    }
+  }
+
+  private Long lagColumn(ResultSet rs, String column) throws SQLException {
+    long lag = rs.getLong(column);
+    return rs.wasNull() ? null : lag;
+  }
+
+  /**
+   * Returns {@code true} if there is at least one replica configured, healthy
+   * or not.
+   */
+  public boolean hasReplicas() {
+    return !replicas.isEmpty();
+  }
+
+  /**
+   * Returns the pool of each replica, healthy or not.
+   *
+   * @return The replica pools.
+   */
+  List<ConnectionPool> getPools() {
+    List<ConnectionPool> pools = new LinkedList<>();
+    replicas.forEach(replica -> pools.add(replica.pool));
+
+    return pools;
+  }
+
+  /**
+   * Apply new pool settings to every replica pool.
+   *
+   * @param settings The new settings.
+   */
+  public void reconfigure(PoolSettings settings) {
+    replicas.forEach(replica -> replica.pool.reconfigure(settings));
+  }
+
+  /**
+   * Returns a snapshot of every replica pool.
+   *
+   * @return The pool statistics, one entry per replica.
+   */
+  public List<PoolStats> getStats() {
+    List<PoolStats> stats = new LinkedList<>();
+    replicas.forEach(replica -> stats.add(replica.pool.getStats()));
+
+    return stats;
+  }
+
+  /**
+   * Returns one line per replica showing its health, lag, and outstanding
+   * connections.
+   */
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("Replicas (" + strategy + "):");
+
+    for (Replica replica : replicas) {
+      b.append("\n   ").append(replica.pool.getName()).append(": ")
+          .append(replica.healthy ? "healthy" : "skipped").append(", lag=")
+          .append(replica.lagSeconds).append("s, outstanding=")
+          .append(replica.outstanding.get());
+    }
+
+    return b.toString();
+  }
+
+  /**
+   * Stop the lag checker and close all replica pools.
+   */
+  @Override
+  public void close() {
+    if (Objects.nonNull(lagChecker)) {
+      lagChecker.shutdownNow();
+    }
+
+    replicas.forEach(replica -> replica.pool.close());
+  }
+
+  /**
+   * This wraps a replica connection so that the replica's outstanding count
+   * is decremented exactly once when the connection is closed.
+   */
+  private static class RoutedConnection extends DelegatingConnection {
+    private final Replica replica;
+    private boolean closed;
+
+    RoutedConnection(Replica replica) {
+      super(replica.pool.getConnection());
+      this.replica = replica;
+    }
+
+    @Override
+    public void close() throws SQLException {
+      if (!closed) {
+        closed = true;
+
+        try {
+          super.close();
+        } finally {
+          replica.outstanding.decrementAndGet();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,247 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import recipes.exception.DbException;
+
+/**
+ * This class walks the rows of an open query one at a time, creating an
+ * object from each row only when it is asked for. It owns the connection,
+ * statement, and result set, and closes all three once the last row has been
+ * read, or when {@link #close()} is called, whichever comes first. So however
+ * many rows the query returns, only the driver's fetch buffer and the current
+ * object are held in memory.
+ *
+ * {@link #stream(List, Comparator)} turns one cursor per shard into a single
+ * ordered stream that closes the cursors when it is closed.
+ *
+ * @author Promineo
+ *
+ * @param <T> The type of object created from each row.
+ */
+class RowCursor<T> implements Iterator<T>, AutoCloseable {
+  /**
+   * This creates an object from the current row of a result set.
+   */
+  @FunctionalInterface
+  interface RowReader<T> {
+    T read(ResultSet rs) throws SQLException;
+  }
+
+  private final Connection conn;
+  private final PreparedStatement stmt;
+  private final ResultSet rs;
+  private final RowReader<T> reader;
+
+  private T next;
+  private boolean closed;
+
+  /**
+   * Create a cursor over a query that has been executed. The cursor takes
+   * over the connection, statement, and result set.
+   *
+   * @param conn The connection.
+   * @param stmt The statement.
+   * @param rs The result set, positioned before the first row.
+   * @param reader Creates an object from a row.
+   */
+  RowCursor(Connection conn, PreparedStatement stmt, ResultSet rs,
+      RowReader<T> reader) {
+    this.conn = conn;
+    this.stmt = stmt;
+    this.rs = rs;
+    this.reader = reader;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (Objects.nonNull(next)) {
+      return true;
+    }
+
+    if (closed) {
+      return false;
+    }
+
+    try {
+      if (rs.next()) {
+        next = reader.read(rs);
+        return true;
+      }
+    } catch (SQLException e) {
+      closeQuietly(e);
+      throw new DbException(e);
+    }
+
+    /* Give the connection back as soon as the rows run out. */
+    close();
+    return false;
+  }
+
+  @Override
+  public T next() {
+    T value = peek();
+    next = null;
+
+    return value;
+  }
+
+  /**
+   * Returns the next object without moving past it.
+   *
+   * @return The next object.
+   * @throws NoSuchElementException Thrown if there are no more rows.
+   */
+  T peek() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    return next;
+  }
+
+  /**
+   * Close the result set, statement, and connection. This can be called more
+   * than once.
+   *
+   * @throws DbException Thrown if any of them can't be closed. All three are
+   *         closed regardless.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    /* Try-with-resources closes them in reverse order: rs, stmt, then conn. */
+    try (Connection c = conn; PreparedStatement s = stmt; ResultSet r = rs) {
+      /* Nothing to do but close them. */
+    } catch (SQLException e) {
+      throw new DbException(e);
+    }
+  }
+
+  private void closeQuietly(SQLException cause) {
+    try {
+      close();
+    } catch (DbException e) {
+      cause.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Returns a stream of the objects from several cursors, each of which is
+   * already in order. The cursors are merged lazily: only the next object of
+   * each one is held. Closing the stream closes every cursor, so the caller
+   * must close it, e.g., with try-with-resources.
+   *
+   * @param <T> The type of the objects.
+   * @param cursors The cursors, for example one per shard.
+   * @param order The order each cursor is in.
+   * @return The merged stream.
+   */
+  static <T> Stream<T> stream(List<RowCursor<T>> cursors,
+      Comparator<T> order) {
+    Iterator<T> rows = cursors.size() == 1 ? cursors.get(0)
+        : new MergedCursors<>(cursors, order);
+    Spliterator<T> split = Spliterators.spliteratorUnknownSize(rows,
+        Spliterator.ORDERED | Spliterator.NONNULL);
+
+    return StreamSupport.stream(split, false)
+        .onClose(() -> closeAll(cursors));
+  }
+
+  /**
+   * Close every cursor, even if closing one of them fails.
+   *
+   * @throws DbException Thrown if any cursor can't be closed. The others'
+   *         failures are added as suppressed exceptions.
+   */
+  static void closeAll(List<? extends RowCursor<?>> cursors) {
+    DbException failure = null;
+
+    for (RowCursor<?> cursor : cursors) {
+      try {
+        cursor.close();
+      } catch (DbException e) {
+        if (Objects.isNull(failure)) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+
+    if (Objects.nonNull(failure)) {
+      throw failure;
+    }
+  }
+
+  /**
+   * This merges ordered cursors by always taking the smallest of their next
+   * objects.
+   */
+  private static class MergedCursors<T> implements Iterator<T> {
+    private final PriorityQueue<RowCursor<T>> heads;
+    private final List<RowCursor<T>> pending;
+
+    MergedCursors(List<RowCursor<T>> cursors, Comparator<T> order) {
+      this.heads = new PriorityQueue<>(
+          Comparator.comparing(RowCursor::peek, order));
+      this.pending = new LinkedList<>(cursors);
+    }
+
+    /*
+     * The cursors are only asked for their first rows on first use, so that
+     * no rows are read until the stream is.
+     */
+    private void start() {
+      for (RowCursor<T> cursor : pending) {
+        if (cursor.hasNext()) {
+          heads.add(cursor);
+        }
+      }
+
+      pending.clear();
+    }
+
+    @Override
+    public boolean hasNext() {
+      start();
+      return !heads.isEmpty();
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      RowCursor<T> head = heads.poll();
+      T value = head.next();
+
+      if (head.hasNext()) {
+        heads.add(head);
+      }
+
+      return value;
+    }
+  }
+}
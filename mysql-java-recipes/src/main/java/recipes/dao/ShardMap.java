@@ -0,0 +1,147 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.util.Arrays;
+import java.util.Objects;
+import recipes.exception.DbException;
+
+/**
+ * This class decides which shard holds a recipe. A recipe's ingredients,
+ * steps, and categories always live on the same shard as the recipe, so every
+ * operation on one recipe goes to a single shard. Shard 0 is the primary
+ * configured by recipes.db.host, port, and schema; the others come from
+ * recipes.db.shards. Two strategies are supported:
+ * <ul>
+ * <li>{@link Strategy#HASH}: the shard is the recipe ID modulo the number of
+ * shards. New recipes spread evenly across all shards.</li>
+ * <li>{@link Strategy#RANGE}: each shard holds a contiguous range of recipe
+ * IDs, starting at the configured value. The last shard's range is open-ended,
+ * so new recipes go there until another shard is added above it.</li>
+ * </ul>
+ *
+ * Recipe IDs are handed out from a single sequence on shard 0 rather than by
+ * each shard's AUTO_INCREMENT, so that an ID is unique across all shards and
+ * its shard is known before the recipe is inserted.
+ *
+ * @author Promineo
+ *
+ */
+public class ShardMap {
+
+  /**
+   * The ways recipe IDs can be mapped to shards.
+   */
+  public enum Strategy {
+    HASH, RANGE;
+
+    /**
+     * Convert a configuration value like "hash" to a strategy.
+     *
+     * @param text The configuration value.
+     * @return The matching strategy.
+     * @throws IllegalArgumentException Thrown if there is no match.
+     */
+    public static Strategy fromConfig(String text) {
+      return valueOf(text.trim().toUpperCase().replace('-', '_'));
+    }
+  }
+
+  private final Strategy strategy;
+  private final int shardCount;
+  private final long[] rangeStarts;
+
+  /**
+   * Create a shard map.
+   *
+   * @param strategy How recipe IDs are mapped to shards.
+   * @param shardCount The number of shards, including shard 0.
+   * @param rangeStarts For {@link Strategy#RANGE}, the first recipe ID held by
+   *        each shard, in ascending order, starting with 1 for shard 0.
+   *        Ignored for {@link Strategy#HASH}.
+   * @throws DbException Thrown if the ranges don't fit the shard count.
+   */
+  public ShardMap(Strategy strategy, int shardCount, long[] rangeStarts) {
+    if (shardCount < 1) {
+      throw new DbException("There must be at least one shard.");
+    }
+
+    if (strategy == Strategy.RANGE && shardCount > 1) {
+      checkRanges(shardCount, rangeStarts);
+    }
+
+    this.strategy = strategy;
+    this.shardCount = shardCount;
+    this.rangeStarts =
+        Objects.isNull(rangeStarts) ? new long[0] : rangeStarts.clone();
+  }
+
+  private static void checkRanges(int shardCount, long[] rangeStarts) {
+    if (Objects.isNull(rangeStarts) || rangeStarts.length != shardCount
+        || rangeStarts[0] != 1) {
+      throw new DbException("Range sharding needs one range start per shard ("
+          + shardCount + "), beginning with 1: "
+          + Arrays.toString(rangeStarts));
+    }
+
+    for (int shard = 1; shard < shardCount; shard++) {
+      if (rangeStarts[shard] <= rangeStarts[shard - 1]) {
+        throw new DbException("Range starts must be ascending: "
+            + Arrays.toString(rangeStarts));
+      }
+    }
+  }
+
+  /**
+   * Returns the shard that holds the recipe with the given ID.
+   *
+   * @param recipeId The recipe ID.
+   * @return The shard index, from zero to {@link #getShardCount()} - 1.
+   */
+  public int shardFor(long recipeId) {
+    if (shardCount == 1) {
+      return 0;
+    }
+
+    if (strategy == Strategy.HASH) {
+      return (int) Math.floorMod(recipeId, (long) shardCount);
+    }
+
+    int index = Arrays.binarySearch(rangeStarts, recipeId);
+
+    /* A miss returns -(insertion point) - 1. The range is the one before. */
+    return index >= 0 ? index : Math.max(0, -index - 2);
+  }
+
+  /**
+   * Returns the lowest ID that new recipes should be given. For
+   * {@link Strategy#RANGE} this is the start of the last, open-ended range, so
+   * that new recipes go to the last shard. For {@link Strategy#HASH} it is 1.
+   *
+   * @return The lowest ID for new recipes.
+   */
+  public long getFirstNewRecipeId() {
+    if (strategy == Strategy.RANGE && shardCount > 1) {
+      return rangeStarts[shardCount - 1];
+    }
+
+    return 1;
+  }
+
+  public int getShardCount() {
+    return shardCount;
+  }
+
+  public Strategy getStrategy() {
+    return strategy;
+  }
+
+  @Override
+  public String toString() {
+    return "ShardMap [strategy=" + strategy + ", shards=" + shardCount
+        + (strategy == Strategy.RANGE
+            ? ", rangeStarts=" + Arrays.toString(rangeStarts)
+            : "")
+        + "]";
+  }
+}
@@ -0,0 +1,227 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class keeps the prepared statements of one physical connection open
+ * between uses, keyed by SQL text, so that preparing the same SQL again is a
+ * map lookup instead of a call to the driver (and, with server-side prepares,
+ * a round trip to the server). It lives as long as its {@link PoolEntry}.
+ *
+ * A statement is taken out of the cache while it is in use and put back when
+ * the caller closes it (see {@link CachedPreparedStatement}), so two callers
+ * never share one statement. If the same SQL is prepared again while its
+ * statement is out, a second statement is prepared; whichever is returned
+ * second is closed if the first is already back. The cache holds at most the
+ * configured number of statements and closes the least recently used one to
+ * make room.
+ *
+ * Hits, misses, and evictions are counted per SQL text in {@link Counters}
+ * shared by every connection of a pool.
+ *
+ * @author Promineo
+ *
+ */
+class StatementCache {
+  private static final Logger LOG =
+      Logger.getLogger(StatementCache.class.getName());
+
+  /* Iterating in access order puts the least recently used statement first. */
+  private final Map<String, PreparedStatement> statements =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private final Counters counters;
+
+  /**
+   * This holds a pool's hit, miss, and eviction counts for each SQL text.
+   * Only the first {@link #MAX_TRACKED} distinct statements are counted
+   * separately. Any others are counted together under {@link #OTHER}, so that
+   * an application that builds SQL on the fly can't grow the map without
+   * bound.
+   */
+  static class Counters {
+    static final int MAX_TRACKED = 256;
+    static final String OTHER = "(other statements)";
+
+    private final Map<String, Counter> bySql = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the counter for the given SQL, creating it if there is room.
+     */
+    Counter forSql(String sql) {
+      Counter counter = bySql.get(sql);
+
+      if (Objects.nonNull(counter)) {
+        return counter;
+      }
+
+      String key = bySql.size() < MAX_TRACKED ? sql : OTHER;
+      return bySql.computeIfAbsent(key, k -> new Counter());
+    }
+
+    /**
+     * Returns a snapshot of every counter, busiest statement first.
+     */
+    List<StatementStats> snapshot() {
+      List<StatementStats> stats = new LinkedList<>();
+
+      bySql.forEach((sql, counter) -> stats.add(new StatementStats(sql,
+          counter.hits.sum(), counter.misses.sum(), counter.evictions.sum())));
+      stats.sort((a, b) -> Long.compare(b.getPrepares(), a.getPrepares()));
+
+      return stats;
+    }
+
+    /**
+     * Returns the hits, misses, and evictions of every statement added
+     * together.
+     */
+    long[] totals() {
+      long[] totals = new long[3];
+
+      for (Counter counter : bySql.values()) {
+        totals[0] += counter.hits.sum();
+        totals[1] += counter.misses.sum();
+        totals[2] += counter.evictions.sum();
+      }
+
+      return totals;
+    }
+  }
+
+  /**
+   * The counts for one SQL text.
+   */
+  static class Counter {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+  }
+
+  /**
+   * Create an empty cache.
+   *
+   * @param counters The pool's counters.
+   */
+  StatementCache(Counters counters) {
+    this.counters = counters;
+  }
+
+  /**
+   * Take the cached statement for the given SQL out of the cache, counting a
+   * hit or a miss.
+   *
+   * @param sql The SQL text.
+   * @return The statement, or {@code null} if none is cached. The caller
+   *         must prepare one.
+   */
+  PreparedStatement take(String sql) {
+    PreparedStatement stmt;
+
+    synchronized (statements) {
+      stmt = statements.remove(sql);
+    }
+
+    Counter counter = counters.forSql(sql);
+
+    if (Objects.isNull(stmt)) {
+      counter.misses.increment();
+    } else {
+      counter.hits.increment();
+    }
+
+    return stmt;
+  }
+
+  /**
+   * Put a statement back in the cache after use. The statement is closed
+   * instead if the cache is turned off, if another statement for the same
+   * SQL is already cached, or if it has been closed by the driver. If the
+   * cache is then over its capacity, the least recently used statements are
+   * closed. Statements are closed outside the lock.
+   *
+   * @param sql The SQL text.
+   * @param stmt The statement, with its parameters cleared.
+   * @param capacity The most statements the cache may hold.
+   */
+  void offer(String sql, PreparedStatement stmt, int capacity) {
+    List<PreparedStatement> toClose = new LinkedList<>();
+
+    if (isClosed(stmt)) {
+      return;
+    }
+
+    synchronized (statements) {
+      if (capacity <= 0 || statements.containsKey(sql)) {
+        toClose.add(stmt);
+      } else {
+        statements.put(sql, stmt);
+      }
+
+      Iterator<Map.Entry<String, PreparedStatement>> it =
+          statements.entrySet().iterator();
+
+      while (statements.size() > Math.max(capacity, 0) && it.hasNext()) {
+        Map.Entry<String, PreparedStatement> eldest = it.next();
+
+        counters.forSql(eldest.getKey()).evictions.increment();
+        toClose.add(eldest.getValue());
+        it.remove();
+      }
+    }
+
+    toClose.forEach(StatementCache::closeQuietly);
+  }
+
+  /**
+   * Forget every cached statement without closing it. This is called when
+   * the physical connection is about to be closed, which closes its
+   * statements anyway.
+   */
+  void clear() {
+    synchronized (statements) {
+      statements.clear();
+    }
+  }
+
+  /**
+   * Returns the number of cached statements.
+   */
+  int size() {
+    synchronized (statements) {
+      return statements.size();
+    }
+  }
+
+  private static boolean isClosed(PreparedStatement stmt) {
+    try {
+      return stmt.isClosed();
+    } catch (SQLException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Close a statement, ignoring any error. The statement is being thrown
+   * away, so there is nothing useful to do with an exception.
+   */
+  static void closeQuietly(PreparedStatement stmt) {
+    try {
+      stmt.close();
+    } catch (SQLException e) {
+      LOG.log(Level.FINE, "Error closing a cached statement.", e);
+    }
+  }
+}
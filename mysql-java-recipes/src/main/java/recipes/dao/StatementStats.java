@@ -0,0 +1,66 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+/**
+ * This class holds a point-in-time snapshot of the prepared statement cache
+ * counts for one SQL statement, across every connection of a
+ * {@link ConnectionPool}. Like {@link PoolStats}, the values are copied when
+ * the snapshot is taken.
+ *
+ * @author Promineo
+ *
+ */
+public class StatementStats {
+  private final String sql;
+  private final long hits;
+  private final long misses;
+  private final long evictions;
+
+  StatementStats(String sql, long hits, long misses, long evictions) {
+    this.sql = sql;
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  /**
+   * The number of prepares answered from the cache.
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * The number of prepares that had to go to the driver.
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * The number of times the statement was closed to make room for another.
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * The total number of prepares of this statement.
+   */
+  public long getPrepares() {
+    return hits + misses;
+  }
+
+  @Override
+  public String toString() {
+    long percent = getPrepares() == 0 ? 0 : hits * 100 / getPrepares();
+
+    return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+        + " (" + percent + "% hit): " + sql;
+  }
+}
@@ -0,0 +1,58 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * This is the connection handed to DAO methods that run inside a unit of work
+ * started by {@link DbConnection#inTransaction(java.util.function.Supplier)}.
+ * The unit of work owns the transaction, so the DAO's own transaction calls
+ * are neutralized:
+ * <ul>
+ * <li>{@link #setAutoCommit(boolean)} does nothing. Auto-commit is already off
+ * for the whole unit of work.</li>
+ * <li>{@link #commit()} does nothing. The unit of work commits once, at the
+ * end.</li>
+ * <li>{@link #rollback()} rolls back and marks the unit of work as failed, so
+ * that it can't be committed even if the caller catches the exception.</li>
+ * <li>{@link #close()} does nothing. The unit of work returns the connection
+ * to the pool when it finishes.</li>
+ * </ul>
+ *
+ * @author Promineo
+ *
+ */
+class TransactionConnection extends DelegatingConnection {
+  private boolean rollbackOnly;
+
+  TransactionConnection(Connection delegate) {
+    super(delegate);
+  }
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) throws SQLException {
+    /* The unit of work controls auto-commit. */
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    /* The unit of work commits when it finishes. */
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    rollbackOnly = true;
+    super.rollback();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    /* The unit of work closes the connection when it finishes. */
+  }
+
+  boolean isRollbackOnly() {
+    return rollbackOnly;
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.dao;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class records how long each phase of the startup warm-up took. The
+ * clock starts when the report is created. Each call to
+ * {@link #endPhase(String)} records the time since the previous phase ended
+ * (or since the report was created). The {@link #toString()} method prints the
+ * breakdown like this:
+ *
+ * <pre>
+ * Startup breakdown:
+ *    load configuration and create pools: 85ms
+ *    open 2 connections: 140ms
+ *    prepare 15 statements on each connection: 22ms
+ *    load 10 units and 17 categories in parallel: 9ms
+ *    total: 256ms
+ * </pre>
+ *
+ * A report is meant to be filled in by a single thread.
+ *
+ * @author Promineo
+ *
+ */
+public class WarmUpReport {
+  private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+  private final long startNanos = System.nanoTime();
+  private long phaseStartNanos = startNanos;
+
+  /**
+   * Record the end of a phase.
+   *
+   * @param phase A short description of what was done in the phase.
+   */
+  public void endPhase(String phase) {
+    long now = System.nanoTime();
+
+    phaseNanos.put(phase, now - phaseStartNanos);
+    phaseStartNanos = now;
+  }
+
+  /**
+   * Returns the time from the creation of this report to the end of the last
+   * phase.
+   *
+   * @return The total time in milliseconds.
+   */
+  public long getTotalMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(phaseStartNanos - startNanos);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("Startup breakdown:");
+
+    phaseNanos.forEach((phase, nanos) -> b.append("\n   ").append(phase)
+        .append(": ").append(TimeUnit.NANOSECONDS.toMillis(nanos)).append("ms"));
+
+    b.append("\n   total: ").append(getTotalMillis()).append("ms");
+
+    return b.toString();
+  }
+}
@@ -2,6 +2,9 @@
 
 package recipes.entity;
 
+import recipes.mapping.Id;
+import recipes.mapping.Table;
+
 /**
  * This class holds data from a row in the category table. It has getters and
  * setters for each field, and a {@link #toString()} method.
@@ -9,7 +12,9 @@ package recipes.entity;
  * @author Promineo
  *
  */
+@Table("category")
 public class Category {
+  @Id
   private Integer categoryId;
   private String categoryName;
 
@@ -0,0 +1,30 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.entity;
+
+import recipes.mapping.Id;
+import recipes.mapping.Table;
+
+/**
+ * This record is an immutable copy of a {@link Category}. Unlike a Category,
+ * it can be cached and shared between threads without copying or locking. It
+ * can also be read from the category table through
+ * {@link CategoryRecordMapping}.
+ * 
+ * @author Promineo
+ *
+ */
+@Table("category")
+public record CategoryRecord(@Id Integer categoryId, String categoryName) {
+
+  /**
+   * Returns an immutable copy of a category.
+   * 
+   * @param category The category.
+   * @return The copy.
+   */
+  public static CategoryRecord of(Category category) {
+    return new CategoryRecord(category.getCategoryId(),
+        category.getCategoryName());
+  }
+}
@@ -2,9 +2,12 @@
 
 package recipes.entity;
 
-import java.math.BigDecimal;
 import java.util.Objects;
 import provided.entity.EntityBase;
+import provided.entity.Quantity;
+import recipes.mapping.Id;
+import recipes.mapping.JoinColumn;
+import recipes.mapping.Table;
 
 /**
  * This class holds data for a row in the ingredient table. It contains getters
@@ -18,18 +21,21 @@ import provided.entity.EntityBase;
  * @author Promineo
  *
  */
+@Table("ingredient")
 public class Ingredient extends EntityBase {
+  @Id
   private Integer ingredientId;
   private Integer recipeId;
+  @JoinColumn("unit_id")
   private Unit unit;
   private String ingredientName;
   private String instruction;
   private Integer ingredientOrder;
-  private BigDecimal amount;
+  private Quantity amount;
 
   /**
    * Returns a line like: ID=5: 1/4 cup carrots, thinly sliced. Note that the
-   * {@link #toFraction(BigDecimal)} method in the base class is called to
+   * {@link #toFraction(Quantity)} method in the base class is called to
    * convert from a decimal to a fraction.
    */
   @Override
@@ -42,7 +48,7 @@ public class Ingredient extends EntityBase {
     if (Objects.nonNull(unit) && Objects.nonNull(unit.getUnitId())) {
       String singular = unit.getUnitNameSingular();
       String plural = unit.getUnitNamePlural();
-      String word = amount.compareTo(BigDecimal.ONE) > 0 ? plural : singular;
+      String word = amount.compareTo(Quantity.ONE) > 0 ? plural : singular;
 
       b.append(word).append(" ");
     }
@@ -104,11 +110,11 @@ public class Ingredient extends EntityBase {
     this.ingredientOrder = ingredientOrder;
   }
 
-  public BigDecimal getAmount() {
+  public Quantity getAmount() {
     return amount;
   }
 
-  public void setAmount(BigDecimal amount) {
+  public void setAmount(Quantity amount) {
     this.amount = amount;
   }
 }
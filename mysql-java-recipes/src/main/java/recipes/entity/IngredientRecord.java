@@ -0,0 +1,55 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.entity;
+
+import java.util.Objects;
+import provided.entity.Quantity;
+import recipes.mapping.Id;
+import recipes.mapping.JoinColumn;
+import recipes.mapping.Table;
+
+/**
+ * This record is an immutable copy of an {@link Ingredient}, including its
+ * unit. Unlike an Ingredient, it can be cached and shared between threads
+ * without copying or locking. The unit is {@code null} if the ingredient has
+ * none. It can also be read, with its unit, from the ingredient table joined
+ * to the unit table through {@link IngredientRecordMapping#graphReader}.
+ * 
+ * @author Promineo
+ *
+ */
+@Table("ingredient")
+public record IngredientRecord(@Id Integer ingredientId, Integer recipeId,
+    @JoinColumn("unit_id") UnitRecord unit, String ingredientName,
+    String instruction, Integer ingredientOrder, Quantity amount) {
+
+  /**
+   * Returns an immutable copy of an ingredient and its unit. An ingredient
+   * whose unit has no ID has no unit.
+   * 
+   * @param ingredient The ingredient.
+   * @return The copy.
+   */
+  public static IngredientRecord of(Ingredient ingredient) {
+    Unit unit = ingredient.getUnit();
+    UnitRecord unitRecord =
+        Objects.isNull(unit) || Objects.isNull(unit.getUnitId()) ? null
+            : UnitRecord.of(unit);
+
+    return new IngredientRecord(ingredient.getIngredientId(),
+        ingredient.getRecipeId(), unitRecord, ingredient.getIngredientName(),
+        ingredient.getInstruction(), ingredient.getIngredientOrder(),
+        ingredient.getAmount());
+  }
+
+  /**
+   * Returns a copy of this ingredient with the given unit.
+   * 
+   * @param unit The unit, or {@code null} for none.
+   * @return The new ingredient.
+   */
+  public IngredientRecord withUnit(UnitRecord unit) {
+    return new IngredientRecord(ingredientId, recipeId, unit, ingredientName,
+        instruction, ingredientOrder, amount);
+  }
+}
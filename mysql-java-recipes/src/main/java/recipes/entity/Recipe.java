@@ -8,6 +8,10 @@ import java.time.format.DateTimeFormatter;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import recipes.mapping.Column;
+import recipes.mapping.Id;
+import recipes.mapping.Table;
+import recipes.mapping.Transient;
 
 /**
  * This class hold data for an entire recipe. A recipe table row data is stored
@@ -21,17 +25,23 @@ import java.util.Objects;
  * @author Promineo
  *
  */
+@Table("recipe")
 public class Recipe {
+  @Id
   private Integer recipeId;
   private String recipeName;
   private String notes;
   private Integer numServings;
   private LocalTime prepTime;
   private LocalTime cookTime;
+  @Column(insertable = false)
   private LocalDateTime createdAt;
 
+  @Transient
   private List<Ingredient> ingredients = new LinkedList<>();
+  @Transient
   private List<Step> steps = new LinkedList<>();
+  @Transient
   private List<Category> categories = new LinkedList<>();
 
   /**
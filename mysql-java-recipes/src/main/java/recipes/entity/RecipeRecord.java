@@ -0,0 +1,82 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.entity;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import recipes.mapping.Id;
+import recipes.mapping.Table;
+import recipes.mapping.Transient;
+
+/**
+ * This record is an immutable copy of a {@link Recipe}, with its ingredients,
+ * steps, and categories. The lists can't be changed, and neither can anything
+ * in them, so a whole recipe can be cached and handed to any number of threads
+ * without copying or locking.
+ * 
+ * The lists are copied when the record is created, and a {@code null} list
+ * becomes an empty one. {@link RecipeRecordMapping} reads a recipe row without
+ * its children, which {@link #withChildren} adds.
+ * 
+ * @author Promineo
+ *
+ */
+@Table("recipe")
+public record RecipeRecord(@Id Integer recipeId, String recipeName,
+    String notes, Integer numServings, LocalTime prepTime, LocalTime cookTime,
+    LocalDateTime createdAt, @Transient List<IngredientRecord> ingredients,
+    @Transient List<StepRecord> steps,
+    @Transient List<CategoryRecord> categories) {
+
+  public RecipeRecord {
+    ingredients = copy(ingredients);
+    steps = copy(steps);
+    categories = copy(categories);
+  }
+
+  private static <T> List<T> copy(List<T> list) {
+    return Objects.isNull(list) ? List.of() : List.copyOf(list);
+  }
+
+  /**
+   * Returns an immutable copy of a recipe, with its ingredients, steps, and
+   * categories.
+   * 
+   * @param recipe The recipe.
+   * @return The copy.
+   */
+  public static RecipeRecord of(Recipe recipe) {
+    // @formatter:off
+    return new RecipeRecord(recipe.getRecipeId(), recipe.getRecipeName(),
+        recipe.getNotes(), recipe.getNumServings(), recipe.getPrepTime(),
+        recipe.getCookTime(), recipe.getCreatedAt(),
+        recipe.getIngredients().stream()
+            .map(IngredientRecord::of)
+            .collect(Collectors.toList()),
+        recipe.getSteps().stream()
+            .map(StepRecord::of)
+            .collect(Collectors.toList()),
+        recipe.getCategories().stream()
+            .map(CategoryRecord::of)
+            .collect(Collectors.toList()));
+    // @formatter:on
+  }
+
+  /**
+   * Returns a copy of this recipe with the given ingredients, steps, and
+   * categories.
+   * 
+   * @param ingredients The ingredients.
+   * @param steps The steps.
+   * @param categories The categories.
+   * @return The new recipe.
+   */
+  public RecipeRecord withChildren(List<IngredientRecord> ingredients,
+      List<StepRecord> steps, List<CategoryRecord> categories) {
+    return new RecipeRecord(recipeId, recipeName, notes, numServings, prepTime,
+        cookTime, createdAt, ingredients, steps, categories);
+  }
+}
@@ -0,0 +1,19 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.entity;
+
+import recipes.mapping.Id;
+import recipes.mapping.Table;
+
+/**
+ * This record is a projection of the recipe table: just the ID and name of a
+ * recipe, which is all a list of recipes shows. A query for summaries selects
+ * {@link RecipeSummaryMapping#COLUMNS} and so doesn't fetch the notes or the
+ * other columns of {@link Recipe}.
+ *
+ * @author Promineo
+ *
+ */
+@Table("recipe")
+public record RecipeSummary(@Id Integer recipeId, String recipeName) {
+}
@@ -2,6 +2,9 @@
 
 package recipes.entity;
 
+import recipes.mapping.Id;
+import recipes.mapping.Table;
+
 /**
  * This class holds data for a single row in the step table. It contains getter
  * and setter methods, as well as a {@link #toString()} method.
@@ -9,7 +12,9 @@ package recipes.entity;
  * @author Promineo
  *
  */
+@Table("step")
 public class Step {
+  @Id
   private Integer stepId;
   private Integer recipeId;
   private Integer stepOrder;
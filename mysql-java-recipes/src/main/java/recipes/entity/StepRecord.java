@@ -0,0 +1,30 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.entity;
+
+import recipes.mapping.Id;
+import recipes.mapping.Table;
+
+/**
+ * This record is an immutable copy of a {@link Step}. Unlike a Step, it can be
+ * cached and shared between threads without copying or locking. It can also be
+ * read from the step table through {@link StepRecordMapping}.
+ * 
+ * @author Promineo
+ *
+ */
+@Table("step")
+public record StepRecord(@Id Integer stepId, Integer recipeId, Integer stepOrder,
+    String stepText) {
+
+  /**
+   * Returns an immutable copy of a step.
+   * 
+   * @param step The step.
+   * @return The copy.
+   */
+  public static StepRecord of(Step step) {
+    return new StepRecord(step.getStepId(), step.getRecipeId(),
+        step.getStepOrder(), step.getStepText());
+  }
+}
@@ -2,6 +2,9 @@
 
 package recipes.entity;
 
+import recipes.mapping.Id;
+import recipes.mapping.Table;
+
 /**
  * This class contains data that represents a row in the unit table. A unit has
  * a singular name (i.e., 'teaspoon') and a plural name (i.e., 'teaspoons').
@@ -13,7 +16,9 @@ package recipes.entity;
  * @author Promineo
  *
  */
+@Table("unit")
 public class Unit {
+  @Id
   private Integer unitId;
   private String unitNameSingular;
   private String unitNamePlural;
@@ -0,0 +1,32 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.entity;
+
+import java.util.Objects;
+import recipes.mapping.Id;
+import recipes.mapping.Table;
+
+/**
+ * This record is an immutable copy of a {@link Unit}. Unlike a Unit, it can be
+ * cached and shared between threads without copying or locking. It can also be
+ * read from the unit table through {@link UnitRecordMapping}.
+ * 
+ * @author Promineo
+ *
+ */
+@Table("unit")
+public record UnitRecord(@Id Integer unitId, String unitNameSingular,
+    String unitNamePlural) {
+
+  /**
+   * Returns an immutable copy of a unit.
+   * 
+   * @param unit The unit. It may be {@code null}.
+   * @return The copy, or {@code null} if the unit is {@code null}.
+   */
+  public static UnitRecord of(Unit unit) {
+    return Objects.isNull(unit) ? null
+        : new UnitRecord(unit.getUnitId(), unit.getUnitNameSingular(),
+            unit.getUnitNamePlural());
+  }
+}
@@ -0,0 +1,24 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.exception;
+
+/**
+ * This exception is thrown when a database operation is turned away because
+ * too many operations are already running or waiting. Nothing was sent to the
+ * database, so the operation can safely be retried later.
+ *
+ * @author Promineo
+ *
+ */
+@SuppressWarnings("serial")
+public class DbOverloadException extends DbException {
+
+  /**
+   * Creates an exception with a message.
+   *
+   * @param message The message.
+   */
+  public DbOverloadException(String message) {
+    super(message);
+  }
+}
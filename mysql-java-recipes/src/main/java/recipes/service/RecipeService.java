@@ -3,14 +3,22 @@ package recipes.service;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import recipes.dao.RecipeDao;
+import recipes.dao.WarmUpReport;
 import recipes.entity.Category;
 import recipes.entity.Ingredient;
 import recipes.entity.Recipe;
+import recipes.entity.RecipeRecord;
+import recipes.entity.RecipeSummary;
 import recipes.entity.Step;
 import recipes.entity.Unit;
 import recipes.exception.DbException;
@@ -24,11 +32,14 @@ public class RecipeService {
   /**
    * This method creates the recipe schema, then populates the tables with data.
    * Before tables are created, they are dropped, so calling this method resets
-   * the data tables to a known, initial state.
+   * the data tables to a known, initial state. If the recipes are sharded, the
+   * files are loaded on every shard and then each sample recipe is kept only
+   * on the shard that owns it.
    */
   public void createAndPopulateTables() {
     loadFromFile(SCHEMA_FILE);
     loadFromFile(DATA_FILE);
+    recipeDao.distributeLoadedRecipes();
   }
 
   /**
@@ -178,6 +189,119 @@ public class RecipeService {
     }
   }
 
+  /**
+   * This runs several service calls in a single database transaction. All the
+   * DAO calls made inside the work share one connection and are committed
+   * once when the work finishes. If anything fails, nothing is committed.
+   * For example:
+   * 
+   * <pre>
+   * Recipe recipe = recipeService.inTransaction(tx -> {
+   *   tx.addStep(step);
+   *   return tx.fetchRecipeById(step.getRecipeId());
+   * });
+   * </pre>
+   * 
+   * @param <T> The type returned by the work.
+   * @param work The work to do. It is passed this service.
+   * @return The value returned by the work.
+   */
+  public <T> T inTransaction(Function<RecipeService, T> work) {
+    return recipeDao.inTransaction(() -> work.apply(this));
+  }
+
+  /**
+   * This adds a recipe along with its ingredients, steps, and categories in a
+   * single transaction, then returns the recipe as stored. The ingredients
+   * and steps are added in list order, each list as one batch. Categories are
+   * matched by name.
+   * 
+   * @param recipe The recipe to add, with its child lists filled in.
+   * @return The recipe as read back from the database.
+   */
+  public Recipe addCompleteRecipe(Recipe recipe) {
+    return inTransaction(tx -> {
+      Integer recipeId = tx.addRecipe(recipe).getRecipeId();
+
+      tx.addIngredients(recipeId, recipe.getIngredients());
+      tx.addSteps(recipeId, recipe.getSteps());
+
+      for (Category category : recipe.getCategories()) {
+        tx.addCategoryToRecipe(recipeId, category.getCategoryName());
+      }
+
+      return tx.fetchRecipeById(recipeId);
+    });
+  }
+
+  /**
+   * This method calls the recipe DAO to add an ingredient right after another
+   * one instead of at the end.
+   * 
+   * @param ingredient The ingredient to add.
+   * @param afterIngredientId The ID of the ingredient it goes after, or
+   *        {@code null} to put it first.
+   * @return The ID of the new ingredient.
+   */
+  public Integer insertIngredientAfter(Ingredient ingredient,
+      Integer afterIngredientId) {
+    return recipeDao.insertIngredientAfter(ingredient, afterIngredientId);
+  }
+
+  /**
+   * This method calls the recipe DAO to add a step right after another one
+   * instead of at the end.
+   * 
+   * @param step The step to add.
+   * @param afterStepId The ID of the step it goes after, or {@code null} to
+   *        put it first.
+   * @return The ID of the new step.
+   */
+  public Integer insertStepAfter(Step step, Integer afterStepId) {
+    return recipeDao.insertStepAfter(step, afterStepId);
+  }
+
+  /**
+   * This method calls the recipe DAO to move an ingredient so that it comes
+   * right after another one.
+   * 
+   * @param recipeId The recipe ID.
+   * @param ingredientId The ID of the ingredient to move.
+   * @param afterIngredientId The ID of the ingredient it goes after, or
+   *        {@code null} to move it to the top.
+   */
+  public void moveIngredient(Integer recipeId, Integer ingredientId,
+      Integer afterIngredientId) {
+    recipeDao.moveIngredient(recipeId, ingredientId, afterIngredientId);
+  }
+
+  /**
+   * This method calls the recipe DAO to move a step so that it comes right
+   * after another one.
+   * 
+   * @param recipeId The recipe ID.
+   * @param stepId The ID of the step to move.
+   * @param afterStepId The ID of the step it goes after, or {@code null} to
+   *        make it the first step.
+   */
+  public void moveStep(Integer recipeId, Integer stepId, Integer afterStepId) {
+    recipeDao.moveStep(recipeId, stepId, afterStepId);
+  }
+
+  /**
+   * This adds many complete recipes at once, for bulk loads. Unlike
+   * {@link #addCompleteRecipe(Recipe)}, the rows of each table are sent to the
+   * database as one batch for all the recipes. See
+   * {@link RecipeDao#importRecipes(List)}.
+   * 
+   * @param recipes The recipes to add, with their child lists filled in.
+   * @return The recipes, with the IDs of the recipes and their children
+   *         filled in.
+   */
+  public List<Recipe> importRecipes(List<Recipe> recipes) {
+    return recipeDao.importRecipes(recipes);
+  }
+
   /**
    * This calls the DAO object to insert a recipe into the recipe table.
    * 
@@ -203,6 +327,51 @@ public class RecipeService {
     // @formatter:on
   }
 
+  /**
+   * Calls the DAO to return an immutable copy of a recipe with its
+   * ingredients, steps, and categories. It can be cached and shared between
+   * threads without copying.
+   * 
+   * @param recipeId The recipe ID to fetch.
+   * @return The requested recipe.
+   * @throws NoSuchElementException Thrown if the recipe with the given ID is
+   *         not found.
+   */
+  public RecipeRecord fetchRecipeRecordById(Integer recipeId) {
+    return recipeDao.fetchRecipeRecordById(recipeId)
+        .orElseThrow(() -> new NoSuchElementException(
+            "Recipe with id=" + recipeId + " does not exist"));
+  }
+
+  /**
+   * This method returns every recipe, ordered by name, as a stream that reads
+   * the rows as it goes. It is meant for jobs that walk the whole catalog.
+   * The stream holds database connections until it is closed, so the caller
+   * must close it, ideally with try-with-resources. See
+   * {@link RecipeDao#streamAllRecipes()}.
+   * 
+   * @return The stream of recipes, without ingredients, steps, or categories.
+   */
+  public Stream<Recipe> streamAllRecipes() {
+    return recipeDao.streamAllRecipes();
+  }
+
+  /**
+   * This method returns the ID and name of every recipe, sorted by ID. It
+   * fetches only those two columns, so it is cheaper than
+   * {@link #fetchRecipes()} when all that's needed is a list.
+   * 
+   * @return The list of recipe summaries.
+   */
+  public List<RecipeSummary> fetchRecipeSummaries() {
+    // @formatter:off
+    return recipeDao.fetchRecipeSummaries()
+        .stream()
+        .sorted(Comparator.comparing(RecipeSummary::recipeId))
+        .collect(Collectors.toList());
+    // @formatter:on
+  }
+
   /**
    * Calls the DAO to return a single recipe with ingredients, steps, and
    * categories.
@@ -240,18 +409,133 @@ public class RecipeService {
    * This method calls the recipe DAO to add an ingredient to a recipe.
    * 
    * @param ingredient The ingredient to add.
+   * @return The ID of the new ingredient.
    */
-  public void addIngredient(Ingredient ingredient) {
-    recipeDao.addIngredientToRecipe(ingredient);
+  public Integer addIngredient(Ingredient ingredient) {
+    return recipeDao.addIngredientToRecipe(ingredient);
+  }
+
+  /**
+   * This method calls the recipe DAO to add several ingredients to a recipe
+   * in one batch.
+   * 
+   * @param recipeId The recipe ID.
+   * @param ingredients The ingredients to add, in order.
+   * @return The IDs of the new ingredients, in list order.
+   */
+  public List<Integer> addIngredients(Integer recipeId,
+      List<Ingredient> ingredients) {
+    return recipeDao.addIngredientsToRecipe(recipeId, ingredients);
   }
 
   /**
    * This method calls the recipe DAO to add a step to a recipe.
    * 
    * @param step The step to add.
+   * @return The ID of the new step.
+   */
+  public Integer addStep(Step step) {
+    return recipeDao.addStepToRecipe(step);
+  }
+
+  /**
+   * This method calls the recipe DAO to add several steps to a recipe in one
+   * batch.
+   * 
+   * @param recipeId The recipe ID.
+   * @param steps The steps to add, in order.
+   * @return The IDs of the new steps, in list order.
+   */
+  public List<Integer> addSteps(Integer recipeId, List<Step> steps) {
+    return recipeDao.addStepsToRecipe(recipeId, steps);
+  }
+
+  /**
+   * Returns a description of the units, categories, and strings that fetched
+   * recipes share, with an estimate of the memory saved by sharing them.
+   * 
+   * @return The description.
+   */
+  public String describeSharedObjects() {
+    return recipeDao.describeSharedObjects();
+  }
+
+  /**
+   * Returns how often each SQL statement was found in the connections'
+   * prepared statement caches.
+   * 
+   * @return The description.
+   */
+  public String describeStatementCache() {
+    return recipeDao.describeStatementCache();
+  }
+
+  /**
+   * Returns the latency and row counts of each named query, the one with the
+   * most total time first.
+   * 
+   * @return The description.
+   */
+  public String describeQueries() {
+    return recipeDao.describeQueries();
+  }
+
+  /**
+   * Returns {@code true} if {@link #validateQueries()} should be called at
+   * startup.
+   */
+  public boolean isQueryValidationEnabled() {
+    return recipeDao.isQueryValidationEnabled();
+  }
+
+  /**
+   * Check the DAO's queries against the live schema.
+   * 
+   * @return A message for each query the database rejected. The list is
+   *         empty if every query is valid.
+   * @throws DbException Thrown if the database can't be reached.
+   */
+  public List<String> validateQueries() {
+    return recipeDao.validateQueries();
+  }
+
+  /**
+   * Returns {@code true} if {@link #warmUp()} should be called at startup.
+   */
+  public boolean isWarmUpEnabled() {
+    return recipeDao.isWarmUpEnabled();
+  }
+
+  /**
+   * Get the application ready to serve requests at full speed. The DAO opens
+   * its connections and prepares its statements, then the units and
+   * categories are loaded in parallel.
+   * 
+   * @return A report showing how long each step took.
+   * @throws DbException Thrown if any step fails.
    */
-  public void addStep(Step step) {
-    recipeDao.addStepToRecipe(step);
+  public WarmUpReport warmUp() {
+    WarmUpReport report = new WarmUpReport();
+
+    recipeDao.warmUp(report);
+
+    CompletableFuture<List<Unit>> units =
+        CompletableFuture.supplyAsync(recipeDao::fetchAllUnits);
+    CompletableFuture<List<Category>> categories =
+        CompletableFuture.supplyAsync(recipeDao::fetchAllCategories);
+
+    try {
+      report.endPhase("load " + units.join().size() + " units and "
+          + categories.join().size() + " categories in parallel");
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      throw new DbException(e.getCause());
+    }
+
+    return report;
   }
 
   /**
@@ -118,3 +118,17 @@ INSERT INTO step (recipe_id, step_order, step_text) VALUES (4, 10, 'Or you could
 INSERT INTO step (recipe_id, step_order, step_text) VALUES (4, 11, 'May be doubled for serving a crowd.');
 
 INSERT INTO recipe_category (recipe_id, category_id) VALUES (4, 10);
+
+-- Space the sample orders 1024 apart, leaving room to insert between them
+UPDATE ingredient SET ingredient_order = ingredient_order * 1024;
+UPDATE step SET step_order = step_order * 1024;
+
+-- Start each recipe's order counters after its sample ingredients and steps
+UPDATE recipe r SET
+  last_ingredient_order = (SELECT COALESCE(MAX(ingredient_order), 0) FROM ingredient i WHERE i.recipe_id = r.recipe_id),
+  last_step_order = (SELECT COALESCE(MAX(step_order), 0) FROM step s WHERE s.recipe_id = r.recipe_id);
+
+-- Start the ID sequences after the sample rows
+UPDATE id_sequence SET last_id = (SELECT COALESCE(MAX(recipe_id), 0) FROM recipe) WHERE table_name = 'recipe';
+UPDATE id_sequence SET last_id = (SELECT COALESCE(MAX(ingredient_id), 0) FROM ingredient) WHERE table_name = 'ingredient';
+UPDATE id_sequence SET last_id = (SELECT COALESCE(MAX(step_id), 0) FROM step) WHERE table_name = 'step';
@@ -4,6 +4,8 @@ DROP TABLE IF EXISTS recipe_category;
 DROP TABLE IF EXISTS unit;
 DROP TABLE IF EXISTS category;
 DROP TABLE IF EXISTS recipe;
+DROP TABLE IF EXISTS recipe_id_sequence;
+DROP TABLE IF EXISTS id_sequence;
 
 CREATE TABLE recipe (
   recipe_id INT AUTO_INCREMENT NOT NULL,
@@ -13,6 +15,11 @@ CREATE TABLE recipe (
   prep_time TIME,
   cook_time TIME,
   created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  -- The order of the recipe's last ingredient and step. Orders are 1024
+  -- apart, so a child can be inserted or moved between two others. Adding a
+  -- child moves the counter, which locks the recipe row until the commit.
+  last_ingredient_order INT NOT NULL DEFAULT 0,
+  last_step_order INT NOT NULL DEFAULT 0,
   PRIMARY KEY (recipe_id)
 );
 
@@ -43,7 +50,8 @@ CREATE TABLE step (
   step_order INT NOT NULL,
   step_text TEXT NOT NULL,
   PRIMARY KEY (step_id),
-  FOREIGN KEY (recipe_id) REFERENCES recipe (recipe_id) ON DELETE CASCADE
+  FOREIGN KEY (recipe_id) REFERENCES recipe (recipe_id) ON DELETE CASCADE,
+  UNIQUE KEY (recipe_id, step_order)
 );
 
 CREATE TABLE ingredient (
@@ -56,5 +64,18 @@ CREATE TABLE ingredient (
   amount DECIMAL(7, 2),
   PRIMARY KEY (ingredient_id),
   FOREIGN KEY (recipe_id) REFERENCES recipe (recipe_id) ON DELETE CASCADE,
-  FOREIGN KEY (unit_id) REFERENCES unit (unit_id)
+  FOREIGN KEY (unit_id) REFERENCES unit (unit_id),
+  UNIQUE KEY (recipe_id, ingredient_order)
+);
+
+-- Hands out blocks of IDs when the application assigns them: recipe IDs when
+-- recipes are sharded, and all three with recipes.db.id-block-size set. Only
+-- shard 0's rows are used.
+CREATE TABLE id_sequence (
+  table_name VARCHAR(64) NOT NULL,
+  last_id INT NOT NULL,
+  PRIMARY KEY (table_name)
 );
+
+INSERT INTO id_sequence (table_name, last_id) VALUES
+  ('recipe', 0), ('ingredient', 0), ('step', 0);
@@ -0,0 +1,30 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.mapping;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This overrides how a field of a {@link Table} entity is mapped to its
+ * column. It is only needed when the defaults don't fit.
+ *
+ * @author Promineo
+ *
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Column {
+  /**
+   * Returns the column name. The default is the field name in snake case.
+   */
+  String name() default "";
+
+  /**
+   * Returns {@code false} if the column is left out of INSERT statements, for
+   * example because the database fills in a default value.
+   */
+  boolean insertable() default true;
+}
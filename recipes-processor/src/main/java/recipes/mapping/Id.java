@@ -0,0 +1,22 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.mapping;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This marks the primary key field of a {@link Table} entity. The key is
+ * assumed to be set by the database (AUTO_INCREMENT), so it is left out of the
+ * generated INSERT_SQL. INSERT_WITH_ID_SQL adds it as the last parameter for
+ * callers that assign the key themselves.
+ *
+ * @author Promineo
+ *
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Id {
+}
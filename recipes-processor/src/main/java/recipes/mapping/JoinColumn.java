@@ -0,0 +1,30 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.mapping;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This marks a field that holds another {@link Table} entity, where this
+ * table stores only the other entity's {@link Id} in a foreign key column. For
+ * example, an ingredient holds a Unit, and the ingredient table holds its
+ * unit_id. The binder writes the other entity's ID (or NULL if the field is
+ * null). The plain reader leaves the field alone, or null in a record. The
+ * graph reader creates the other entity from the joined columns of the same
+ * row, with that entity's own reader, and shares it between rows with the
+ * same ID.
+ *
+ * @author Promineo
+ *
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface JoinColumn {
+  /**
+   * Returns the foreign key column name.
+   */
+  String value();
+}
@@ -0,0 +1,41 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.mapping;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This marks an entity class that is stored in a database table. At build
+ * time, the {@link recipes.mapping.processor.MappingProcessor} generates a
+ * class named after the entity with "Mapping" on the end (RecipeMapping for
+ * Recipe), in the same package. It holds the table's SQL, a binder that sets
+ * INSERT parameters from an entity, and a reader that creates entities from
+ * result set rows.
+ *
+ * Every instance field is mapped to a column unless it is marked
+ * {@link Transient}. The column name is the field name converted to snake case
+ * (numServings to num_servings) unless {@link Column} says otherwise. The
+ * entity needs a public zero-argument constructor, and a public getter and
+ * setter for each mapped field.
+ *
+ * A record may be marked too. It is a projection: a read-only view of some of
+ * the table's columns, such as a summary for a list. Each record component is
+ * a column, and the reader creates records through the canonical constructor.
+ * A {@link Transient} component is passed as null, and a {@link JoinColumn}
+ * component is filled in by the graph reader. Since a projection isn't
+ * inserted, its mapping has no INSERT SQL or binder.
+ *
+ * @author Promineo
+ *
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface Table {
+  /**
+   * Returns the table name.
+   */
+  String value();
+}
@@ -0,0 +1,21 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.mapping;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This marks a field of a {@link Table} entity that has no column, such as a
+ * list of child rows that are loaded separately. A record component marked
+ * this is passed to the canonical constructor as null.
+ *
+ * @author Promineo
+ *
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Transient {
+}
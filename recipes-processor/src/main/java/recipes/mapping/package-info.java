@@ -0,0 +1 @@
+package recipes.mapping;
\ No newline at end of file
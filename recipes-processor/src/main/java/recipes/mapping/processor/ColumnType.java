@@ -0,0 +1,135 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.mapping.processor;
+
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * The Java field types that can be mapped to a column, with the JDBC calls
+ * used to bind and read each one. Generated code uses the typed setters and
+ * getters (setInt, getBigDecimal, etc.) rather than setObject and getObject
+ * wherever JDBC has one. Types in java.lang are written by simple name; the
+ * others are written fully qualified so the generated class needs no extra
+ * imports.
+ *
+ * Each type has a conversion from the value its getter returns, and one to
+ * the value its setter takes, written as format strings with %s for the
+ * value. A Quantity, for example, is read with getBigDecimal and converted
+ * with Quantity.of, and bound with setBigDecimal after toBigDecimal. Dates
+ * and times go through the java.sql types, so they are bound with setDate,
+ * setTime, and setTimestamp rather than setObject.
+ *
+ * @author Promineo
+ *
+ */
+enum ColumnType {
+  // @formatter:off
+  INTEGER("java.lang.Integer", "Integer", "INTEGER",
+      "setInt", "%s", "int", "getInt", "%s"),
+  LONG("java.lang.Long", "Long", "BIGINT",
+      "setLong", "%s", "long", "getLong", "%s"),
+  DOUBLE("java.lang.Double", "Double", "DOUBLE",
+      "setDouble", "%s", "double", "getDouble", "%s"),
+  BOOLEAN("java.lang.Boolean", "Boolean", "BOOLEAN",
+      "setBoolean", "%s", "boolean", "getBoolean", "%s"),
+  STRING("java.lang.String", "String", "VARCHAR",
+      "setString", "%s", "String", "getString", "%s"),
+  BIG_DECIMAL("java.math.BigDecimal", "java.math.BigDecimal", "DECIMAL",
+      "setBigDecimal", "%s", "java.math.BigDecimal", "getBigDecimal", "%s"),
+  QUANTITY("provided.entity.Quantity", "provided.entity.Quantity", "DECIMAL",
+      "setBigDecimal", "%s.toBigDecimal()", "java.math.BigDecimal",
+      "getBigDecimal", "provided.entity.Quantity.of(%s)"),
+  LOCAL_DATE("java.time.LocalDate", "java.time.LocalDate", "DATE",
+      "setDate", "java.sql.Date.valueOf(%s)", "java.sql.Date", "getDate",
+      "%s.toLocalDate()"),
+  LOCAL_TIME("java.time.LocalTime", "java.time.LocalTime", "TIME",
+      "setTime", "java.sql.Time.valueOf(%s)", "java.sql.Time", "getTime",
+      "%s.toLocalTime()"),
+  LOCAL_DATE_TIME("java.time.LocalDateTime", "java.time.LocalDateTime",
+      "TIMESTAMP", "setTimestamp", "java.sql.Timestamp.valueOf(%s)",
+      "java.sql.Timestamp", "getTimestamp", "%s.toLocalDateTime()");
+  // @formatter:on
+
+  private final String qualifiedName;
+  final String javaType;
+  private final String sqlType;
+  private final String jdbcSetter;
+  private final String bindConversion;
+  private final String readType;
+  private final String jdbcGetter;
+  private final String readConversion;
+
+  ColumnType(String qualifiedName, String javaType, String sqlType,
+      String jdbcSetter, String bindConversion, String readType,
+      String jdbcGetter, String readConversion) {
+    this.qualifiedName = qualifiedName;
+    this.javaType = javaType;
+    this.sqlType = sqlType;
+    this.jdbcSetter = jdbcSetter;
+    this.bindConversion = bindConversion;
+    this.readType = readType;
+    this.jdbcGetter = jdbcGetter;
+    this.readConversion = readConversion;
+  }
+
+  /**
+   * Returns the column type for a field type, or {@code null} if the type
+   * isn't supported.
+   *
+   * @param type The field type.
+   */
+  static ColumnType of(TypeMirror type) {
+    String name = type.toString();
+
+    for (ColumnType columnType : values()) {
+      if (columnType.qualifiedName.equals(name)) {
+        return columnType;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the name of the generated helper that binds this type, e.g.,
+   * setInteger.
+   */
+  String setterName() {
+    return "set" + javaType.substring(javaType.lastIndexOf('.') + 1);
+  }
+
+  /**
+   * Write the body of the helper that binds a value of this type, which may
+   * be null, to parameter "index" of "stmt".
+   */
+  void bind(SourceBuilder src) {
+    src.open("if (Objects.isNull(value)) {");
+    src.line("stmt.setNull(index, Types." + sqlType + ");");
+    src.reopen("} else {");
+    src.line("stmt." + jdbcSetter + "(index, "
+        + String.format(bindConversion, "value") + ");");
+    src.close("}");
+  }
+
+  /**
+   * Write the code that reads this type from a column of "rs" and stores it
+   * unless it is SQL NULL.
+   *
+   * @param src The source being written.
+   * @param column The expression holding the column index.
+   * @param store The statement that stores the value, with %s in place of
+   *        the value: a setter call on "entity", or an assignment to a local.
+   */
+  void read(SourceBuilder src, String column, String store) {
+    src.line(readType + " value = rs." + jdbcGetter + "(" + column + ");");
+    src.line();
+
+    boolean primitive = Character.isLowerCase(readType.charAt(0))
+        && readType.indexOf('.') < 0;
+
+    src.open(primitive ? "if (!rs.wasNull()) {"
+        : "if (Objects.nonNull(value)) {");
+    src.line(String.format(store, String.format(readConversion, "value")));
+    src.close("}");
+  }
+}
@@ -0,0 +1,915 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.mapping.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import recipes.mapping.Column;
+import recipes.mapping.Id;
+import recipes.mapping.JoinColumn;
+import recipes.mapping.Table;
+import recipes.mapping.Transient;
+
+/**
+ * This annotation processor generates the database mapping for each
+ * {@link Table} entity at build time, so that nothing has to be discovered by
+ * reflection at run time. For an entity named Recipe it writes RecipeMapping
+ * in the same package, holding:
+ * <ul>
+ * <li>TABLE, ID_COLUMN, and COLUMNS (every mapped column, for SELECT
+ * lists).</li>
+ * <li>INSERT_SQL, which inserts every insertable column except the ID, and
+ * INSERT_WITH_ID_SQL, which adds the ID as the last parameter.</li>
+ * <li>bindInsert(stmt, index, entity), which sets the INSERT_SQL parameters
+ * from the entity's getters using typed setters (setInt, setString, etc.), and
+ * returns the next parameter index.</li>
+ * <li>reader(rs), which finds the entity's columns in a result set once, and
+ * returns a Reader whose read(rs) creates an entity from the current row with
+ * typed getters and the entity's setters. Columns missing from the result set
+ * are skipped, and SQL NULL leaves a field unchanged, just like
+ * DaoBase.extract.</li>
+ * <li>For an entity with {@link JoinColumn} fields, graphReader(rs), which
+ * returns a GraphReader that also creates the joined entities from the same
+ * row with their own readers. Joined entities are kept in an identity map by
+ * ID for the life of the reader, so one query creates one object per joined
+ * row ID, however many rows refer to it.</li>
+ * </ul>
+ *
+ * A record marked {@link Table} is a projection of some of the table's
+ * columns. Its mapping has TABLE, ID_COLUMN, COLUMNS (only the record's
+ * columns, so a SELECT fetches nothing else), and a reader that passes the
+ * values to the canonical constructor. A column that is missing or SQL NULL
+ * is passed as {@code null}, and so is a {@link Transient} component. A
+ * record's {@link JoinColumn} components are passed to the reader's
+ * read(rs, ...) method, which the graph reader calls with the joined records,
+ * and read(rs) passes them as {@code null}.
+ *
+ * If the {@value #SCHEMA_OPTION} option names a schema script, every table and
+ * column is checked against it, and a name that isn't there fails the build.
+ * So do unsupported field types and missing getters or setters.
+ *
+ * @author Promineo
+ *
+ */
+@SupportedAnnotationTypes("recipes.mapping.Table")
+@SupportedOptions(MappingProcessor.SCHEMA_OPTION)
+public class MappingProcessor extends AbstractProcessor {
+  /** The processor option that names the schema script, -Arecipes.schema. */
+  static final String SCHEMA_OPTION = "recipes.schema";
+
+  private static final String GENERATED_SUFFIX = "Mapping";
+
+  private Messager messager;
+  private SchemaFile schema;
+
+  /**
+   * This is one mapped field of an entity.
+   */
+  private static class MappedField {
+    private String fieldName;
+    private String column;
+    private String getter;
+    private String setter;
+    private ColumnType type;
+    private boolean id;
+    private boolean insertable = true;
+
+    /* For a record component marked Transient, which has no column. */
+    private boolean transientComponent;
+
+    /* For a record component, the Java type of its local in the reader. */
+    private String localType;
+
+    /* For a join column, the getter of the referenced entity's ID. */
+    private String joinIdGetter;
+
+    /* For a join column, the referenced entity and its mapping class. */
+    private String joinType;
+    private String joinMapping;
+  }
+
+  @Override
+  public synchronized void init(ProcessingEnvironment processingEnv) {
+    super.init(processingEnv);
+    messager = processingEnv.getMessager();
+
+    String schemaPath = processingEnv.getOptions().get(SCHEMA_OPTION);
+
+    if (Objects.isNull(schemaPath)) {
+      messager.printMessage(Kind.WARNING, "No -A" + SCHEMA_OPTION
+          + " option was given, so column names will not be checked.");
+      return;
+    }
+
+    try {
+      schema = new SchemaFile(Path.of(schemaPath));
+    } catch (IOException e) {
+      messager.printMessage(Kind.ERROR,
+          "Unable to read schema " + schemaPath + ": " + e);
+    }
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations,
+      RoundEnvironment roundEnv) {
+    for (Element element : roundEnv.getElementsAnnotatedWith(Table.class)) {
+      if (element.getKind() != ElementKind.CLASS
+          && element.getKind() != ElementKind.RECORD) {
+        messager.printMessage(Kind.ERROR, "@Table must be on a class or record",
+            element);
+        continue;
+      }
+
+      TypeElement entity = (TypeElement) element;
+      String table = entity.getAnnotation(Table.class).value();
+      List<MappedField> fields = mapFields(entity, table);
+
+      if (Objects.nonNull(fields)) {
+        generate(entity, table, fields);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Work out the mapping of each field, reporting every problem found.
+   *
+   * @param entity The entity class.
+   * @param table The table name.
+   * @return The mapped fields, or {@code null} if there were errors.
+   */
+  private List<MappedField> mapFields(TypeElement entity, String table) {
+    boolean ok = true;
+
+    if (Objects.nonNull(schema) && !schema.hasTable(table)) {
+      messager.printMessage(Kind.ERROR, "Table " + table + " is not created in "
+          + schema.getPath(), entity);
+      ok = false;
+    }
+
+    boolean record = entity.getKind() == ElementKind.RECORD;
+
+    if (!record && !hasPublicNoArgConstructor(entity)) {
+      messager.printMessage(Kind.ERROR,
+          "An entity needs a public zero-argument constructor", entity);
+      ok = false;
+    }
+
+    List<MappedField> fields = new ArrayList<>();
+    int ids = 0;
+
+    for (VariableElement field : ElementFilter
+        .fieldsIn(entity.getEnclosedElements())) {
+      if (field.getModifiers().contains(Modifier.STATIC)) {
+        continue;
+      }
+
+      if (record) {
+        ok &= checkComponent(field);
+      } else if (Objects.nonNull(field.getAnnotation(Transient.class))) {
+        continue;
+      }
+
+      MappedField mapped = new MappedField();
+      String name = field.getSimpleName().toString();
+
+      if (Objects.nonNull(field.getAnnotation(Transient.class))) {
+        mapped.fieldName = name;
+        mapped.transientComponent = true;
+        fields.add(mapped);
+        continue;
+      }
+
+      Column column = field.getAnnotation(Column.class);
+      JoinColumn join = field.getAnnotation(JoinColumn.class);
+
+      mapped.fieldName = name;
+      mapped.id = Objects.nonNull(field.getAnnotation(Id.class));
+      mapped.getter = record ? name : findGetter(entity, field);
+
+      if (Objects.nonNull(join)) {
+        mapped.column = join.value();
+        mapped.setter = record ? null : findSetter(entity, field);
+        ok &= mapJoin(field, mapped)
+            && (record || Objects.nonNull(mapped.setter));
+      } else {
+        mapped.column = Objects.nonNull(column) && !column.name().isEmpty()
+            ? column.name()
+            : camelCaseToSnakeCase(name);
+        mapped.type = ColumnType.of(field.asType());
+
+        if (Objects.isNull(mapped.type)) {
+          messager.printMessage(Kind.ERROR, "Unsupported type " + field.asType()
+              + ". Mark the field @Transient if it has no column.", field);
+          ok = false;
+        } else if (record) {
+          mapped.localType = mapped.type.javaType;
+        } else {
+          mapped.setter = findSetter(entity, field);
+          ok &= Objects.nonNull(mapped.setter);
+        }
+      }
+
+      if (Objects.nonNull(column)) {
+        mapped.insertable = column.insertable();
+      }
+
+      ok &= Objects.nonNull(mapped.getter);
+
+      if (Objects.nonNull(schema) && schema.hasTable(table)
+          && !schema.hasColumn(table, mapped.column)) {
+        messager.printMessage(Kind.ERROR, "Column " + mapped.column
+            + " is not in table " + table + " in " + schema.getPath()
+            + ". The columns are: " + schema.getColumns(table), field);
+        ok = false;
+      }
+
+      if (mapped.id) {
+        ids++;
+      }
+
+      fields.add(mapped);
+    }
+
+    if (ids > 1) {
+      messager.printMessage(Kind.ERROR, "Only one field may be the @Id",
+          entity);
+      ok = false;
+    }
+
+    return ok ? fields : null;
+  }
+
+  /**
+   * Check that a record component can be mapped. Every component is passed
+   * to the canonical constructor, so none can be left out: a
+   * {@link Transient} one is passed as {@code null}. The readers hold the
+   * values in locals named after the components, so they mustn't clash with
+   * their own names.
+   *
+   * @return {@code true} if the component can be mapped.
+   */
+  private boolean checkComponent(VariableElement field) {
+    String name = field.getSimpleName().toString();
+
+    if (Objects.nonNull(field.getAnnotation(Transient.class))
+        && Objects.nonNull(field.getAnnotation(JoinColumn.class))) {
+      messager.printMessage(Kind.ERROR, "A record component can't be both "
+          + "@Transient and a @JoinColumn", field);
+      return false;
+    }
+
+    if (name.equals("rs") || name.equals("value") || name.equals("id")
+        || name.equals("reader")) {
+      messager.printMessage(Kind.ERROR, "A record component can't be named "
+          + name + ". Use @Column to map it to the column instead.", field);
+      return false;
+    }
+
+    return true;
+  }
+
+  private static boolean hasPublicNoArgConstructor(TypeElement entity) {
+    return ElementFilter.constructorsIn(entity.getEnclosedElements()).stream()
+        .anyMatch(con -> con.getModifiers().contains(Modifier.PUBLIC)
+            && con.getParameters().isEmpty());
+  }
+
+  /**
+   * Find the public getter for a field: getName(), or isName() for a
+   * Boolean.
+   */
+  private String findGetter(TypeElement entity, VariableElement field) {
+    String cap = capitalize(field.getSimpleName().toString());
+    Optional<ExecutableElement> getter = methods(entity)
+        .filter(method -> method.getSimpleName().contentEquals("get" + cap)
+            || method.getSimpleName().contentEquals("is" + cap))
+        .filter(method -> method.getParameters().isEmpty())
+        .filter(method -> processingEnv.getTypeUtils()
+            .isSameType(method.getReturnType(), field.asType()))
+        .findFirst();
+
+    if (getter.isEmpty()) {
+      messager.printMessage(Kind.ERROR,
+          "No public getter get" + cap + "() for this field", field);
+      return null;
+    }
+
+    return getter.get().getSimpleName().toString();
+  }
+
+  private String findSetter(TypeElement entity, VariableElement field) {
+    String name = "set" + capitalize(field.getSimpleName().toString());
+    boolean found = methods(entity)
+        .filter(method -> method.getSimpleName().contentEquals(name))
+        .filter(method -> method.getReturnType().getKind() == TypeKind.VOID)
+        .anyMatch(method -> method.getParameters().size() == 1
+            && processingEnv.getTypeUtils().isSameType(
+                method.getParameters().get(0).asType(), field.asType()));
+
+    if (!found) {
+      messager.printMessage(Kind.ERROR, "No public setter " + name + "("
+          + field.asType() + ") for this field", field);
+      return null;
+    }
+
+    return name;
+  }
+
+  /**
+   * For a join column, find the referenced {@link Table} entity, its mapping
+   * class, and the getter of its {@link Id} field.
+   *
+   * @return {@code true} if the join can be mapped.
+   */
+  private boolean mapJoin(VariableElement field, MappedField mapped) {
+    TypeMirror type = field.asType();
+
+    if (type.getKind() == TypeKind.DECLARED) {
+      TypeElement target = (TypeElement) ((DeclaredType) type).asElement();
+
+      for (VariableElement targetField : ElementFilter
+          .fieldsIn(target.getEnclosedElements())) {
+        if (Objects.nonNull(targetField.getAnnotation(Id.class))) {
+          if (Objects.isNull(target.getAnnotation(Table.class))
+              || ColumnType.of(targetField.asType()) != ColumnType.INTEGER) {
+            break;
+          }
+
+          mapped.joinIdGetter = target.getKind() == ElementKind.RECORD
+              ? targetField.getSimpleName().toString()
+              : findGetter(target, targetField);
+          mapped.joinType = target.getQualifiedName().toString();
+          mapped.joinMapping = mapped.joinType + GENERATED_SUFFIX;
+          return Objects.nonNull(mapped.joinIdGetter);
+        }
+      }
+    }
+
+    messager.printMessage(Kind.ERROR, "@JoinColumn needs a @Table entity "
+        + "with an Integer @Id field", field);
+    return false;
+  }
+
+  private Stream<ExecutableElement> methods(TypeElement entity) {
+    return ElementFilter
+        .methodsIn(processingEnv.getElementUtils().getAllMembers(entity))
+        .stream()
+        .filter(method -> method.getModifiers().contains(Modifier.PUBLIC))
+        .filter(method -> !method.getModifiers().contains(Modifier.STATIC));
+  }
+
+  /**
+   * Write the mapping class for an entity.
+   */
+  private void generate(TypeElement entity, String table,
+      List<MappedField> fields) {
+    String packageName = processingEnv.getElementUtils().getPackageOf(entity)
+        .getQualifiedName().toString();
+    String entityName = entity.getSimpleName().toString();
+    String className = entityName + GENERATED_SUFFIX;
+    boolean record = entity.getKind() == ElementKind.RECORD;
+
+    MappedField idField =
+        fields.stream().filter(field -> field.id).findFirst().orElse(null);
+    List<MappedField> insertFields = fields.stream()
+        .filter(field -> !field.id && field.insertable)
+        .collect(Collectors.toList());
+    List<MappedField> readFields = fields.stream()
+        .filter(field -> Objects.isNull(field.joinIdGetter))
+        .filter(field -> !field.transientComponent)
+        .collect(Collectors.toList());
+    List<MappedField> joinFields = fields.stream()
+        .filter(field -> Objects.nonNull(field.joinIdGetter))
+        .collect(Collectors.toList());
+
+    String columns = fields.stream().filter(field -> !field.transientComponent)
+        .map(field -> field.column).collect(Collectors.joining(", "));
+    String insertColumns = insertFields.stream().map(field -> field.column)
+        .collect(Collectors.joining(", "));
+    String insertParams = insertFields.stream().map(field -> "?")
+        .collect(Collectors.joining(", "));
+
+    SourceBuilder src = new SourceBuilder();
+
+    src.line("package " + packageName + ";");
+    src.line();
+    src.line("import java.sql.PreparedStatement;");
+    src.line("import java.sql.ResultSet;");
+    src.line("import java.sql.ResultSetMetaData;");
+    src.line("import java.sql.SQLException;");
+    src.line("import java.sql.Types;");
+    src.line("import java.util.HashMap;");
+    src.line("import java.util.Locale;");
+    src.line("import java.util.Map;");
+    src.line("import java.util.Objects;");
+    src.line("import javax.annotation.processing.Generated;");
+    src.line();
+    src.line("/**");
+    src.line(" * The database mapping for {@link " + entityName
+        + "}, generated from its annotations. Do not edit.");
+    src.line(" */");
+    src.line("@Generated(\"" + getClass().getName() + "\")");
+    src.open("public final class " + className + " {");
+    src.line("public static final String TABLE = " + quote(table) + ";");
+    src.line("public static final String ID_COLUMN = "
+        + (Objects.isNull(idField) ? "null" : quote(idField.column)) + ";");
+    src.line("public static final String COLUMNS = " + quote(columns) + ";");
+
+    if (!record) {
+      src.line("public static final String INSERT_SQL = " + quote("INSERT INTO "
+          + table + " (" + insertColumns + ") VALUES (" + insertParams + ")")
+          + ";");
+    }
+
+    if (!record && Objects.nonNull(idField)) {
+      String separator = insertFields.isEmpty() ? "" : ", ";
+      src.line("public static final String INSERT_WITH_ID_SQL = "
+          + quote("INSERT INTO " + table + " (" + insertColumns + separator
+              + idField.column + ") VALUES (" + insertParams + separator
+              + "?)")
+          + ";");
+    }
+
+    src.line();
+    src.open("private " + className + "() {");
+    src.close("}");
+
+    if (record) {
+      generateRecordReader(src, entityName, fields, readFields, joinFields);
+
+      if (!joinFields.isEmpty()) {
+        generateGraphReader(src, entityName, joinFields, true);
+      }
+
+      src.close("}");
+      write(entity, packageName + "." + className, src);
+      return;
+    }
+
+    generateBinder(src, entityName, insertFields);
+    generateReader(src, entityName, readFields);
+
+    if (!joinFields.isEmpty()) {
+      generateGraphReader(src, entityName, joinFields, false);
+    }
+
+    generateSetters(src, insertFields);
+
+    src.close("}");
+    write(entity, packageName + "." + className, src);
+  }
+
+  private void write(TypeElement entity, String className, SourceBuilder src) {
+    try (Writer writer = processingEnv.getFiler()
+        .createSourceFile(className, entity).openWriter()) {
+      writer.write(src.toString());
+    } catch (IOException e) {
+      messager.printMessage(Kind.ERROR,
+          "Unable to write " + className + ": " + e, entity);
+    }
+  }
+
+  private void generateBinder(SourceBuilder src, String entityName,
+      List<MappedField> insertFields) {
+    src.line();
+    src.line("/**");
+    src.line(" * Set the INSERT_SQL parameters from the entity.");
+    src.line(" *");
+    src.line(" * @param stmt The statement.");
+    src.line(" * @param index The index of the first parameter to set.");
+    src.line(" * @param entity The entity to insert.");
+    src.line(" * @return The index of the next parameter.");
+    src.line(" * @throws SQLException Thrown if a parameter can't be set.");
+    src.line(" */");
+    src.open("public static int bindInsert(PreparedStatement stmt, int index, "
+        + entityName + " entity) throws SQLException {");
+
+    for (MappedField field : insertFields) {
+      String value = "entity." + field.getter + "()";
+
+      if (Objects.nonNull(field.joinIdGetter)) {
+        value = "Objects.isNull(" + value + ") ? null : " + value + "."
+            + field.joinIdGetter + "()";
+      }
+
+      src.line(
+          bindType(field).setterName() + "(stmt, index++, " + value + ");");
+    }
+
+    src.line("return index;");
+    src.close("}");
+  }
+
+  /**
+   * Write a null-safe parameter setter for each type used by the binder.
+   */
+  private void generateSetters(SourceBuilder src,
+      List<MappedField> insertFields) {
+    Set<ColumnType> types = new TreeSet<>();
+
+    for (MappedField field : insertFields) {
+      types.add(bindType(field));
+    }
+
+    for (ColumnType type : types) {
+      src.line();
+      src.open("private static void " + type.setterName()
+          + "(PreparedStatement stmt, int index, " + type.javaType
+          + " value) throws SQLException {");
+      type.bind(src);
+      src.close("}");
+    }
+  }
+
+  /**
+   * Returns the type that is bound for a field. A join column binds the
+   * referenced entity's Integer ID.
+   */
+  private static ColumnType bindType(MappedField field) {
+    return Objects.isNull(field.joinIdGetter) ? field.type : ColumnType.INTEGER;
+  }
+
+  /**
+   * Write reader(rs) and the Reader class for a class entity. The entity is
+   * created first and filled in through its setters.
+   */
+  private void generateReader(SourceBuilder src, String entityName,
+      List<MappedField> readFields) {
+    generateReaderStart(src, entityName, readFields);
+    src.line();
+    src.line("/**");
+    src.line(" * Create an object from the current row.");
+    src.line(" *");
+    src.line(" * @param rs The result set, positioned on a row.");
+    src.line(" * @return The new object.");
+    src.line(" * @throws SQLException Thrown if a value can't be read.");
+    src.line(" */");
+    src.open(
+        "public " + entityName + " read(ResultSet rs) throws SQLException {");
+    src.line(entityName + " entity = new " + entityName + "();");
+
+    for (MappedField field : readFields) {
+      src.line();
+      src.open("if (this." + field.fieldName + " > 0) {");
+      field.type.read(src, "this." + field.fieldName,
+          "entity." + field.setter + "(%s);");
+      src.close("}");
+    }
+
+    src.line();
+    src.line("return entity;");
+    src.close("}");
+    src.close("}");
+  }
+
+  /**
+   * Write reader(rs) and the Reader class for a record. The values are read
+   * into locals and passed to the canonical constructor, with {@code null}
+   * for a transient component. If the record has join components, they are
+   * parameters of read(rs, ...), and read(rs) passes {@code null} for them.
+   */
+  private void generateRecordReader(SourceBuilder src, String entityName,
+      List<MappedField> fields, List<MappedField> readFields,
+      List<MappedField> joinFields) {
+    generateReaderStart(src, entityName, readFields);
+
+    if (!joinFields.isEmpty()) {
+      src.line();
+      src.line("/**");
+      src.line(" * Create an object from the current row, without the "
+          + "objects it joins to.");
+      src.line(" *");
+      src.line(" * @param rs The result set, positioned on a row.");
+      src.line(" * @return The new object.");
+      src.line(" * @throws SQLException Thrown if a value can't be read.");
+      src.line(" */");
+      src.open(
+          "public " + entityName + " read(ResultSet rs) throws SQLException {");
+      src.line("return read(rs" + ", null".repeat(joinFields.size()) + ");");
+      src.close("}");
+    }
+
+    src.line();
+    src.line("/**");
+
+    if (joinFields.isEmpty()) {
+      src.line(" * Create an object from the current row.");
+    } else {
+      src.line(" * Create an object from the current row, with the given "
+          + "objects it joins to.");
+    }
+
+    src.line(" *");
+    src.line(" * @param rs The result set, positioned on a row.");
+
+    for (MappedField field : joinFields) {
+      src.line(" * @param " + field.fieldName + " The object " + field.column
+          + " refers to, or null.");
+    }
+
+    src.line(" * @return The new object.");
+    src.line(" * @throws SQLException Thrown if a value can't be read.");
+    src.line(" */");
+    src.open("public " + entityName + " read(ResultSet rs"
+        + joinFields.stream()
+            .map(field -> ", " + field.joinType + " " + field.fieldName)
+            .collect(Collectors.joining())
+        + ") throws SQLException {");
+
+    for (MappedField field : readFields) {
+      src.line(field.localType + " " + field.fieldName + " = null;");
+    }
+
+    for (MappedField field : readFields) {
+      src.line();
+      src.open("if (this." + field.fieldName + " > 0) {");
+      field.type.read(src, "this." + field.fieldName,
+          field.fieldName + " = %s;");
+      src.close("}");
+    }
+
+    src.line();
+    src.line("return new " + entityName + "(" + fields.stream()
+        .map(field -> field.transientComponent ? "null" : field.fieldName)
+        .collect(Collectors.joining(", ")) + ");");
+    src.close("}");
+    src.close("}");
+  }
+
+  /**
+   * Write reader(rs), and the start of the Reader class up to and including
+   * its constructor, which finds the column of each field.
+   */
+  private void generateReaderStart(SourceBuilder src, String entityName,
+      List<MappedField> readFields) {
+    src.line();
+    src.line("/**");
+    src.line(" * Returns a reader for the rows of the given result set.");
+    src.line(" *");
+    src.line(" * @param rs The result set.");
+    src.line(" * @return The reader.");
+    src.line(" * @throws SQLException Thrown if the metadata can't be read.");
+    src.line(" */");
+    src.open("public static Reader reader(ResultSet rs) throws SQLException {");
+    src.line("return new Reader(rs.getMetaData());");
+    src.close("}");
+    src.line();
+    src.line("/**");
+    src.line(" * This creates " + entityName
+        + " objects from rows of one result set. The");
+    src.line(" * column indexes are found once, when the reader is created.");
+    src.line(" */");
+    src.open("public static final class Reader {");
+
+    for (MappedField field : readFields) {
+      src.line("private int " + field.fieldName + ";");
+    }
+
+    src.line();
+    src.open(
+        "private Reader(ResultSetMetaData meta) throws SQLException {");
+    src.line(
+        "/* Go backwards so that the first of any repeated labels wins. */");
+    src.open(
+        "for (int column = meta.getColumnCount(); column > 0; column--) {");
+    src.open("switch (meta.getColumnLabel(column).toLowerCase(Locale.ROOT)) {");
+
+    for (MappedField field : readFields) {
+      src.line("case " + quote(field.column.toLowerCase(Locale.ROOT)) + ":");
+      src.line("  this." + field.fieldName + " = column;");
+      src.line("  break;");
+    }
+
+    src.line("default:");
+    src.line("  break;");
+    src.close("}");
+    src.close("}");
+    src.close("}");
+  }
+
+  /**
+   * Write a reader that also creates the entities that the join columns
+   * point to, from the same row. Each joined entity is created once per
+   * reader, keyed by its ID, and shared by every row that refers to it. A
+   * class entity is given them through its setters, and a record is created
+   * with them by its reader.
+   */
+  private void generateGraphReader(SourceBuilder src, String entityName,
+      List<MappedField> joinFields, boolean record) {
+    src.line();
+    src.line("/**");
+    src.line(" * Returns a reader that creates " + entityName
+        + " objects along with the");
+    src.line(" * entities they join to, for the rows of the given result set.");
+    src.line(" *");
+    src.line(" * @param rs The result set.");
+    src.line(" * @return The reader.");
+    src.line(" * @throws SQLException Thrown if the metadata can't be read.");
+    src.line(" */");
+    src.open("public static GraphReader graphReader(ResultSet rs) "
+        + "throws SQLException {");
+    src.line("return new GraphReader(rs);");
+    src.close("}");
+    src.line();
+    src.line("/**");
+    src.line(" * This creates " + entityName + " objects, and the entities "
+        + "they join to, from");
+    src.line(" * the rows of one result set, reading each row once. It keeps "
+        + "an identity");
+    src.line(" * map of the joined entities by ID, so that rows that refer to "
+        + "the same");
+    src.line(" * entity share one object. Use a new reader for each query. "
+        + "Rows whose");
+
+    if (record) {
+      src.line(" * join column is NULL get null.");
+    } else {
+      src.line(" * join column is NULL get a new, empty object, as the "
+          + "entity's own reader");
+      src.line(" * would create.");
+    }
+
+    src.line(" */");
+    src.open("public static final class GraphReader {");
+    src.line("private final Reader reader;");
+
+    for (MappedField field : joinFields) {
+      String name = field.fieldName;
+
+      src.line("private final " + field.joinMapping + ".Reader " + name
+          + "Reader;");
+      src.line("private final Map<Integer, " + field.joinType + "> " + name
+          + "ById = new HashMap<>();");
+      src.line("private int " + name + "Column;");
+    }
+
+    src.line();
+    src.open("private GraphReader(ResultSet rs) throws SQLException {");
+    src.line("ResultSetMetaData meta = rs.getMetaData();");
+    src.line();
+    src.line("this.reader = new Reader(meta);");
+
+    for (MappedField field : joinFields) {
+      src.line("this." + field.fieldName + "Reader = " + field.joinMapping
+          + ".reader(rs);");
+    }
+
+    src.line();
+    src.open(
+        "for (int column = meta.getColumnCount(); column > 0; column--) {");
+    src.line("String label = meta.getColumnLabel(column);");
+
+    for (MappedField field : joinFields) {
+      src.line();
+      src.open("if (label.equalsIgnoreCase(" + quote(field.column) + ")) {");
+      src.line("this." + field.fieldName + "Column = column;");
+      src.close("}");
+    }
+
+    src.close("}");
+    src.close("}");
+    src.line();
+    src.line("/**");
+    src.line(" * Create an object, and the objects it joins to, from the "
+        + "current row.");
+    src.line(" *");
+    src.line(" * @param rs The result set, positioned on a row.");
+    src.line(" * @return The new object.");
+    src.line(" * @throws SQLException Thrown if a value can't be read.");
+    src.line(" */");
+    src.open(
+        "public " + entityName + " read(ResultSet rs) throws SQLException {");
+
+    if (record) {
+      generateRecordGraphRead(src, joinFields);
+      return;
+    }
+
+    src.line(entityName + " entity = reader.read(rs);");
+
+    for (MappedField field : joinFields) {
+      String name = field.fieldName;
+
+      src.line();
+      src.open("if (this." + name + "Column > 0) {");
+      src.line("int id = rs.getInt(this." + name + "Column);");
+      src.line();
+      src.open("if (rs.wasNull()) {");
+      src.line("entity." + field.setter + "(" + name + "Reader.read(rs));");
+      src.reopen("} else {");
+      src.line(field.joinType + " joined = " + name + "ById.get(id);");
+      src.line();
+      src.open("if (Objects.isNull(joined)) {");
+      src.line("joined = " + name + "Reader.read(rs);");
+      src.line(name + "ById.put(id, joined);");
+      src.close("}");
+      src.line();
+      src.line("entity." + field.setter + "(joined);");
+      src.close("}");
+      src.close("}");
+    }
+
+    src.line();
+    src.line("return entity;");
+    src.close("}");
+    src.close("}");
+  }
+
+  /**
+   * Write the body of a record's GraphReader.read(rs), which finds or reads
+   * each joined record and passes them to the record's reader.
+   */
+  private void generateRecordGraphRead(SourceBuilder src,
+      List<MappedField> joinFields) {
+    for (MappedField field : joinFields) {
+      String name = field.fieldName;
+
+      src.line(field.joinType + " " + name + " = null;");
+    }
+
+    for (MappedField field : joinFields) {
+      String name = field.fieldName;
+
+      src.line();
+      src.open("if (this." + name + "Column > 0) {");
+      src.line("int id = rs.getInt(this." + name + "Column);");
+      src.line();
+      src.open("if (!rs.wasNull()) {");
+      src.line(name + " = " + name + "ById.get(id);");
+      src.line();
+      src.open("if (Objects.isNull(" + name + ")) {");
+      src.line(name + " = " + name + "Reader.read(rs);");
+      src.line(name + "ById.put(id, " + name + ");");
+      src.close("}");
+      src.close("}");
+      src.close("}");
+    }
+
+    src.line();
+    src.line("return reader.read(rs, " + joinFields.stream()
+        .map(field -> field.fieldName).collect(Collectors.joining(", "))
+        + ");");
+    src.close("}");
+    src.close("}");
+  }
+
+  /**
+   * Convert a field name to a column name: numServings to num_servings.
+   */
+  static String camelCaseToSnakeCase(String identifier) {
+    StringBuilder name = new StringBuilder();
+
+    for (char ch : identifier.toCharArray()) {
+      if (Character.isUpperCase(ch)) {
+        name.append('_').append(Character.toLowerCase(ch));
+      } else {
+        name.append(ch);
+      }
+    }
+
+    return name.toString();
+  }
+
+  private static String capitalize(String name) {
+    return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+  }
+
+  private static String quote(String text) {
+    return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.mapping.processor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class reads the tables and columns from a schema script like
+ * recipe_schema.sql. It understands just enough SQL for CREATE TABLE
+ * statements written one column per line: each column definition starts with
+ * the column name, and key and constraint definitions are skipped. Names are
+ * compared in lower case, as MySQL compares them.
+ *
+ * @author Promineo
+ *
+ */
+class SchemaFile {
+  private static final Pattern CREATE_TABLE = Pattern.compile(
+      "CREATE\\s+TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?`?(\\w+)`?\\s*\\(",
+      Pattern.CASE_INSENSITIVE);
+
+  private static final Set<String> NOT_COLUMNS = Set.of("PRIMARY", "FOREIGN",
+      "UNIQUE", "KEY", "INDEX", "CONSTRAINT", "CHECK", "FULLTEXT");
+
+  private final Path path;
+  private final Map<String, Set<String>> tables = new HashMap<>();
+
+  /**
+   * Read and parse a schema script.
+   *
+   * @param path The script.
+   * @throws IOException Thrown if the script can't be read.
+   */
+  SchemaFile(Path path) throws IOException {
+    this.path = path;
+
+    String sql = stripComments(Files.readString(path, StandardCharsets.UTF_8));
+    Matcher matcher = CREATE_TABLE.matcher(sql);
+
+    while (matcher.find()) {
+      int end = closingParen(sql, matcher.end());
+      Set<String> columns = new LinkedHashSet<>();
+
+      String body = sql.substring(matcher.end(), end);
+
+      for (String definition : splitTopLevel(body)) {
+        String name = definition.trim().split("\\s+", 2)[0];
+
+        if (!name.isEmpty()
+            && !NOT_COLUMNS.contains(name.toUpperCase(Locale.ROOT))) {
+          columns.add(name.replace("`", "").toLowerCase(Locale.ROOT));
+        }
+      }
+
+      tables.put(matcher.group(1).toLowerCase(Locale.ROOT), columns);
+    }
+  }
+
+  /**
+   * Returns the script that was read, for messages.
+   */
+  Path getPath() {
+    return path;
+  }
+
+  /**
+   * Returns {@code true} if the script creates the table.
+   *
+   * @param table The table name.
+   */
+  boolean hasTable(String table) {
+    return tables.containsKey(table.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Returns {@code true} if the script creates the table with the column.
+   *
+   * @param table The table name.
+   * @param column The column name.
+   */
+  boolean hasColumn(String table, String column) {
+    Set<String> columns = tables.get(table.toLowerCase(Locale.ROOT));
+    return Objects.nonNull(columns)
+        && columns.contains(column.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Returns the columns of a table, in the order they are created.
+   *
+   * @param table The table name.
+   */
+  Set<String> getColumns(String table) {
+    return tables.getOrDefault(table.toLowerCase(Locale.ROOT), Set.of());
+  }
+
+  private static String stripComments(String sql) {
+    StringBuilder b = new StringBuilder();
+
+    for (String line : sql.split("\\R")) {
+      int comment = line.indexOf("--");
+      b.append(comment < 0 ? line : line.substring(0, comment)).append('\n');
+    }
+
+    return b.toString();
+  }
+
+  /**
+   * Find the parenthesis that closes the one just before start.
+   */
+  private static int closingParen(String sql, int start) {
+    int depth = 1;
+
+    for (int index = start; index < sql.length(); index++) {
+      char ch = sql.charAt(index);
+
+      if (ch == '(') {
+        depth++;
+      } else if (ch == ')' && --depth == 0) {
+        return index;
+      }
+    }
+
+    return sql.length();
+  }
+
+  /**
+   * Split a table body on the commas that aren't inside parentheses, so that
+   * DECIMAL(7, 2) stays in one piece.
+   */
+  private static List<String> splitTopLevel(String body) {
+    List<String> parts = new ArrayList<>();
+    int depth = 0;
+    int start = 0;
+
+    for (int index = 0; index < body.length(); index++) {
+      char ch = body.charAt(index);
+
+      if (ch == '(') {
+        depth++;
+      } else if (ch == ')') {
+        depth--;
+      } else if (ch == ',' && depth == 0) {
+        parts.add(body.substring(start, index));
+        start = index + 1;
+      }
+    }
+
+    parts.add(body.substring(start));
+    return parts;
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright (c) 2022 Promineo Tech
+
+package recipes.mapping.processor;
+
+/**
+ * This builds the text of a generated source file, keeping track of the
+ * indentation of nested blocks. Lines are indented two spaces per level.
+ *
+ * @author Promineo
+ *
+ */
+class SourceBuilder {
+  private final StringBuilder text = new StringBuilder();
+  private int depth;
+
+  /**
+   * Add a blank line.
+   */
+  void line() {
+    text.append('\n');
+  }
+
+  /**
+   * Add a line at the current indentation.
+   *
+   * @param line The line, without a line break.
+   */
+  void line(String line) {
+    text.append("  ".repeat(depth)).append(line).append('\n');
+  }
+
+  /**
+   * Add a line that opens a block, and indent the lines after it.
+   *
+   * @param line The line, ending with an opening brace.
+   */
+  void open(String line) {
+    line(line);
+    depth++;
+  }
+
+  /**
+   * Add a line that closes one block and opens another, like "} else {".
+   *
+   * @param line The line.
+   */
+  void reopen(String line) {
+    depth--;
+    line(line);
+    depth++;
+  }
+
+  /**
+   * Add a line that closes a block, at the outer indentation.
+   *
+   * @param line The line, starting with a closing brace.
+   */
+  void close(String line) {
+    depth--;
+    line(line);
+  }
+
+  @Override
+  public String toString() {
+    return text.toString();
+  }
+}